@@ -0,0 +1,160 @@
+package com.sd.lib.proxy;
+
+import com.android.dx.Code;
+import com.android.dx.Comparison;
+import com.android.dx.FieldId;
+import com.android.dx.Label;
+import com.android.dx.Local;
+import com.android.dx.MethodId;
+import com.android.dx.TypeId;
+
+import java.lang.reflect.Modifier;
+
+/**
+ * 生成advice模式的代码，不拦截的调用在调用父类方法的前后回调{@link FBeforeAdvice}和{@link FAfterAdvice}
+ */
+final class AdviceGenerator
+{
+    private final DexMakerHelper mHelper;
+    private final FieldId mFieldBefore;
+    private final FieldId mFieldAfter;
+    private final FieldId mFieldMethodIds;
+    private final MethodId mMethodBefore;
+    private final MethodId mMethodAfter;
+
+    public AdviceGenerator(DexMakerHelper helper)
+    {
+        mHelper = helper;
+        mFieldBefore = helper.getField(helper.getProxyClass(),
+                FBeforeAdvice.class, FProxyInterface.FIELD_NAME_BEFOREADVICE);
+        mFieldAfter = helper.getField(helper.getProxyClass(),
+                FAfterAdvice.class, FProxyInterface.FIELD_NAME_AFTERADVICE);
+        mFieldMethodIds = helper.getField(helper.getProxyClass(),
+                int[].class, FProxyInterface.FIELD_NAME_METHODIDS);
+        mMethodBefore = helper.getMethod(FBeforeAdvice.class, Void.class, "before",
+                Object.class, int.class);
+        mMethodAfter = helper.getMethod(FAfterAdvice.class, Void.class, "after",
+                Object.class, int.class, Throwable.class);
+    }
+
+    /**
+     * 声明advice的静态属性
+     */
+    public void declareFields()
+    {
+        // private static volatile FBeforeAdvice sBeforeAdvice = null;
+        mHelper.declareField(Modifier.PRIVATE | Modifier.STATIC | Modifier.VOLATILE,
+                FBeforeAdvice.class, FProxyInterface.FIELD_NAME_BEFOREADVICE, null);
+        // private static volatile FAfterAdvice sAfterAdvice = null;
+        mHelper.declareField(Modifier.PRIVATE | Modifier.STATIC | Modifier.VOLATILE,
+                FAfterAdvice.class, FProxyInterface.FIELD_NAME_AFTERADVICE, null);
+        // private static int[] sMethodIds = null;
+        mHelper.declareField(Modifier.PRIVATE | Modifier.STATIC,
+                int[].class, FProxyInterface.FIELD_NAME_METHODIDS, null);
+    }
+
+    /**
+     * 创建回调advice用到的变量，要在方法的第一条指令之前调用
+     *
+     * @param code
+     * @param localObjectTmp 方法共用的临时变量
+     * @return
+     */
+    public Locals newLocals(Code code, Local<Object> localObjectTmp)
+    {
+        final Locals locals = new Locals();
+        locals.before = mHelper.newLocal(code, FBeforeAdvice.class);
+        locals.after = mHelper.newLocal(code, FAfterAdvice.class);
+        locals.methodIds = mHelper.newLocal(code, int[].class);
+        locals.methodId = mHelper.newLocal(code, int.class);
+        locals.error = mHelper.newLocal(code, Throwable.class);
+        locals.objectTmp = localObjectTmp;
+        return locals;
+    }
+
+    /**
+     * 生成调用父类方法并在前后回调advice的代码
+     *
+     * <pre>
+     * FBeforeAdvice before = sBeforeAdvice;
+     * if (before != null) before.before(this, sMethodIds[methodIndex]);
+     * FAfterAdvice after = sAfterAdvice;
+     * if (after == null) return super.method(args);
+     * try
+     * {
+     *     result = super.method(args);
+     * } catch (Throwable e)
+     * {
+     *     after.after(this, sMethodIds[methodIndex], e);
+     *     throw e;
+     * }
+     * after.after(this, sMethodIds[methodIndex], null);
+     * return result;
+     * </pre>
+     */
+    public void invokeSuper(Code code, FMethodInfo methodInfo, int methodIndex, Local localReturn, Locals locals)
+    {
+        final Class<?> classReturn = methodInfo.getReturnType();
+        final Class<?>[] classArgs = methodInfo.getArgsClass();
+        final boolean isReturnVoid = classReturn == void.class;
+
+        // 方法id在每次启动的时候可能不一样，不能写在dex里面，从静态数组读取
+        code.sget(mFieldMethodIds, locals.methodIds);
+        code.loadConstant(locals.methodId, methodIndex);
+        code.aget(locals.methodId, locals.methodIds, locals.methodId);
+
+        final Label labelAfter = new Label();
+        code.loadConstant(locals.objectTmp, null);
+        code.sget(mFieldBefore, locals.before);
+        code.compare(Comparison.EQ, labelAfter, locals.before, (Local) locals.objectTmp);
+        code.invokeInterface(mMethodBefore, null, locals.before, mHelper.getThis(code), locals.methodId);
+
+        code.mark(labelAfter);
+        final Label labelWithAfter = new Label();
+        code.sget(mFieldAfter, locals.after);
+        code.compare(Comparison.NE, labelWithAfter, locals.after, (Local) locals.objectTmp);
+        mHelper.invokeSuperAndReturn(code, methodInfo, localReturn);
+
+        code.mark(labelWithAfter);
+        final MethodId methodSuper = mHelper.getMethod(mHelper.getSuperClass(), classReturn, methodInfo.getName(), classArgs);
+        final Local[] localArgs = new Local[classArgs.length];
+        for (int i = 0; i < classArgs.length; i++)
+        {
+            localArgs[i] = mHelper.getParameter(code, i, classArgs[i]);
+        }
+
+        final Label labelCatch = new Label();
+        final TypeId<Throwable> typeThrowable = mHelper.getType(Throwable.class);
+        code.addCatchClause(typeThrowable, labelCatch);
+        code.invokeSuper(methodSuper, isReturnVoid ? null : localReturn, mHelper.getThis(code), localArgs);
+        code.removeCatchClause(typeThrowable);
+
+        code.loadConstant(locals.error, null);
+        code.invokeInterface(mMethodAfter, null, locals.after, mHelper.getThis(code), locals.methodId, locals.error);
+        if (isReturnVoid)
+        {
+            code.returnVoid();
+        } else
+        {
+            code.returnValue(localReturn);
+        }
+
+        code.mark(labelCatch);
+        code.moveException(locals.error);
+        code.invokeInterface(mMethodAfter, null, locals.after, mHelper.getThis(code), locals.methodId, locals.error);
+        code.throwValue(locals.error);
+    }
+
+    /**
+     * 回调advice用到的变量
+     */
+    static final class Locals
+    {
+        public Local<FBeforeAdvice> before;
+        public Local<FAfterAdvice> after;
+        public Local<int[]> methodIds;
+        public Local<Integer> methodId;
+        public Local<Throwable> error;
+        public Local<Object> objectTmp;
+    }
+}
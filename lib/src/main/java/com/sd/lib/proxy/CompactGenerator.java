@@ -0,0 +1,288 @@
+package com.sd.lib.proxy;
+
+import com.android.dx.Code;
+import com.android.dx.Comparison;
+import com.android.dx.Label;
+import com.android.dx.Local;
+import com.android.dx.MethodId;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 生成紧凑模式的代码
+ * <p>
+ * 相同参数形状的方法共享一个参数打包方法；父类方法统一由{@link FProxySuperInvoker#METHOD_NAME_INVOKESUPER}按下标调用，
+ * 不为每个方法生成单独的$Super$方法
+ */
+final class CompactGenerator
+{
+    private static final String METHOD_NAME_PACK_ARGS = "packArgs" + FProxyInterface.PROXY_CLASS_SUFFIX;
+
+    private final DexMakerHelper mHelper;
+    private final boolean mIsReuseArgs;
+    /**
+     * 已经生成的参数打包方法，key是参数形状
+     */
+    private final Map<List<Class<?>>, MethodId<?, ?>> mMapPackArgs = new HashMap<>();
+
+    /**
+     * @param helper
+     * @param isReuseArgs 是否复用参数数组
+     */
+    public CompactGenerator(DexMakerHelper helper, boolean isReuseArgs)
+    {
+        mHelper = helper;
+        mIsReuseArgs = isReuseArgs;
+    }
+
+    /**
+     * 返回参数形状对应的打包方法，没有的话生成一个<br>
+     * 引用类型的参数都按Object处理，所以只有基本类型的位置会区分形状
+     *
+     * <pre>
+     * private static Object[] packArgs$FProxy$N(int arg0, Object arg1)
+     * {
+     *     return new Object[]{Integer.valueOf(arg0), arg1};
+     * }
+     * </pre>
+     */
+    public MethodId<?, ?> getPackArgsMethod(Class<?>[] classArgs)
+    {
+        final Class<?>[] classShape = new Class<?>[classArgs.length];
+        for (int i = 0; i < classArgs.length; i++)
+        {
+            classShape[i] = classArgs[i].isPrimitive() ? classArgs[i] : Object.class;
+        }
+
+        final List<Class<?>> key = Arrays.asList(classShape);
+        MethodId<?, ?> method = mMapPackArgs.get(key);
+        if (method != null)
+        {
+            return method;
+        }
+
+        final String methodName = METHOD_NAME_PACK_ARGS + mMapPackArgs.size();
+        final Code code = mHelper.declareMethod(Modifier.PRIVATE | Modifier.STATIC, Object[].class, methodName, classShape);
+        final Local<Object[]> localArgsValue = mHelper.newLocal(code, Object[].class);
+        final Local<Integer> localIntTmp = mHelper.newLocal(code, int.class);
+        final Local<Object> localObjectTmp = mHelper.newLocal(code, Object.class);
+
+        code.loadConstant(localIntTmp, classShape.length);
+        ProxyClassGenerator.newArgsArray(mHelper, code, localArgsValue, localIntTmp, mIsReuseArgs);
+        for (int i = 0; i < classShape.length; i++)
+        {
+            code.loadConstant(localIntTmp, i);
+            if (classShape[i].isPrimitive())
+            {
+                code.invokeStatic(mHelper.getMethodPrimitiveValueOf(classShape[i]), localObjectTmp,
+                        mHelper.getParameter(code, i, classShape[i]));
+                code.aput(localArgsValue, localIntTmp, localObjectTmp);
+            } else
+            {
+                code.aput(localArgsValue, localIntTmp, mHelper.getParameter(code, i, classShape[i]));
+            }
+        }
+        code.returnValue(localArgsValue);
+
+        method = mHelper.getMethod(mHelper.getProxyClass(), Object[].class, methodName, classShape);
+        mMapPackArgs.put(key, method);
+        return method;
+    }
+
+    /**
+     * 生成按方法下标调用父类方法的分发方法，代替每个方法单独的$Super$方法
+     *
+     * <pre>
+     * public Object invokeSuper$FProxy$(int methodIndex, Object[] args)
+     * {
+     *     // 按下标二分查找
+     *     if (methodIndex == 0) return super.method0((String) args[0]);
+     *     if (methodIndex == 1) return Integer.valueOf(super.method1(((Integer) args[0]).intValue()));
+     *     ...
+     *     throw new FProxyException("no super method:" + methodIndex);
+     * }
+     * </pre>
+     */
+    public void declareSuperInvoker(ProxyClassInfo classInfo, FMethodInfo[] arrMethodInfo)
+    {
+        final Code code = mHelper.declareMethod(Modifier.PUBLIC, Object.class, FProxySuperInvoker.METHOD_NAME_INVOKESUPER,
+                int.class, Object[].class);
+
+        // 统计每种类型最多同时需要几个变量，所有分支共用
+        final List<Integer> listIndex = new ArrayList<>();
+        final Map<Class<?>, Integer> mapLocalCount = new HashMap<>();
+        final Map<Class<?>, Integer> mapCount = new HashMap<>();
+        for (int i = 0; i < arrMethodInfo.length; i++)
+        {
+            if (!classInfo.hasSuperMethod(i))
+            {
+                continue;
+            }
+            listIndex.add(i);
+
+            mapCount.clear();
+            for (Class<?> item : arrMethodInfo[i].getArgsClass())
+            {
+                final Integer count = mapCount.get(item);
+                mapCount.put(item, count == null ? 1 : count + 1);
+            }
+            final Class<?> classReturn = arrMethodInfo[i].getReturnType();
+            if (classReturn.isPrimitive() && classReturn != void.class && !mapCount.containsKey(classReturn))
+            {
+                mapCount.put(classReturn, 1);
+            }
+            for (Map.Entry<Class<?>, Integer> item : mapCount.entrySet())
+            {
+                final Integer count = mapLocalCount.get(item.getKey());
+                if (count == null || count < item.getValue())
+                {
+                    mapLocalCount.put(item.getKey(), item.getValue());
+                }
+            }
+        }
+
+        // ---------- 变量 ----------
+        final SuperInvokerLocals locals = new SuperInvokerLocals();
+        locals.result = mHelper.newLocal(code, Object.class);
+        locals.intTmp = mHelper.newLocal(code, int.class);
+        locals.objectTmp = mHelper.newLocal(code, Object.class);
+        locals.exception = mHelper.newLocal(code, FProxyException.class);
+        locals.message = mHelper.newLocal(code, String.class);
+        for (Map.Entry<Class<?>, Integer> item : mapLocalCount.entrySet())
+        {
+            final Class<?> clazz = item.getKey();
+            final Local[] arrLocal = new Local[item.getValue()];
+            for (int i = 0; i < arrLocal.length; i++)
+            {
+                arrLocal[i] = mHelper.newLocal(code, clazz);
+            }
+            locals.mapLocal.put(clazz, arrLocal);
+
+            if (clazz.isPrimitive() && !locals.mapPackLocal.containsKey(clazz))
+            {
+                locals.mapPackLocal.put(clazz, mHelper.newLocal(code, DexMakerHelper.getPackedClass(clazz)));
+            }
+        }
+
+        // ---------- 分发 ----------
+        final Label labelNotFound = new Label();
+        final int[] arrIndex = new int[listIndex.size()];
+        for (int i = 0; i < arrIndex.length; i++)
+        {
+            arrIndex[i] = listIndex.get(i);
+        }
+        declareSuperDispatch(code, locals, arrMethodInfo, arrIndex, 0, arrIndex.length, labelNotFound);
+
+        code.mark(labelNotFound);
+        code.loadConstant(locals.message, "no super method");
+        code.newInstance(locals.exception, mHelper.getConstructor(FProxyException.class, String.class), locals.message);
+        code.throwValue(locals.exception);
+    }
+
+    /**
+     * 生成[start, end)范围内的方法下标的分发代码，范围比较大的时候二分
+     */
+    private void declareSuperDispatch(Code code, SuperInvokerLocals locals,
+                                     FMethodInfo[] arrMethodInfo, int[] arrIndex, int start, int end,
+                                     Label labelNotFound)
+    {
+        final Local<Integer> localMethodIndex = mHelper.getParameter(code, 0, int.class);
+
+        if (end - start > 4)
+        {
+            final int middle = (start + end) >>> 1;
+            final Label labelUpper = new Label();
+            code.loadConstant(locals.intTmp, arrIndex[middle]);
+            code.compare(Comparison.GE, labelUpper, localMethodIndex, locals.intTmp);
+            declareSuperDispatch(code, locals, arrMethodInfo, arrIndex, start, middle, labelNotFound);
+            code.mark(labelUpper);
+            declareSuperDispatch(code, locals, arrMethodInfo, arrIndex, middle, end, labelNotFound);
+            return;
+        }
+
+        for (int i = start; i < end; i++)
+        {
+            final Label labelNext = new Label();
+            code.loadConstant(locals.intTmp, arrIndex[i]);
+            code.compare(Comparison.NE, labelNext, localMethodIndex, locals.intTmp);
+            declareSuperCall(code, locals, arrMethodInfo[arrIndex[i]]);
+            code.mark(labelNext);
+        }
+        code.jump(labelNotFound);
+    }
+
+    /**
+     * 生成拆开参数数组，调用父类方法并返回的代码
+     */
+    private void declareSuperCall(Code code, SuperInvokerLocals locals, FMethodInfo methodInfo)
+    {
+        final Local<Object[]> localArgsValue = mHelper.getParameter(code, 1, Object[].class);
+        final Class<?>[] classArgs = methodInfo.getArgsClass();
+        final Class<?> classReturn = methodInfo.getReturnType();
+
+        final Map<Class<?>, Integer> mapUsed = new HashMap<>();
+        final Local[] localArgs = new Local[classArgs.length];
+        for (int i = 0; i < classArgs.length; i++)
+        {
+            final Class<?> classArg = classArgs[i];
+            final Integer used = mapUsed.get(classArg);
+            final int usedIndex = used == null ? 0 : used;
+            mapUsed.put(classArg, usedIndex + 1);
+
+            final Local localArg = locals.mapLocal.get(classArg)[usedIndex];
+            code.loadConstant(locals.intTmp, i);
+            code.aget(locals.objectTmp, localArgsValue, locals.intTmp);
+            if (classArg.isPrimitive())
+            {
+                final Local localPack = locals.mapPackLocal.get(classArg);
+                code.cast(localPack, locals.objectTmp);
+                code.invokeVirtual(mHelper.getMethodPrimitiveValue(classArg), localArg, localPack);
+            } else
+            {
+                code.cast(localArg, locals.objectTmp);
+            }
+            localArgs[i] = localArg;
+        }
+
+        final MethodId methodSuper = mHelper.getMethod(mHelper.getSuperClass(), classReturn, methodInfo.getName(), classArgs);
+        if (classReturn == void.class)
+        {
+            code.invokeSuper(methodSuper, null, mHelper.getThis(code), localArgs);
+            code.loadConstant(locals.result, null);
+        } else if (classReturn.isPrimitive())
+        {
+            final Local localReturn = locals.mapLocal.get(classReturn)[0];
+            code.invokeSuper(methodSuper, localReturn, mHelper.getThis(code), localArgs);
+            code.invokeStatic(mHelper.getMethodPrimitiveValueOf(classReturn), locals.result, localReturn);
+        } else
+        {
+            code.invokeSuper(methodSuper, locals.result, mHelper.getThis(code), localArgs);
+        }
+        code.returnValue(locals.result);
+    }
+
+    /**
+     * 分发方法中所有分支共用的变量
+     */
+    private static final class SuperInvokerLocals
+    {
+        public Local<Object> result;
+        public Local<Integer> intTmp;
+        public Local<Object> objectTmp;
+        public Local<FProxyException> exception;
+        public Local<String> message;
+        /**
+         * 参数和基本类型返回值的变量，按类型保存
+         */
+        public final Map<Class<?>, Local[]> mapLocal = new HashMap<>();
+        /**
+         * 基本类型拆箱用的包装类型变量
+         */
+        public final Map<Class<?>, Local> mapPackLocal = new HashMap<>();
+    }
+}
@@ -9,24 +9,68 @@ import com.android.dx.TypeId;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Modifier;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * dex帮助类
+ * <p>
+ * TypeId和MethodId保存在{@link Interns}中，同一个代理工厂生成不同的代理class的时候不会重复创建，
+ * 代理工厂不再使用之后，其中引用的class和ClassLoader可以被回收；
+ * 代理class自己的TypeId和MethodId由每个对象单独保存
  */
 class DexMakerHelper
 {
-    private HashMap<Class, TypeId> mMapType = new HashMap<>();
+
+    private static final Class<?>[] PRIMITIVE_CLASSES = new Class<?>[]{
+            boolean.class, byte.class, char.class, double.class,
+            float.class, int.class, long.class, short.class};
+
+    private static final Map<Class<?>, Class<?>> MAP_PACKED_CLASS = new HashMap<>();
+    private static final Map<Class<?>, MethodId<?, ?>> MAP_PRIMITIVE_VALUE_OF = new HashMap<>();
+    private static final Map<Class<?>, MethodId<?, ?>> MAP_PRIMITIVE_VALUE = new HashMap<>();
+
+    static
+    {
+        MAP_PACKED_CLASS.put(boolean.class, Boolean.class);
+        MAP_PACKED_CLASS.put(byte.class, Byte.class);
+        MAP_PACKED_CLASS.put(char.class, Character.class);
+        MAP_PACKED_CLASS.put(double.class, Double.class);
+        MAP_PACKED_CLASS.put(float.class, Float.class);
+        MAP_PACKED_CLASS.put(int.class, Integer.class);
+        MAP_PACKED_CLASS.put(long.class, Long.class);
+        MAP_PACKED_CLASS.put(short.class, Short.class);
+
+        for (Class<?> item : PRIMITIVE_CLASSES)
+        {
+            final TypeId typePrimitive = TypeId.get(item);
+            final TypeId typePack = TypeId.get(MAP_PACKED_CLASS.get(item));
+
+            // 比如：Integer.valueOf(int)
+            MAP_PRIMITIVE_VALUE_OF.put(item, typePack.getMethod(typePack, "valueOf", typePrimitive));
+            // 比如：Integer.intValue()
+            MAP_PRIMITIVE_VALUE.put(item, typePack.getMethod(typePrimitive, item.getName() + "Value"));
+        }
+    }
 
     private DexMaker mDexMaker;
     private Class<?> mSuperClass;
+    private int mDeclaredMethodCount;
 
+    private final Interns mInterns;
     private final TypeId<?> mTypeSuper;
     private final TypeId<?> mTypeProxy;
 
-    public DexMakerHelper(Class<?> superClass)
+    /**
+     * @param superClass 代理class的父类
+     * @param interns    共享的TypeId和MethodId
+     */
+    public DexMakerHelper(Class<?> superClass, Interns interns)
     {
         mSuperClass = superClass;
+        mInterns = interns;
 
         mTypeSuper = getType(mSuperClass);
         final String typeProxyName = mTypeSuper.getName().replace(";", FProxyInterface.PROXY_CLASS_SUFFIX + ";");
@@ -67,6 +111,16 @@ class DexMakerHelper
         return mDexMaker;
     }
 
+    /**
+     * 返回已经声明的方法数量（包括构造方法）
+     *
+     * @return
+     */
+    public int getDeclaredMethodCount()
+    {
+        return mDeclaredMethodCount;
+    }
+
     /**
      * 声明类
      *
@@ -103,6 +157,7 @@ class DexMakerHelper
     public Code declareConstructor(int flags, Class<?>... parameters)
     {
         MethodId method = getConstructor(getProxyClass(), parameters);
+        mDeclaredMethodCount++;
         return getDexMaker().declare(method, flags);
     }
 
@@ -132,18 +187,21 @@ class DexMakerHelper
     public Code declareMethod(int flags, Class<?> classReturn, String methodName, Class<?>... parameters)
     {
         MethodId method = getMethod(getProxyClass(), classReturn, methodName, parameters);
+        mDeclaredMethodCount++;
         return getDexMaker().declare(method, flags);
     }
 
     public <T> TypeId<T> getType(Class<T> clazz)
     {
-        TypeId typeId = mMapType.get(clazz);
+        if (clazz == FProxyClass.class)
+        {
+            return (TypeId<T>) getTypeProxy();
+        }
+
+        TypeId typeId = mInterns.mMapType.get(clazz);
         if (typeId == null)
         {
-            if (clazz == FProxyClass.class)
-            {
-                typeId = getTypeProxy();
-            } else if (clazz == Void.class)
+            if (clazz == Void.class)
             {
                 typeId = TypeId.VOID;
             } else if (clazz == Object.class)
@@ -157,7 +215,7 @@ class DexMakerHelper
                 typeId = TypeId.get(clazz);
             }
 
-            mMapType.put(clazz, typeId);
+            mInterns.mMapType.put(clazz, typeId);
         }
         return typeId;
     }
@@ -190,6 +248,11 @@ class DexMakerHelper
      */
     public <T> MethodId<T, Void> getConstructor(Class<T> classTarget, Class<?>... parameters)
     {
+        if (classTarget != FProxyClass.class)
+        {
+            return (MethodId<T, Void>) internMethod(classTarget, Void.class, MethodSignature.NAME_CONSTRUCTOR, parameters);
+        }
+
         TypeId typeTarget = getType(classTarget);
         TypeId[] typeParameters = classToTypeId(parameters);
 
@@ -216,6 +279,11 @@ class DexMakerHelper
     public <T, R> MethodId<T, R> getMethod(Class<T> classTarget,
                                            Class<R> classReturn, String methodName, Class<?>... parameters)
     {
+        if (classTarget != FProxyClass.class)
+        {
+            return (MethodId<T, R>) internMethod(classTarget, classReturn, methodName, parameters);
+        }
+
         TypeId typeTarget = getType(classTarget);
         TypeId typeReturn = getType(classReturn);
         TypeId[] typeParameters = classToTypeId(parameters);
@@ -229,6 +297,34 @@ class DexMakerHelper
         }
     }
 
+    /**
+     * 返回全局共享的MethodId，目标class不能是代理class
+     */
+    private MethodId<?, ?> internMethod(Class<?> classTarget,
+                                        Class<?> classReturn, String methodName, Class<?>[] parameters)
+    {
+        final MethodSignature signature = new MethodSignature(classTarget, classReturn, methodName, parameters);
+        MethodId<?, ?> method = mInterns.mMapMethod.get(signature);
+        if (method == null)
+        {
+            final TypeId typeTarget = getType(classTarget);
+            final TypeId[] typeParameters = classToTypeId(parameters);
+
+            if (MethodSignature.NAME_CONSTRUCTOR.equals(methodName))
+            {
+                method = typeParameters != null ? typeTarget.getConstructor(typeParameters) : typeTarget.getConstructor();
+            } else
+            {
+                final TypeId typeReturn = getType(classReturn);
+                method = typeParameters != null ? typeTarget.getMethod(typeReturn, methodName, typeParameters)
+                        : typeTarget.getMethod(typeReturn, methodName);
+            }
+
+            mInterns.mMapMethod.put(signature, method);
+        }
+        return method;
+    }
+
     /**
      * 返回基本类型的valueOf方法<br>
      * 比如：Integer.valueOf(1);
@@ -238,12 +334,7 @@ class DexMakerHelper
      */
     public MethodId<?, ?> getMethodPrimitiveValueOf(Class<?> clazz)
     {
-        Class classPack = getPackedClass(clazz);
-
-        return getMethod(classPack,
-                classPack,
-                "valueOf",
-                clazz);
+        return MAP_PRIMITIVE_VALUE_OF.get(clazz);
     }
 
     /**
@@ -255,11 +346,7 @@ class DexMakerHelper
      */
     public MethodId<?, ?> getMethodPrimitiveValue(Class<?> clazz)
     {
-        Class classPack = getPackedClass(clazz);
-
-        return getMethod(classPack,
-                clazz,
-                clazz.getSimpleName() + "Value");
+        return MAP_PRIMITIVE_VALUE.get(clazz);
     }
 
     /**
@@ -303,26 +390,23 @@ class DexMakerHelper
     }
 
     /**
-     * 声明所有父类支持的合法构造方法
+     * 声明父类支持的合法构造方法
+     *
+     * @param arrConstructor 父类的构造方法
      */
-    public void declareConstructors()
+    public void declareConstructors(Constructor<?>[] arrConstructor)
     {
-        Constructor[] arrConstructor = getSuperClass().getDeclaredConstructors();
+        if (arrConstructor.length <= 0)
+        {
+            throw new FProxyException("cant find legal Constructor");
+        }
 
-        int modifiers = 0;
         Class[] classArgs = null;
-        boolean foundConstructor = false;
         for (Constructor item : arrConstructor)
         {
-            modifiers = item.getModifiers();
-            if (Modifier.isPrivate(modifiers) || modifiers == 0)
-            {
-                continue;
-            }
-            foundConstructor = true;
             classArgs = item.getParameterTypes();
 
-            Code code = declareConstructor(modifiers, classArgs);
+            Code code = declareConstructor(item.getModifiers(), classArgs);
             if (classArgs != null && classArgs.length > 0)
             {
                 Local[] localArgs = new Local[classArgs.length];
@@ -338,13 +422,67 @@ class DexMakerHelper
             }
             code.returnVoid();
         }
+    }
+
+    /**
+     * 声明属性的set方法
+     *
+     * @param field      属性
+     * @param classField 属性的class
+     * @param methodName 方法名称
+     */
+    public void declareFieldSetter(FieldId field, Class<?> classField, String methodName)
+    {
+        final Code code = declareMethod(Modifier.PUBLIC, Void.class, methodName, classField);
+        code.iput(field, getThis(code), getParameter(code, 0, classField));
+        code.returnVoid();
+    }
 
-        if (!foundConstructor)
+    /**
+     * 声明属性的get方法
+     *
+     * @param field      属性
+     * @param classField 属性的class
+     * @param methodName 方法名称
+     */
+    public void declareFieldGetter(FieldId field, Class<?> classField, String methodName)
+    {
+        final Code code = declareMethod(Modifier.PUBLIC, classField, methodName);
+        final Local local = newLocal(code, classField);
+        code.iget(field, local, getThis(code));
+        code.returnValue(local);
+    }
+
+    /**
+     * 生成调用父类方法并返回的代码
+     *
+     * @param code
+     * @param methodInfo  要调用的方法
+     * @param localReturn 保存返回值的变量，void方法为null
+     */
+    public void invokeSuperAndReturn(Code code, FMethodInfo methodInfo, Local localReturn)
+    {
+        final Class<?> classReturn = methodInfo.getReturnType();
+        final Class<?>[] classArgs = methodInfo.getArgsClass();
+        final boolean isReturnVoid = classReturn == void.class;
+
+        final MethodId methodSuper = getMethod(getSuperClass(), classReturn, methodInfo.getName(), classArgs);
+
+        final Local[] localArgs = new Local[classArgs.length];
+        for (int i = 0; i < classArgs.length; i++)
         {
-            throw new FProxyException("cant find legal Constructor");
+            localArgs[i] = getParameter(code, i, classArgs[i]);
         }
-    }
+        code.invokeSuper(methodSuper, isReturnVoid ? null : localReturn, getThis(code), localArgs);
 
+        if (isReturnVoid)
+        {
+            code.returnVoid();
+        } else
+        {
+            code.returnValue(localReturn);
+        }
+    }
 
     public TypeId<?>[] classToTypeId(Class<?>[] arrClass)
     {
@@ -369,34 +507,8 @@ class DexMakerHelper
      */
     public static Class<?> getPackedClass(Class<?> primitive)
     {
-        if (primitive == boolean.class)
-        {
-            return Boolean.class;
-        } else if (primitive == byte.class)
-        {
-            return Byte.class;
-        } else if (primitive == char.class)
-        {
-            return Character.class;
-        } else if (primitive == double.class)
-        {
-            return Double.class;
-        } else if (primitive == float.class)
-        {
-            return Float.class;
-        } else if (primitive == int.class)
-        {
-            return Integer.class;
-        } else if (primitive == long.class)
-        {
-            return Long.class;
-        } else if (primitive == short.class)
-        {
-            return Short.class;
-        } else
-        {
-            return primitive;
-        }
+        final Class<?> classPack = MAP_PACKED_CLASS.get(primitive);
+        return classPack != null ? classPack : primitive;
     }
 
     /**
@@ -406,4 +518,62 @@ class DexMakerHelper
     private class FProxyClass
     {
     }
+
+    /**
+     * 共享的TypeId和MethodId，由代理工厂保存，生命周期和代理工厂一样
+     */
+    static final class Interns
+    {
+        private final ConcurrentHashMap<Class<?>, TypeId<?>> mMapType = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<MethodSignature, MethodId<?, ?>> mMapMethod = new ConcurrentHashMap<>();
+    }
+
+    private static final class MethodSignature
+    {
+        public static final String NAME_CONSTRUCTOR = "<init>";
+
+        private final Class<?> mClassTarget;
+        private final Class<?> mClassReturn;
+        private final String mMethodName;
+        private final Class<?>[] mParameters;
+        private final int mHashCode;
+
+        public MethodSignature(Class<?> classTarget, Class<?> classReturn, String methodName, Class<?>[] parameters)
+        {
+            mClassTarget = classTarget;
+            mClassReturn = classReturn;
+            mMethodName = methodName;
+            mParameters = (parameters == null || parameters.length <= 0) ? null : parameters;
+
+            int hashCode = classTarget.hashCode();
+            hashCode = hashCode * 31 + classReturn.hashCode();
+            hashCode = hashCode * 31 + methodName.hashCode();
+            hashCode = hashCode * 31 + Arrays.hashCode(mParameters);
+            mHashCode = hashCode;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+            {
+                return true;
+            }
+            if (!(obj instanceof MethodSignature))
+            {
+                return false;
+            }
+            final MethodSignature other = (MethodSignature) obj;
+            return mClassTarget == other.mClassTarget
+                    && mClassReturn == other.mClassReturn
+                    && mMethodName.equals(other.mMethodName)
+                    && Arrays.equals(mParameters, other.mParameters);
+        }
+    }
 }
@@ -0,0 +1,16 @@
+package com.sd.lib.proxy;
+
+/**
+ * 调用父类方法之后的回调，代理class直接调用，不会打包参数，也没有反射
+ */
+public interface FAfterAdvice
+{
+    /**
+     * 调用父类方法之后回调，父类方法抛出异常的话也会回调，回调之后再抛出这个异常
+     *
+     * @param proxy    代理对象
+     * @param methodId 方法id，可以通过{@link FMethodInfo#get(int)}获得方法信息
+     * @param error    父类方法抛出的异常，正常返回的话为null
+     */
+    void after(Object proxy, int methodId, Throwable error);
+}
@@ -0,0 +1,430 @@
+package com.sd.lib.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 合并调用的拦截对象
+ * <p>
+ * 要合并的方法被调用的时候不会调用父类的方法，而是把调用保存到队列中，
+ * 当队列中的数量达到最大值或者距离第一个调用的时间超过最大延迟的时候，一次性回调给{@link Callback}
+ */
+public class FBatchingInterceptor implements FMethodInterceptor
+{
+    private static final Object[] ARGS_FLUSHED = new Object[0];
+    private static final ThreadLocal<CollapseKey> LOOKUP_KEY = new ThreadLocal<CollapseKey>()
+    {
+        @Override
+        protected CollapseKey initialValue()
+        {
+            return new CollapseKey();
+        }
+    };
+
+    private final int mMaxBatchSize;
+    private final long mMaxDelayNanos;
+    private final Callback mCallback;
+
+    private final ConcurrentLinkedQueue<Call> mQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mQueueSize = new AtomicInteger();
+    private final AtomicLong mBatchStartTime = new AtomicLong();
+    private final AtomicBoolean mFlushing = new AtomicBoolean();
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean();
+
+    private volatile boolean mCollapse;
+    private final ConcurrentHashMap<CollapseKey, Call> mMapPending = new ConcurrentHashMap<>();
+
+    private volatile ScheduledExecutorService mFlushExecutor;
+    private volatile ErrorHandler mErrorHandler;
+    private final AtomicLong mFlushErrorCount = new AtomicLong();
+    private final Runnable mFlushRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            mFlushScheduled.set(false);
+            flush();
+        }
+    };
+
+    /**
+     * @param maxBatchSize 队列中的调用数量达到这个值的时候回调
+     * @param maxDelay     距离第一个调用的时间超过这个值（毫秒）的时候回调
+     * @param callback     回调对象
+     */
+    public FBatchingInterceptor(int maxBatchSize, long maxDelay, Callback callback)
+    {
+        if (maxBatchSize <= 0)
+        {
+            throw new IllegalArgumentException("maxBatchSize must be > 0");
+        }
+        if (callback == null)
+        {
+            throw new NullPointerException("callback is null");
+        }
+        mMaxBatchSize = maxBatchSize;
+        mMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelay));
+        mCallback = callback;
+    }
+
+    /**
+     * 设置是否折叠重复调用，折叠的话同一个代理对象的同一个方法在一批中只保留最后一次调用的参数
+     *
+     * @param collapse
+     */
+    public void setCollapse(boolean collapse)
+    {
+        mCollapse = collapse;
+    }
+
+    /**
+     * 设置用来定时回调的线程池<br>
+     * 如果不设置的话，只有在方法被调用的时候才会检查是否超过最大延迟
+     *
+     * @param executor
+     */
+    public void setFlushExecutor(ScheduledExecutorService executor)
+    {
+        mFlushExecutor = executor;
+    }
+
+    /**
+     * 设置{@link Callback#onFlush(List)}抛出异常或者错误时候的回调<br>
+     * 回调的异常不会抛给触发回调的代理方法调用，没有设置的话只记录次数，见{@link #getFlushErrorCount()}
+     *
+     * @param errorHandler
+     */
+    public void setErrorHandler(ErrorHandler errorHandler)
+    {
+        mErrorHandler = errorHandler;
+    }
+
+    /**
+     * 方法是否要合并调用，默认所有没有返回值的方法都合并
+     *
+     * @param info
+     * @return
+     */
+    protected boolean isBatchable(FInterceptInfo info)
+    {
+        return info.getMethodInfo().getReturnType() == void.class;
+    }
+
+    @Override
+    public Object intercept(FInterceptInfo info, Object[] args)
+    {
+        if (!isBatchable(info))
+        {
+            return info.invokeSuper(args);
+        }
+
+        // 参数要在返回之后使用，复用的参数数组返回之后会被清空，复制一份
+        final Object[] argsRetained = FProxyHelper.isBorrowedArgs(args) ? info.copyArgs(args) : args;
+        if (mCollapse)
+        {
+            collapse(info, argsRetained);
+        } else
+        {
+            enqueue(new Call(info, argsRetained, null));
+        }
+        return null;
+    }
+
+    private void collapse(FInterceptInfo info, Object[] args)
+    {
+        // 先用当前线程复用的key查找，已经有等待中的调用的话只替换参数，不创建对象
+        final CollapseKey lookupKey = LOOKUP_KEY.get();
+        lookupKey.set(info.getProxy(), info.getMethodInfo());
+        final Call pending = mMapPending.get(lookupKey);
+        lookupKey.set(null, null);
+        if (pending != null && pending.updateArgs(args))
+        {
+            checkFlush();
+            return;
+        }
+
+        final CollapseKey key = new CollapseKey();
+        key.set(info.getProxy(), info.getMethodInfo());
+        final Call call = new Call(info, args, key);
+        while (true)
+        {
+            final Call current = mMapPending.putIfAbsent(key, call);
+            if (current == null)
+            {
+                enqueue(call);
+                return;
+            }
+            if (current.updateArgs(args))
+            {
+                checkFlush();
+                return;
+            }
+            // 等待中的调用已经被取出回调，还没有从map中移除
+            if (mMapPending.replace(key, current, call))
+            {
+                enqueue(call);
+                return;
+            }
+        }
+    }
+
+    private void enqueue(Call call)
+    {
+        // 先增加数量再入队，避免回调线程取出之后数量变成负数
+        if (mQueueSize.getAndIncrement() == 0)
+        {
+            mBatchStartTime.set(System.nanoTime());
+            scheduleFlush();
+        }
+        mQueue.offer(call);
+        checkFlush();
+    }
+
+    private void scheduleFlush()
+    {
+        final ScheduledExecutorService executor = mFlushExecutor;
+        if (executor == null)
+        {
+            return;
+        }
+        if (mFlushScheduled.compareAndSet(false, true))
+        {
+            executor.schedule(mFlushRunnable, mMaxDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void checkFlush()
+    {
+        final int size = mQueueSize.get();
+        if (size <= 0)
+        {
+            return;
+        }
+        if (size >= mMaxBatchSize || System.nanoTime() - mBatchStartTime.get() >= mMaxDelayNanos)
+        {
+            flush();
+        }
+    }
+
+    /**
+     * 立即回调当前队列中的所有调用<br>
+     * 其他线程正在回调的话直接返回，那个线程回调结束之后会继续回调队列中剩下的调用
+     */
+    public void flush()
+    {
+        while (true)
+        {
+            if (!mFlushing.compareAndSet(false, true))
+            {
+                return;
+            }
+
+            final List<Call> listCall = new ArrayList<>();
+            try
+            {
+                Call call = null;
+                while ((call = mQueue.poll()) != null)
+                {
+                    mQueueSize.decrementAndGet();
+                    if (call.mKey != null)
+                    {
+                        mMapPending.remove(call.mKey, call);
+                    }
+                    call.mArgsFinal = Call.UPDATER_ARGS.getAndSet(call, ARGS_FLUSHED);
+                    listCall.add(call);
+                }
+                mBatchStartTime.set(System.nanoTime());
+            } finally
+            {
+                mFlushing.set(false);
+            }
+
+            if (!listCall.isEmpty())
+            {
+                notifyFlush(listCall);
+            }
+
+            // 回调期间其他线程的flush直接返回了，队列中还有调用的话继续回调
+            if (mQueueSize.get() <= 0)
+            {
+                return;
+            }
+        }
+    }
+
+    private void notifyFlush(List<Call> listCall)
+    {
+        try
+        {
+            mCallback.onFlush(listCall);
+        } catch (Throwable e)
+        {
+            mFlushErrorCount.incrementAndGet();
+            final ErrorHandler errorHandler = mErrorHandler;
+            if (errorHandler != null)
+            {
+                errorHandler.onFlushError(listCall, e);
+            }
+        }
+    }
+
+    /**
+     * 返回{@link Callback#onFlush(List)}抛出异常的次数
+     *
+     * @return
+     */
+    public long getFlushErrorCount()
+    {
+        return mFlushErrorCount.get();
+    }
+
+    /**
+     * 返回队列中等待回调的调用数量
+     *
+     * @return
+     */
+    public int getPendingCount()
+    {
+        return mQueueSize.get();
+    }
+
+    /**
+     * 被合并的一次调用
+     */
+    public static final class Call
+    {
+        private static final AtomicReferenceFieldUpdater<Call, Object[]> UPDATER_ARGS =
+                AtomicReferenceFieldUpdater.newUpdater(Call.class, Object[].class, "mArgs");
+
+        private final FInterceptInfo mInterceptInfo;
+        private volatile Object[] mArgs;
+        private final CollapseKey mKey;
+        private Object[] mArgsFinal;
+
+        private Call(FInterceptInfo interceptInfo, Object[] args, CollapseKey key)
+        {
+            mInterceptInfo = interceptInfo;
+            mArgs = args;
+            mKey = key;
+        }
+
+        private boolean updateArgs(Object[] args)
+        {
+            while (true)
+            {
+                final Object[] current = mArgs;
+                if (current == ARGS_FLUSHED)
+                {
+                    return false;
+                }
+                if (UPDATER_ARGS.compareAndSet(this, current, args))
+                {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 返回拦截信息
+         *
+         * @return
+         */
+        public FInterceptInfo getInterceptInfo()
+        {
+            return mInterceptInfo;
+        }
+
+        /**
+         * 返回调用的参数
+         *
+         * @return
+         */
+        public Object[] getArgs()
+        {
+            return mArgsFinal;
+        }
+
+        /**
+         * 调用代理对象父类的方法
+         *
+         * @return
+         */
+        public Object invokeSuper()
+        {
+            return mInterceptInfo.invokeSuper(mArgsFinal);
+        }
+    }
+
+    /**
+     * 代理对象和方法组成的key，查找用的key每个线程复用一个，保存到map中的key创建之后不再修改
+     */
+    private static final class CollapseKey
+    {
+        private Object mProxy;
+        private FMethodInfo mMethodInfo;
+        private int mHashCode;
+
+        public void set(Object proxy, FMethodInfo methodInfo)
+        {
+            mProxy = proxy;
+            mMethodInfo = methodInfo;
+            mHashCode = methodInfo == null ? 0 : System.identityHashCode(proxy) * 31 + methodInfo.hashCode();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+            {
+                return true;
+            }
+            if (!(obj instanceof CollapseKey))
+            {
+                return false;
+            }
+            final CollapseKey other = (CollapseKey) obj;
+            return mProxy == other.mProxy && mMethodInfo == other.mMethodInfo;
+        }
+    }
+
+    /**
+     * 回调接口
+     */
+    public interface Callback
+    {
+        /**
+         * 一批调用到达阈值或者手动调用{@link #flush()}的时候回调
+         *
+         * @param calls 按调用顺序排列
+         */
+        void onFlush(List<Call> calls);
+    }
+
+    /**
+     * 回调异常的处理接口
+     */
+    public interface ErrorHandler
+    {
+        /**
+         * {@link Callback#onFlush(List)}抛出异常或者错误的时候回调
+         *
+         * @param calls 这一批调用
+         * @param e     抛出的异常或者错误
+         */
+        void onFlushError(List<Call> calls, Throwable e);
+    }
+}
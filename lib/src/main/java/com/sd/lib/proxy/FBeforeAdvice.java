@@ -0,0 +1,15 @@
+package com.sd.lib.proxy;
+
+/**
+ * 调用父类方法之前的回调，代理class直接调用，不会打包参数，也没有反射
+ */
+public interface FBeforeAdvice
+{
+    /**
+     * 调用父类方法之前回调
+     *
+     * @param proxy    代理对象
+     * @param methodId 方法id，可以通过{@link FMethodInfo#get(int)}获得方法信息
+     */
+    void before(Object proxy, int methodId);
+}
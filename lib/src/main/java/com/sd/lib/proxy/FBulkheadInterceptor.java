@@ -0,0 +1,447 @@
+package com.sd.lib.proxy;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 限制并发数量的拦截对象
+ * <p>
+ * 同时执行的调用数量达到上限之后，按照{@link Policy}处理新的调用；<br>
+ * 获取和释放许可都是无锁的，只有{@link Policy#WAIT}等待的时候才会加锁
+ */
+public class FBulkheadInterceptor implements FMethodInterceptor
+{
+    private static final ThreadLocal<LookupKey> LOOKUP_KEY = new ThreadLocal<LookupKey>()
+    {
+        @Override
+        protected LookupKey initialValue()
+        {
+            return new LookupKey();
+        }
+    };
+
+    private final int mMaxConcurrent;
+    private final Scope mScope;
+    private final Policy mPolicy;
+    private final long mWaitTimeoutNanos;
+    private final FMethodInterceptor mInterceptor;
+
+    private final Permits mSharedPermits;
+    private final ConcurrentHashMap<FMethodInfo, Permits> mMapMethodPermits;
+    private final ConcurrentHashMap<Object, Permits> mMapProxyPermits;
+    private final ReferenceQueue<Object> mProxyQueue;
+
+    private final AtomicLong mRejectedCount = new AtomicLong();
+    private final AtomicLong mInlineCount = new AtomicLong();
+    private final AtomicInteger mQueuedCount = new AtomicInteger();
+
+    /**
+     * @param maxConcurrent 最多同时执行多少个调用
+     * @param perMethod     true-每个方法单独计算并发数量，false-所有经过这个拦截对象的调用一起计算
+     * @param policy        达到上限之后的处理策略
+     * @param waitTimeout   {@link Policy#WAIT}策略的最长等待时间（毫秒）
+     * @deprecated 使用{@link #FBulkheadInterceptor(int, Scope, Policy, long)}
+     */
+    @Deprecated
+    public FBulkheadInterceptor(int maxConcurrent, boolean perMethod, Policy policy, long waitTimeout)
+    {
+        this(maxConcurrent, perMethod ? Scope.PER_METHOD : Scope.SHARED, policy, waitTimeout, null);
+    }
+
+    /**
+     * @param maxConcurrent 最多同时执行多少个调用
+     * @param perMethod     true-每个方法单独计算并发数量，false-所有经过这个拦截对象的调用一起计算
+     * @param policy        达到上限之后的处理策略
+     * @param waitTimeout   {@link Policy#WAIT}策略的最长等待时间（毫秒）
+     * @param interceptor   获得许可之后要调用的拦截对象，为null的话调用父类的方法
+     * @deprecated 使用{@link #FBulkheadInterceptor(int, Scope, Policy, long, FMethodInterceptor)}
+     */
+    @Deprecated
+    public FBulkheadInterceptor(int maxConcurrent, boolean perMethod, Policy policy, long waitTimeout,
+                                FMethodInterceptor interceptor)
+    {
+        this(maxConcurrent, perMethod ? Scope.PER_METHOD : Scope.SHARED, policy, waitTimeout, interceptor);
+    }
+
+    /**
+     * @param maxConcurrent 最多同时执行多少个调用
+     * @param scope         按什么范围计算并发数量
+     * @param policy        达到上限之后的处理策略
+     * @param waitTimeout   {@link Policy#WAIT}策略的最长等待时间（毫秒）
+     */
+    public FBulkheadInterceptor(int maxConcurrent, Scope scope, Policy policy, long waitTimeout)
+    {
+        this(maxConcurrent, scope, policy, waitTimeout, null);
+    }
+
+    /**
+     * @param maxConcurrent 最多同时执行多少个调用
+     * @param scope         按什么范围计算并发数量
+     * @param policy        达到上限之后的处理策略
+     * @param waitTimeout   {@link Policy#WAIT}策略的最长等待时间（毫秒）
+     * @param interceptor   获得许可之后要调用的拦截对象，为null的话调用父类的方法
+     */
+    public FBulkheadInterceptor(int maxConcurrent, Scope scope, Policy policy, long waitTimeout,
+                                FMethodInterceptor interceptor)
+    {
+        if (maxConcurrent <= 0)
+        {
+            throw new IllegalArgumentException("maxConcurrent must be > 0");
+        }
+        if (scope == null)
+        {
+            throw new NullPointerException("scope is null");
+        }
+        if (policy == null)
+        {
+            throw new NullPointerException("policy is null");
+        }
+        mMaxConcurrent = maxConcurrent;
+        mScope = scope;
+        mPolicy = policy;
+        mWaitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, waitTimeout));
+        mInterceptor = interceptor;
+
+        mSharedPermits = scope == Scope.SHARED ? new Permits() : null;
+        mMapMethodPermits = scope == Scope.PER_METHOD ? new ConcurrentHashMap<FMethodInfo, Permits>() : null;
+        mMapProxyPermits = scope == Scope.PER_PROXY ? new ConcurrentHashMap<Object, Permits>() : null;
+        mProxyQueue = scope == Scope.PER_PROXY ? new ReferenceQueue<Object>() : null;
+    }
+
+    @Override
+    public Object intercept(FInterceptInfo info, Object[] args)
+    {
+        final Permits permits = getPermits(info);
+        if (!permits.tryAcquire())
+        {
+            switch (mPolicy)
+            {
+                case WAIT:
+                    if (!permits.acquire())
+                    {
+                        mRejectedCount.incrementAndGet();
+                        throw new FProxyException("bulkhead wait timeout:" + info.getMethodInfo());
+                    }
+                    break;
+                case RUN_INLINE:
+                    mInlineCount.incrementAndGet();
+                    return invoke(info, args);
+                default:
+                    mRejectedCount.incrementAndGet();
+                    throw new FProxyException("bulkhead is full:" + info.getMethodInfo());
+            }
+        }
+
+        try
+        {
+            return invoke(info, args);
+        } finally
+        {
+            permits.release();
+        }
+    }
+
+    private Object invoke(FInterceptInfo info, Object[] args)
+    {
+        if (mInterceptor != null)
+        {
+            return mInterceptor.intercept(info, args);
+        } else
+        {
+            return info.invokeSuper(args);
+        }
+    }
+
+    private Permits getPermits(FInterceptInfo info)
+    {
+        switch (mScope)
+        {
+            case PER_METHOD:
+                return getMethodPermits(info.getMethodInfo());
+            case PER_PROXY:
+                return getProxyPermits(info.getProxy());
+            default:
+                return mSharedPermits;
+        }
+    }
+
+    private Permits getMethodPermits(FMethodInfo methodInfo)
+    {
+        Permits permits = mMapMethodPermits.get(methodInfo);
+        if (permits == null)
+        {
+            final Permits newPermits = new Permits();
+            permits = mMapMethodPermits.putIfAbsent(methodInfo, newPermits);
+            if (permits == null)
+            {
+                permits = newPermits;
+            }
+        }
+        return permits;
+    }
+
+    private Permits getProxyPermits(Object proxy)
+    {
+        // 移除已经被回收的代理对象的许可
+        Reference<?> reference;
+        while ((reference = mProxyQueue.poll()) != null)
+        {
+            mMapProxyPermits.remove(reference);
+        }
+
+        // 先用当前线程复用的key查找，不创建对象
+        final LookupKey lookupKey = LOOKUP_KEY.get();
+        lookupKey.set(proxy);
+        Permits permits = mMapProxyPermits.get(lookupKey);
+        lookupKey.set(null);
+        if (permits == null)
+        {
+            final Permits newPermits = new Permits();
+            permits = mMapProxyPermits.putIfAbsent(new ProxyRef(proxy, mProxyQueue), newPermits);
+            if (permits == null)
+            {
+                permits = newPermits;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * 返回正在执行的调用数量，不包括{@link Policy#RUN_INLINE}直接执行的调用
+     *
+     * @return
+     */
+    public int getInFlightCount()
+    {
+        if (mSharedPermits != null)
+        {
+            return mSharedPermits.mInFlight.get();
+        }
+
+        int count = 0;
+        for (Permits item : (mMapMethodPermits != null ? mMapMethodPermits : mMapProxyPermits).values())
+        {
+            count += item.mInFlight.get();
+        }
+        return count;
+    }
+
+    /**
+     * 返回被拒绝（包括等待超时）的调用次数
+     *
+     * @return
+     */
+    public long getRejectedCount()
+    {
+        return mRejectedCount.get();
+    }
+
+    /**
+     * 返回正在等待许可的调用数量
+     *
+     * @return
+     */
+    public int getQueuedCount()
+    {
+        return mQueuedCount.get();
+    }
+
+    /**
+     * 返回达到上限之后不占用许可直接执行的调用次数
+     *
+     * @return
+     */
+    public long getInlineCount()
+    {
+        return mInlineCount.get();
+    }
+
+    private final class Permits
+    {
+        private final AtomicInteger mInFlight = new AtomicInteger();
+        private volatile int mWaiting;
+
+        public boolean tryAcquire()
+        {
+            while (true)
+            {
+                final int current = mInFlight.get();
+                if (current >= mMaxConcurrent)
+                {
+                    return false;
+                }
+                if (mInFlight.compareAndSet(current, current + 1))
+                {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 等待许可，超时返回false
+         */
+        public boolean acquire()
+        {
+            mQueuedCount.incrementAndGet();
+            boolean interrupted = false;
+            try
+            {
+                synchronized (this)
+                {
+                    mWaiting++;
+                    try
+                    {
+                        final long deadline = System.nanoTime() + mWaitTimeoutNanos;
+                        while (!tryAcquire())
+                        {
+                            final long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0)
+                            {
+                                return false;
+                            }
+                            try
+                            {
+                                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                            } catch (InterruptedException e)
+                            {
+                                interrupted = true;
+                            }
+                        }
+                        return true;
+                    } finally
+                    {
+                        mWaiting--;
+                    }
+                }
+            } finally
+            {
+                mQueuedCount.decrementAndGet();
+                if (interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        public void release()
+        {
+            mInFlight.decrementAndGet();
+            if (mWaiting > 0)
+            {
+                synchronized (this)
+                {
+                    notify();
+                }
+            }
+        }
+    }
+
+    /**
+     * 弱引用代理对象的key，按引用比较，不会让代理对象无法回收
+     */
+    private static final class ProxyRef extends WeakReference<Object>
+    {
+        private final int mHashCode;
+
+        public ProxyRef(Object proxy, ReferenceQueue<Object> queue)
+        {
+            super(proxy, queue);
+            mHashCode = System.identityHashCode(proxy);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+            {
+                return true;
+            }
+            final Object proxy = get();
+            if (proxy == null)
+            {
+                return false;
+            }
+            if (obj instanceof LookupKey)
+            {
+                return ((LookupKey) obj).mProxy == proxy;
+            }
+            return obj instanceof ProxyRef && ((ProxyRef) obj).get() == proxy;
+        }
+    }
+
+    /**
+     * 查找用的key，每个线程复用一个
+     */
+    private static final class LookupKey
+    {
+        private Object mProxy;
+        private int mHashCode;
+
+        public void set(Object proxy)
+        {
+            mProxy = proxy;
+            mHashCode = System.identityHashCode(proxy);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof ProxyRef && mProxy != null && ((ProxyRef) obj).get() == mProxy;
+        }
+    }
+
+    /**
+     * 按什么范围计算并发数量
+     */
+    public enum Scope
+    {
+        /**
+         * 每个方法单独计算，所有代理对象的同一个方法共享许可
+         */
+        PER_METHOD,
+        /**
+         * 每个代理对象单独计算，按引用区分代理对象，只弱引用代理对象，代理对象被回收之后它的许可也会被移除
+         */
+        PER_PROXY,
+        /**
+         * 所有经过这个拦截对象的调用一起计算
+         */
+        SHARED
+    }
+
+    /**
+     * 并发数量达到上限之后的处理策略
+     */
+    public enum Policy
+    {
+        /**
+         * 直接抛出{@link FProxyException}
+         */
+        REJECT,
+        /**
+         * 等待许可，超时之后抛出{@link FProxyException}
+         */
+        WAIT,
+        /**
+         * 不占用许可，直接在当前线程执行
+         */
+        RUN_INLINE
+    }
+}
@@ -0,0 +1,254 @@
+package com.sd.lib.proxy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存方法返回值的拦截对象
+ * <p>
+ * 按代理对象、方法和参数缓存返回值，命中缓存的时候不会调用父类的方法；<br>
+ * 同一个拦截对象可以给多个代理对象使用，代理对象按引用区分，不会拿到其他代理对象的返回值；
+ * 缓存只弱引用代理对象，代理对象被回收之后它的缓存不会再命中，按LRU或者过期淘汰；<br>
+ * 缓存按key分段加锁，每一段是一个LRU，所有段的最大数量加起来等于maxSize，某一段满了的时候淘汰这一段最久没有访问的缓存
+ */
+public class FCachingInterceptor implements FMethodInterceptor
+{
+    private static final int MAX_SEGMENT_COUNT = 16;
+    private static final Object NULL_VALUE = new Object();
+
+    private final Segment[] mSegments;
+    private final int mSegmentMask;
+    private final FMethodInterceptor mInterceptor;
+
+    private volatile long mExpireNanos;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    /**
+     * @param maxSize 最多缓存多少个返回值
+     */
+    public FCachingInterceptor(int maxSize)
+    {
+        this(maxSize, null);
+    }
+
+    /**
+     * @param maxSize     最多缓存多少个返回值
+     * @param interceptor 没有命中缓存的时候要调用的拦截对象，为null的话调用父类的方法
+     */
+    public FCachingInterceptor(int maxSize, FMethodInterceptor interceptor)
+    {
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException("maxSize must be > 0");
+        }
+
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENT_COUNT && segmentCount * 2 <= maxSize)
+        {
+            segmentCount *= 2;
+        }
+
+        // 余数分给前面的段，所有段加起来正好是maxSize
+        final int segmentSize = maxSize / segmentCount;
+        final int remainder = maxSize % segmentCount;
+        mSegments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++)
+        {
+            mSegments[i] = new Segment(i < remainder ? segmentSize + 1 : segmentSize);
+        }
+        mSegmentMask = segmentCount - 1;
+        mInterceptor = interceptor;
+    }
+
+    /**
+     * 设置缓存的有效时长，小于等于0表示一直有效（默认）
+     *
+     * @param expireTime 有效时长（毫秒）
+     */
+    public void setExpireTime(long expireTime)
+    {
+        mExpireNanos = expireTime > 0 ? TimeUnit.MILLISECONDS.toNanos(expireTime) : 0;
+    }
+
+    /**
+     * 方法是否可以缓存，默认有返回值的方法都可以缓存
+     *
+     * @param info
+     * @return
+     */
+    protected boolean isCacheable(FInterceptInfo info)
+    {
+        return info.getMethodInfo().getReturnType() != void.class;
+    }
+
+    @Override
+    public Object intercept(FInterceptInfo info, Object[] args)
+    {
+        if (!isCacheable(info))
+        {
+            return invoke(info, args);
+        }
+
+        final MethodKey key = MethodKey.obtain(info.getProxy(), info.getMethodInfo(), args);
+        final Segment segment = segmentFor(key);
+
+        final Object value = segment.getValue(key);
+        if (value != null)
+        {
+            mHitCount.incrementAndGet();
+            return value == NULL_VALUE ? null : value;
+        }
+
+        mMissCount.incrementAndGet();
+        final Object result = invoke(info, args);
+
+        final long expireNanos = mExpireNanos;
+        final long expireAt = expireNanos > 0 ? System.nanoTime() + expireNanos : 0;
+        segment.putValue(MethodKey.weak(key), result == null ? NULL_VALUE : result, expireAt);
+        return result;
+    }
+
+    private Object invoke(FInterceptInfo info, Object[] args)
+    {
+        if (mInterceptor != null)
+        {
+            return mInterceptor.intercept(info, args);
+        } else
+        {
+            return info.invokeSuper(args);
+        }
+    }
+
+    private Segment segmentFor(Object key)
+    {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return mSegments[hash & mSegmentMask];
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear()
+    {
+        for (Segment item : mSegments)
+        {
+            item.clearValues();
+        }
+    }
+
+    /**
+     * 返回当前缓存的数量
+     *
+     * @return
+     */
+    public int size()
+    {
+        int size = 0;
+        for (Segment item : mSegments)
+        {
+            size += item.sizeValues();
+        }
+        return size;
+    }
+
+    /**
+     * 返回命中缓存的次数
+     *
+     * @return
+     */
+    public long getHitCount()
+    {
+        return mHitCount.get();
+    }
+
+    /**
+     * 返回没有命中缓存的次数
+     *
+     * @return
+     */
+    public long getMissCount()
+    {
+        return mMissCount.get();
+    }
+
+    /**
+     * 返回缓存被淘汰（超过最大数量或者过期）的次数
+     *
+     * @return
+     */
+    public long getEvictionCount()
+    {
+        return mEvictionCount.get();
+    }
+
+    private static final class CacheEntry
+    {
+        public final Object value;
+        public final long expireAt;
+
+        public CacheEntry(Object value, long expireAt)
+        {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<Object, CacheEntry>
+    {
+        private final int mMaxSize;
+
+        public Segment(int maxSize)
+        {
+            super(16, 0.75f, true);
+            mMaxSize = maxSize;
+        }
+
+        public synchronized Object getValue(Object key)
+        {
+            final CacheEntry entry = get(key);
+            if (entry == null)
+            {
+                return null;
+            }
+            if (entry.expireAt != 0 && entry.expireAt - System.nanoTime() <= 0)
+            {
+                remove(key);
+                mEvictionCount.incrementAndGet();
+                return null;
+            }
+            return entry.value;
+        }
+
+        public synchronized void putValue(Object key, Object value, long expireAt)
+        {
+            put(key, new CacheEntry(value, expireAt));
+        }
+
+        public synchronized void clearValues()
+        {
+            clear();
+        }
+
+        public synchronized int sizeValues()
+        {
+            return size();
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, CacheEntry> eldest)
+        {
+            if (size() > mMaxSize)
+            {
+                mEvictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -8,22 +8,51 @@ import java.lang.reflect.Method;
 public class FInterceptInfo
 {
     private Object mProxy;
+    private FMethodInfo mMethodInfo;
+    private int mMethodIndex;
+
     private String mMethodName;
     private Class[] mArgsClass;
 
-    private Method mMethod;
-    private Method mMethodSuper;
-
+    /**
+     * @param proxy      代理
+     * @param methodName 方法名称
+     * @param argsClass  方法参数class
+     * @deprecated 使用{@link #FInterceptInfo(Object, FMethodInfo)}，方法信息第一次使用的时候才按名称查找
+     */
+    @Deprecated
     public FInterceptInfo(Object proxy, String methodName, Class[] argsClass)
     {
         mProxy = proxy;
         mMethodName = methodName;
         mArgsClass = argsClass;
+        mMethodIndex = -1;
+    }
+
+    public FInterceptInfo(Object proxy, FMethodInfo methodInfo)
+    {
+        this(proxy, methodInfo, -1);
     }
 
+    /**
+     * @param proxy       代理
+     * @param methodInfo  方法信息
+     * @param methodIndex 方法在代理class中的下标，未知的话传-1
+     */
+    FInterceptInfo(Object proxy, FMethodInfo methodInfo, int methodIndex)
+    {
+        mProxy = proxy;
+        mMethodInfo = methodInfo;
+        mMethodIndex = methodIndex;
+    }
+
+    /**
+     * @deprecated 方法信息由{@link FMethodInfo}提供
+     */
+    @Deprecated
     void setMethod(Method method)
     {
-        mMethod = method;
+        mMethodInfo = FMethodInfo.get(method);
     }
 
     /**
@@ -37,23 +66,37 @@ public class FInterceptInfo
     }
 
     /**
-     * 返回可以调用父类方法的Method
+     * 返回拦截到的方法信息，同一个方法返回的是同一个对象
      *
      * @return
      */
-    private Method getMethodInvokeSuper()
+    public FMethodInfo getMethodInfo()
     {
+        if (mMethodInfo == null)
+        {
+            mMethodInfo = FMethodInfo.get(findMethod());
+        }
+        return mMethodInfo;
+    }
+
+    /**
+     * 按照方法名称和参数查找被拦截的方法，兼容{@link #FInterceptInfo(Object, String, Class[])}
+     */
+    private Method findMethod()
+    {
+        final Class<?> clazz = getProxy().getClass();
         try
         {
-            if (mMethodSuper == null)
+            return clazz.getSuperclass().getDeclaredMethod(mMethodName, mArgsClass);
+        } catch (NoSuchMethodException e)
+        {
+            try
             {
-                mMethodSuper = getProxy().getClass().getDeclaredMethod(mMethodName + FProxyInterface.PROXY_CLASS_INVOKE_SUPER_METHOD_SUFFIX,
-                        mArgsClass);
+                return clazz.getMethod(mMethodName, mArgsClass);
+            } catch (NoSuchMethodException ex)
+            {
+                throw new FProxyException(ex);
             }
-            return mMethodSuper;
-        } catch (Exception e)
-        {
-            throw new FProxyException(e);
         }
     }
 
@@ -64,17 +107,20 @@ public class FInterceptInfo
      */
     public Method getMethod()
     {
-        try
-        {
-            if (mMethod == null)
-            {
-                mMethod = getProxy().getClass().getSuperclass().getDeclaredMethod(mMethodName, mArgsClass);
-            }
-            return mMethod;
-        } catch (Exception e)
-        {
-            throw new FProxyException(e);
-        }
+        return getMethodInfo().getMethod();
+    }
+
+    /**
+     * 复制参数数组<br>
+     * {@link FProxyFactory#setReuseArgs(boolean)}开启之后，参数数组在拦截方法返回之后会被清空给下一次调用使用，
+     * 拦截对象要在返回之后继续使用参数（比如保存起来或者交给其他线程）的话要先复制
+     *
+     * @param args 拦截到的参数
+     * @return 复制的参数数组，args为null的话返回null
+     */
+    public Object[] copyArgs(Object[] args)
+    {
+        return args == null ? null : args.clone();
     }
 
     /**
@@ -85,13 +131,13 @@ public class FInterceptInfo
      */
     public Object invokeSuper(Object[] args)
     {
-        try
-        {
-            return getMethodInvokeSuper().invoke(getProxy(), args);
-        } catch (Exception e)
+        if (mMethodIndex >= 0 && mProxy instanceof FProxySuperInvoker)
         {
-            throw new FProxyException(e);
+            // 紧凑模式生成的代理class，不需要反射
+            return ((FProxySuperInvoker) mProxy).invokeSuper$FProxy$(mMethodIndex, args);
         }
+
+        return FProxyHelper.executeSuperMethod(getMethodInfo(), mMethodIndex, args, getProxy());
     }
 
     /**
@@ -0,0 +1,834 @@
+package com.sd.lib.proxy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 记录每次调用的拦截对象
+ * <p>
+ * 记录(时间，方法id，参数)写入内存映射的环形文件，文件分成固定大小的槽，写满之后覆盖最早的记录；
+ * 多个线程通过一个无锁的计数器领取槽位，调用线程只写内存不做文件IO，由系统负责写回文件，进程崩溃之后记录也不会丢失，
+ * 可以调用{@link #read(File)}或者{@link #dump(File, File)}解析<br>
+ * 方法id只在当前进程有效，每个方法id第一次被记录的时候把(id，class#方法(参数类型))追加到同名的.names文件，
+ * 解析的时候从这个文件读取方法名称，每个方法只写一次，之后的调用不做文件IO<br>
+ * 序号相差槽数量整数倍的两个线程会落到同一个槽，写之前要比较并替换槽的状态占住这个槽，不会等待：
+ * 序号更大的记录已经占住或者写入这个槽的话，新的记录直接丢弃；序号更小的记录还在写的话，直接抢占这个槽，旧的记录被丢弃，
+ * 旧的记录写完之后发现槽被抢占就不再发布。每条记录带有校验和，被抢占的记录残留的写入会让校验失败，解析的时候被忽略<br>
+ * 基本类型和字符串按二进制记录，其他对象只记录class名称；参数超过槽的大小的话后面的参数不记录
+ */
+public class FJournalInterceptor implements FMethodInterceptor
+{
+    private static final int MAGIC = 0x464A4E4C;
+    private static final int VERSION = 2;
+    private static final String NAMES_FILE_SUFFIX = ".names";
+    private static final int HEADER_SIZE = 32;
+
+    // 槽的结构：序号+1(long，0-空，-1-正在写) 时间(long) 方法id(int) 参数数量(byte) 标识(byte) 参数长度(short) 校验和(int) 参数...
+    private static final int OFFSET_SEQUENCE = 0;
+    private static final int OFFSET_TIME = 8;
+    private static final int OFFSET_METHOD_ID = 16;
+    private static final int OFFSET_ARG_COUNT = 20;
+    private static final int OFFSET_FLAGS = 21;
+    private static final int OFFSET_PAYLOAD_LENGTH = 22;
+    private static final int OFFSET_CHECKSUM = 24;
+    private static final int SLOT_HEADER_SIZE = 28;
+
+    private static final byte FLAG_TRUNCATED = 1;
+    private static final int MAX_ARG_COUNT = 255;
+    private static final int MAX_SLOT_SIZE = SLOT_HEADER_SIZE + Short.MAX_VALUE;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_BOOLEAN = 1;
+    private static final byte TAG_BYTE = 2;
+    private static final byte TAG_CHAR = 3;
+    private static final byte TAG_SHORT = 4;
+    private static final byte TAG_INT = 5;
+    private static final byte TAG_LONG = 6;
+    private static final byte TAG_FLOAT = 7;
+    private static final byte TAG_DOUBLE = 8;
+    private static final byte TAG_STRING = 9;
+    private static final byte TAG_OBJECT = 10;
+
+    private final int mSlotCount;
+    private final int mSlotSize;
+    private final MappedByteBuffer mBuffer;
+    private final File mNamesFile;
+    private final FMethodInterceptor mInterceptor;
+
+    /**
+     * 已经写入.names文件的方法id，按位保存，修改的时候复制之后替换，读取不加锁
+     */
+    private volatile long[] mNamedIds = new long[0];
+    private final Object mNamesLock = new Object();
+
+    private final AtomicLong mSequence = new AtomicLong();
+    /**
+     * 每个槽的状态：0-空，序号+1-已经写完，-(序号+1)-正在写
+     */
+    private final AtomicLongArray mSlotStates;
+
+    /**
+     * @param file      记录文件，已经存在的话会被覆盖，同名的.names文件也会被覆盖
+     * @param slotCount 最多保存多少条记录
+     * @param slotSize  每条记录最多占用的字节数
+     * @throws IOException
+     */
+    public FJournalInterceptor(File file, int slotCount, int slotSize) throws IOException
+    {
+        this(file, slotCount, slotSize, null);
+    }
+
+    /**
+     * @param file        记录文件，已经存在的话会被覆盖，同名的.names文件也会被覆盖
+     * @param slotCount   最多保存多少条记录
+     * @param slotSize    每条记录最多占用的字节数
+     * @param interceptor 记录之后要调用的拦截对象，为null的话调用父类的方法
+     * @throws IOException
+     */
+    public FJournalInterceptor(File file, int slotCount, int slotSize, FMethodInterceptor interceptor) throws IOException
+    {
+        if (slotCount <= 0)
+        {
+            throw new IllegalArgumentException("slotCount must be > 0");
+        }
+        // 槽按8字节对齐，对齐之后再检查，保证参数长度可以用short保存
+        slotSize = (slotSize + 7) & ~7;
+        if (slotSize < SLOT_HEADER_SIZE || slotSize > MAX_SLOT_SIZE)
+        {
+            throw new IllegalArgumentException("slotSize aligned to 8 must be in [" + SLOT_HEADER_SIZE + "," + MAX_SLOT_SIZE + "]:" + slotSize);
+        }
+        final long fileSize = HEADER_SIZE + (long) slotCount * slotSize;
+        if (fileSize > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("journal file is too large:" + fileSize);
+        }
+
+        mSlotCount = slotCount;
+        mSlotSize = slotSize;
+        mInterceptor = interceptor;
+        mSlotStates = new AtomicLongArray(slotCount);
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try
+        {
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(fileSize);
+            mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        } finally
+        {
+            // 关闭之后映射仍然有效
+            randomAccessFile.close();
+        }
+
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, VERSION);
+        mBuffer.putInt(8, slotCount);
+        mBuffer.putInt(12, slotSize);
+
+        mNamesFile = getNamesFile(file);
+        new FileOutputStream(mNamesFile).close();
+    }
+
+    private static File getNamesFile(File file)
+    {
+        return new File(file.getPath() + NAMES_FILE_SUFFIX);
+    }
+
+    @Override
+    public Object intercept(FInterceptInfo info, Object[] args)
+    {
+        // 先记录再调用，调用过程中崩溃也能看到这次调用
+        final FMethodInfo methodInfo = info.getMethodInfo();
+        writeNameIfNeeded(methodInfo);
+        record(methodInfo.getId(), args);
+
+        if (mInterceptor != null)
+        {
+            return mInterceptor.intercept(info, args);
+        } else
+        {
+            return info.invokeSuper(args);
+        }
+    }
+
+    /**
+     * 方法id第一次被记录的时候，把方法名称追加到.names文件
+     */
+    private void writeNameIfNeeded(FMethodInfo methodInfo)
+    {
+        final int id = methodInfo.getId();
+        if (isNamed(mNamedIds, id))
+        {
+            return;
+        }
+
+        synchronized (mNamesLock)
+        {
+            final long[] namedIds = mNamedIds;
+            if (isNamed(namedIds, id))
+            {
+                return;
+            }
+
+            try
+            {
+                final Writer writer = new OutputStreamWriter(new FileOutputStream(mNamesFile, true), "UTF-8");
+                try
+                {
+                    writer.write(id + "\t" + getMethodName(methodInfo.getMethod()) + "\n");
+                } finally
+                {
+                    writer.close();
+                }
+            } catch (IOException e)
+            {
+                // 写不进去的话不再重试，解析的时候这个方法只有id
+            }
+
+            final long[] newIds = Arrays.copyOf(namedIds, Math.max(namedIds.length, (id >> 6) + 1));
+            newIds[id >> 6] |= 1L << (id & 63);
+            mNamedIds = newIds;
+        }
+    }
+
+    private static boolean isNamed(long[] namedIds, int id)
+    {
+        final int index = id >> 6;
+        return index < namedIds.length && (namedIds[index] & (1L << (id & 63))) != 0;
+    }
+
+    /**
+     * 返回class#方法(参数类型)
+     */
+    private static String getMethodName(Method method)
+    {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(method.getDeclaringClass().getName()).append('#').append(method.getName()).append('(');
+        final Class<?>[] argsClass = method.getParameterTypes();
+        for (int i = 0; i < argsClass.length; i++)
+        {
+            if (i > 0)
+            {
+                builder.append(',');
+            }
+            builder.append(getTypeName(argsClass[i]));
+        }
+        return builder.append(')').toString();
+    }
+
+    private static String getTypeName(Class<?> clazz)
+    {
+        return clazz.isArray() ? getTypeName(clazz.getComponentType()) + "[]" : clazz.getName();
+    }
+
+    private void record(int methodId, Object[] args)
+    {
+        final long sequence = mSequence.getAndIncrement();
+        final int index = (int) (sequence % mSlotCount);
+        if (!claimSlot(index, sequence))
+        {
+            return;
+        }
+
+        final int base = HEADER_SIZE + index * mSlotSize;
+        final int end = base + mSlotSize;
+        final ByteBuffer buffer = mBuffer;
+
+        buffer.putLong(base + OFFSET_SEQUENCE, -1);
+        // 读取的时候先看到-1再看到被覆盖的内容
+        storeFence(index, -(sequence + 1));
+        buffer.putLong(base + OFFSET_TIME, System.currentTimeMillis());
+        buffer.putInt(base + OFFSET_METHOD_ID, methodId);
+
+        int position = base + SLOT_HEADER_SIZE;
+        int count = 0;
+        boolean truncated = false;
+        if (args != null)
+        {
+            for (Object item : args)
+            {
+                final int next = count < MAX_ARG_COUNT ? encode(buffer, position, end, item) : -1;
+                if (next < 0)
+                {
+                    truncated = true;
+                    break;
+                }
+                position = next;
+                count++;
+            }
+        }
+
+        final int payloadLength = position - base - SLOT_HEADER_SIZE;
+        buffer.put(base + OFFSET_ARG_COUNT, (byte) count);
+        buffer.put(base + OFFSET_FLAGS, truncated ? FLAG_TRUNCATED : 0);
+        buffer.putShort(base + OFFSET_PAYLOAD_LENGTH, (short) payloadLength);
+        buffer.putInt(base + OFFSET_CHECKSUM, checksum(buffer, base, sequence + 1, payloadLength));
+        // 最后写序号，读取的时候序号有效才表示这条记录写完了，之前的内容要先于序号可见
+        storeFence(index, -(sequence + 1));
+        buffer.putLong(base + OFFSET_SEQUENCE, sequence + 1);
+        // 释放这个槽，已经被序号更大的记录抢占的话不修改
+        mSlotStates.compareAndSet(index, -(sequence + 1), sequence + 1);
+    }
+
+    /**
+     * 占住槽，不会等待：序号更大的记录已经占住或者写入这个槽的话返回false；序号更小的记录正在写的话抢占这个槽
+     */
+    private boolean claimSlot(int index, long sequence)
+    {
+        final long claimed = -(sequence + 1);
+        while (true)
+        {
+            final long state = mSlotStates.get(index);
+            final long stateSequence = state < 0 ? -state : state;
+            if (stateSequence >= sequence + 1)
+            {
+                return false;
+            }
+            if (mSlotStates.compareAndSet(index, state, claimed))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 写屏障，保证之前写入内存映射的内容先于之后的写入可见<br>
+     * Java 7没有单独的屏障方法，用槽状态的比较并替换（值不变）代替，ART和HotSpot的比较并替换前后都是完整的屏障；
+     * 槽已经被抢占的话比较失败，不会覆盖抢占者的状态
+     */
+    private void storeFence(int index, long state)
+    {
+        mSlotStates.compareAndSet(index, state, state);
+    }
+
+    /**
+     * 计算槽的校验和(FNV-1a)，包括序号、时间、方法id、参数数量、标识、参数长度和参数
+     */
+    private static int checksum(ByteBuffer buffer, int base, long sequence, int payloadLength)
+    {
+        int hash = 0x811C9DC5;
+        hash = (hash ^ (int) sequence) * 0x01000193;
+        hash = (hash ^ (int) (sequence >>> 32)) * 0x01000193;
+        for (int i = base + OFFSET_TIME; i < base + OFFSET_CHECKSUM; i++)
+        {
+            hash = (hash ^ buffer.get(i)) * 0x01000193;
+        }
+        final int end = base + SLOT_HEADER_SIZE + payloadLength;
+        for (int i = base + SLOT_HEADER_SIZE; i < end; i++)
+        {
+            hash = (hash ^ buffer.get(i)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    /**
+     * 编码一个参数
+     *
+     * @return 编码之后的位置，放不下的话返回-1
+     */
+    private static int encode(ByteBuffer buffer, int position, int end, Object value)
+    {
+        if (value == null)
+        {
+            if (position + 1 > end)
+            {
+                return -1;
+            }
+            buffer.put(position, TAG_NULL);
+            return position + 1;
+        }
+
+        final Class<?> clazz = value.getClass();
+        if (clazz == Integer.class)
+        {
+            if (position + 5 > end)
+            {
+                return -1;
+            }
+            buffer.put(position, TAG_INT);
+            buffer.putInt(position + 1, (Integer) value);
+            return position + 5;
+        } else if (clazz == Long.class)
+        {
+            if (position + 9 > end)
+            {
+                return -1;
+            }
+            buffer.put(position, TAG_LONG);
+            buffer.putLong(position + 1, (Long) value);
+            return position + 9;
+        } else if (clazz == Boolean.class)
+        {
+            if (position + 2 > end)
+            {
+                return -1;
+            }
+            buffer.put(position, TAG_BOOLEAN);
+            buffer.put(position + 1, (byte) ((Boolean) value ? 1 : 0));
+            return position + 2;
+        } else if (clazz == Float.class)
+        {
+            if (position + 5 > end)
+            {
+                return -1;
+            }
+            buffer.put(position, TAG_FLOAT);
+            buffer.putFloat(position + 1, (Float) value);
+            return position + 5;
+        } else if (clazz == Double.class)
+        {
+            if (position + 9 > end)
+            {
+                return -1;
+            }
+            buffer.put(position, TAG_DOUBLE);
+            buffer.putDouble(position + 1, (Double) value);
+            return position + 9;
+        } else if (clazz == Byte.class)
+        {
+            if (position + 2 > end)
+            {
+                return -1;
+            }
+            buffer.put(position, TAG_BYTE);
+            buffer.put(position + 1, (Byte) value);
+            return position + 2;
+        } else if (clazz == Short.class)
+        {
+            if (position + 3 > end)
+            {
+                return -1;
+            }
+            buffer.put(position, TAG_SHORT);
+            buffer.putShort(position + 1, (Short) value);
+            return position + 3;
+        } else if (clazz == Character.class)
+        {
+            if (position + 3 > end)
+            {
+                return -1;
+            }
+            buffer.put(position, TAG_CHAR);
+            buffer.putChar(position + 1, (Character) value);
+            return position + 3;
+        } else if (clazz == String.class)
+        {
+            return encodeString(buffer, position, end, TAG_STRING, (String) value);
+        } else
+        {
+            return encodeString(buffer, position, end, TAG_OBJECT, clazz.getName());
+        }
+    }
+
+    /**
+     * 字符串按UTF-16编码：标签(byte) 字符数量(short) 字符...
+     */
+    private static int encodeString(ByteBuffer buffer, int position, int end, byte tag, String value)
+    {
+        final int length = value.length();
+        if (length > Short.MAX_VALUE || position + 3 + length * 2 > end)
+        {
+            return -1;
+        }
+        buffer.put(position, tag);
+        buffer.putShort(position + 1, (short) length);
+        position += 3;
+        for (int i = 0; i < length; i++)
+        {
+            buffer.putChar(position, value.charAt(i));
+            position += 2;
+        }
+        return position;
+    }
+
+    /**
+     * 返回已经记录的调用次数，包括被覆盖的记录
+     *
+     * @return
+     */
+    public long getRecordCount()
+    {
+        return mSequence.get();
+    }
+
+    /**
+     * 把修改过的内容写回文件，会阻塞当前线程，一般不需要调用，进程退出之后系统也会写回文件
+     */
+    public void force()
+    {
+        mBuffer.force();
+    }
+
+    /**
+     * 读取记录文件，按记录的顺序返回<br>
+     * 读取的时候如果还有线程在写入，正在写入的记录会被忽略；同名的.names文件存在的话，返回的记录带有方法名称
+     *
+     * @param file 记录文件
+     * @return
+     * @throws IOException
+     */
+    public static List<Event> read(File file) throws IOException
+    {
+        final ByteBuffer buffer;
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try
+        {
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        } finally
+        {
+            randomAccessFile.close();
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException("not a journal file:" + file);
+        }
+        if (buffer.getInt(4) != VERSION)
+        {
+            throw new IOException("unsupported journal version:" + buffer.getInt(4));
+        }
+
+        final int slotCount = buffer.getInt(8);
+        final int slotSize = buffer.getInt(12);
+        if (slotCount <= 0 || slotSize < SLOT_HEADER_SIZE
+                || HEADER_SIZE + (long) slotCount * slotSize > buffer.capacity())
+        {
+            throw new IOException("invalid journal header:" + file);
+        }
+
+        final Map<Integer, String> mapName = readNames(getNamesFile(file));
+        final List<Event> listEvent = new ArrayList<>();
+        for (int i = 0; i < slotCount; i++)
+        {
+            final Event event = decode(buffer, HEADER_SIZE + i * slotSize, slotSize, mapName);
+            if (event != null)
+            {
+                listEvent.add(event);
+            }
+        }
+
+        Collections.sort(listEvent, new Comparator<Event>()
+        {
+            @Override
+            public int compare(Event o1, Event o2)
+            {
+                return o1.mSequence < o2.mSequence ? -1 : (o1.mSequence == o2.mSequence ? 0 : 1);
+            }
+        });
+        return listEvent;
+    }
+
+    /**
+     * 读取方法id对应的名称，文件不存在的话返回空的map，写了一半的行忽略
+     */
+    private static Map<Integer, String> readNames(File file) throws IOException
+    {
+        final Map<Integer, String> mapName = new HashMap<>();
+        if (!file.exists())
+        {
+            return mapName;
+        }
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                final int index = line.indexOf('\t');
+                if (index <= 0 || !line.endsWith(")"))
+                {
+                    continue;
+                }
+                try
+                {
+                    mapName.put(Integer.parseInt(line.substring(0, index)), line.substring(index + 1));
+                } catch (NumberFormatException e)
+                {
+                    // 损坏的行
+                }
+            }
+        } finally
+        {
+            reader.close();
+        }
+        return mapName;
+    }
+
+    /**
+     * 把记录文件解析为文本文件，每行一条记录
+     *
+     * @param file 记录文件
+     * @param out  输出的文本文件
+     * @throws IOException
+     */
+    public static void dump(File file, File out) throws IOException
+    {
+        final List<Event> listEvent = read(file);
+        final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), "UTF-8"));
+        try
+        {
+            for (Event item : listEvent)
+            {
+                writer.write(item.toString());
+                writer.newLine();
+            }
+        } finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * 解析一个槽，空的、正在写的或者损坏的槽返回null<br>
+     * 解析完之后再检查一次序号，解析的过程中被其他线程覆盖的话也返回null
+     */
+    private static Event decode(ByteBuffer buffer, int base, int slotSize, Map<Integer, String> mapName)
+    {
+        final long sequence = buffer.getLong(base + OFFSET_SEQUENCE);
+        if (sequence <= 0)
+        {
+            return null;
+        }
+
+        final long time = buffer.getLong(base + OFFSET_TIME);
+        final int methodId = buffer.getInt(base + OFFSET_METHOD_ID);
+        final int argCount = buffer.get(base + OFFSET_ARG_COUNT) & 0xFF;
+        final boolean truncated = (buffer.get(base + OFFSET_FLAGS) & FLAG_TRUNCATED) != 0;
+        final int payloadLength = buffer.getShort(base + OFFSET_PAYLOAD_LENGTH);
+        if (payloadLength < 0 || SLOT_HEADER_SIZE + payloadLength > slotSize)
+        {
+            return null;
+        }
+
+        final Object[] args = new Object[argCount];
+        int position = base + SLOT_HEADER_SIZE;
+        final int end = position + payloadLength;
+        for (int i = 0; i < argCount; i++)
+        {
+            if (position >= end)
+            {
+                return null;
+            }
+            final byte tag = buffer.get(position++);
+            switch (tag)
+            {
+                case TAG_NULL:
+                    args[i] = null;
+                    break;
+                case TAG_BOOLEAN:
+                    args[i] = buffer.get(position) != 0;
+                    position += 1;
+                    break;
+                case TAG_BYTE:
+                    args[i] = buffer.get(position);
+                    position += 1;
+                    break;
+                case TAG_CHAR:
+                    args[i] = buffer.getChar(position);
+                    position += 2;
+                    break;
+                case TAG_SHORT:
+                    args[i] = buffer.getShort(position);
+                    position += 2;
+                    break;
+                case TAG_INT:
+                    args[i] = buffer.getInt(position);
+                    position += 4;
+                    break;
+                case TAG_LONG:
+                    args[i] = buffer.getLong(position);
+                    position += 8;
+                    break;
+                case TAG_FLOAT:
+                    args[i] = buffer.getFloat(position);
+                    position += 4;
+                    break;
+                case TAG_DOUBLE:
+                    args[i] = buffer.getDouble(position);
+                    position += 8;
+                    break;
+                case TAG_STRING:
+                case TAG_OBJECT:
+                    final int length = buffer.getShort(position);
+                    position += 2;
+                    if (length < 0 || position + length * 2 > end)
+                    {
+                        return null;
+                    }
+                    final char[] chars = new char[length];
+                    for (int c = 0; c < length; c++)
+                    {
+                        chars[c] = buffer.getChar(position);
+                        position += 2;
+                    }
+                    final String value = new String(chars);
+                    args[i] = tag == TAG_STRING ? value : new ObjectArg(value);
+                    break;
+                default:
+                    return null;
+            }
+            if (position > end)
+            {
+                return null;
+            }
+        }
+
+        if (buffer.getInt(base + OFFSET_CHECKSUM) != checksum(buffer, base, sequence, payloadLength))
+        {
+            // 被抢占的记录残留的写入
+            return null;
+        }
+        if (buffer.getLong(base + OFFSET_SEQUENCE) != sequence)
+        {
+            return null;
+        }
+        return new Event(sequence - 1, time, methodId, mapName.get(methodId), args, truncated);
+    }
+
+    /**
+     * 一条调用记录
+     */
+    public static final class Event
+    {
+        private final long mSequence;
+        private final long mTime;
+        private final int mMethodId;
+        private final String mMethodName;
+        private final Object[] mArgs;
+        private final boolean mTruncated;
+
+        private Event(long sequence, long time, int methodId, String methodName, Object[] args, boolean truncated)
+        {
+            mSequence = sequence;
+            mTime = time;
+            mMethodId = methodId;
+            mMethodName = methodName;
+            mArgs = args;
+            mTruncated = truncated;
+        }
+
+        /**
+         * 返回记录的序号，从0开始
+         *
+         * @return
+         */
+        public long getSequence()
+        {
+            return mSequence;
+        }
+
+        /**
+         * 返回调用的时间（毫秒）
+         *
+         * @return
+         */
+        public long getTime()
+        {
+            return mTime;
+        }
+
+        /**
+         * 返回方法id
+         *
+         * @return
+         */
+        public int getMethodId()
+        {
+            return mMethodId;
+        }
+
+        /**
+         * 返回方法名称，格式是class#方法(参数类型)，从.names文件读取，没有的话返回null
+         *
+         * @return
+         */
+        public String getMethodName()
+        {
+            return mMethodName;
+        }
+
+        /**
+         * 返回方法信息，方法id只在记录的进程中有效，其他进程读取的话可能返回null或者不对应的方法，
+         * 其他进程要用{@link #getMethodName()}
+         *
+         * @return
+         */
+        public FMethodInfo getMethodInfo()
+        {
+            return FMethodInfo.get(mMethodId);
+        }
+
+        /**
+         * 返回记录的参数，基本类型为包装对象，字符串为String，其他对象为{@link ObjectArg}
+         *
+         * @return
+         */
+        public Object[] getArgs()
+        {
+            return mArgs;
+        }
+
+        /**
+         * 参数是否超过槽的大小，后面的参数没有记录
+         *
+         * @return
+         */
+        public boolean isTruncated()
+        {
+            return mTruncated;
+        }
+
+        @Override
+        public String toString()
+        {
+            return mSequence + "\t" + mTime + "\t" + (mMethodName != null ? mMethodName : String.valueOf(mMethodId))
+                    + "\t" + Arrays.toString(mArgs) + (mTruncated ? "\t..." : "");
+        }
+    }
+
+    /**
+     * 不是基本类型和字符串的参数，只记录了class名称
+     */
+    public static final class ObjectArg
+    {
+        private final String mClassName;
+
+        private ObjectArg(String className)
+        {
+            mClassName = className;
+        }
+
+        public String getClassName()
+        {
+            return mClassName;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<" + mClassName + ">";
+        }
+    }
+}
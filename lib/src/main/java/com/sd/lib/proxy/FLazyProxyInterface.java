@@ -0,0 +1,60 @@
+package com.sd.lib.proxy;
+
+/**
+ * 延迟代理要实现的接口
+ */
+public interface FLazyProxyInterface
+{
+    /**
+     * 属性：真正的对象，第一次调用方法的时候才创建
+     */
+    String FIELD_NAME_LAZYTARGET = "mLazyTarget";
+    /**
+     * 属性：创建真正对象的提供者，创建之后置为null
+     */
+    String FIELD_NAME_LAZYSUPPLIER = "mLazySupplier";
+    /**
+     * 方法：设置真正的对象
+     */
+    String METHOD_NAME_SETLAZYTARGET = "setLazyTarget" + FProxyInterface.PROXY_CLASS_SUFFIX;
+    /**
+     * 方法：返回真正的对象
+     */
+    String METHOD_NAME_GETLAZYTARGET = "getLazyTarget" + FProxyInterface.PROXY_CLASS_SUFFIX;
+    /**
+     * 方法：设置创建真正对象的提供者
+     */
+    String METHOD_NAME_SETLAZYSUPPLIER = "setLazySupplier" + FProxyInterface.PROXY_CLASS_SUFFIX;
+    /**
+     * 方法：返回创建真正对象的提供者
+     */
+    String METHOD_NAME_GETLAZYSUPPLIER = "getLazySupplier" + FProxyInterface.PROXY_CLASS_SUFFIX;
+
+    /**
+     * 设置真正的对象，必须是代理class父类的对象
+     *
+     * @param target
+     */
+    void setLazyTarget$FProxy$(Object target);
+
+    /**
+     * 返回真正的对象，还没创建的话返回null
+     *
+     * @return
+     */
+    Object getLazyTarget$FProxy$();
+
+    /**
+     * 设置创建真正对象的提供者
+     *
+     * @param supplier
+     */
+    void setLazySupplier$FProxy$(FSupplier<?> supplier);
+
+    /**
+     * 返回创建真正对象的提供者
+     *
+     * @return
+     */
+    FSupplier<?> getLazySupplier$FProxy$();
+}
@@ -0,0 +1,247 @@
+package com.sd.lib.proxy;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 被拦截的方法信息<br>
+ * 同一个方法同时只有一个对象，可以直接用==比较，也可以作为Map的key
+ * <p>
+ * 全局只保存方法信息的弱引用，由生成的代理class和代理工厂保存强引用；
+ * 代理class和代理工厂都不再使用之后，方法信息和方法所在的class可以被回收，之后再获取的是新的对象和新的id
+ */
+public final class FMethodInfo
+{
+    /**
+     * key和value是同一个{@link InfoRef}，查找的时候用{@link LookupKey}
+     */
+    private static final ConcurrentHashMap<Object, InfoRef> MAP_METHOD = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, InfoRef> MAP_ID = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<FMethodInfo> QUEUE = new ReferenceQueue<>();
+    private static final AtomicInteger ID_GENERATOR = new AtomicInteger();
+
+    private static final ThreadLocal<LookupKey> LOOKUP_KEY = new ThreadLocal<LookupKey>()
+    {
+        @Override
+        protected LookupKey initialValue()
+        {
+            return new LookupKey();
+        }
+    };
+
+    private final int mId;
+    private final Method mMethod;
+    private final Class<?>[] mArgsClass;
+
+    private FMethodInfo(int id, Method method)
+    {
+        mId = id;
+        mMethod = method;
+        mArgsClass = method.getParameterTypes();
+    }
+
+    /**
+     * 返回某个方法对应的方法信息
+     *
+     * @param method
+     * @return
+     */
+    public static FMethodInfo get(Method method)
+    {
+        final LookupKey key = LOOKUP_KEY.get();
+        key.mMethod = method;
+        try
+        {
+            final InfoRef ref = MAP_METHOD.get(key);
+            final FMethodInfo info = ref == null ? null : ref.get();
+            if (info != null)
+            {
+                return info;
+            }
+        } finally
+        {
+            key.mMethod = null;
+        }
+        return register(method);
+    }
+
+    private static FMethodInfo register(Method method)
+    {
+        purge();
+
+        final FMethodInfo newInfo = new FMethodInfo(ID_GENERATOR.getAndIncrement(), method);
+        final InfoRef newRef = new InfoRef(newInfo, QUEUE);
+        while (true)
+        {
+            final InfoRef ref = MAP_METHOD.putIfAbsent(newRef, newRef);
+            if (ref == null)
+            {
+                MAP_ID.put(newInfo.mId, newRef);
+                return newInfo;
+            }
+
+            final FMethodInfo info = ref.get();
+            if (info != null)
+            {
+                return info;
+            }
+            // 已经被回收，还没从Map中移除
+            MAP_METHOD.remove(ref, ref);
+        }
+    }
+
+    /**
+     * 移除已经被回收的方法信息
+     */
+    private static void purge()
+    {
+        InfoRef ref;
+        while ((ref = (InfoRef) QUEUE.poll()) != null)
+        {
+            MAP_METHOD.remove(ref, ref);
+            MAP_ID.remove(ref.mId, ref);
+        }
+    }
+
+    /**
+     * 返回某个方法id对应的方法信息
+     *
+     * @param id 方法id
+     * @return 不存在的话返回null
+     */
+    public static FMethodInfo get(int id)
+    {
+        final InfoRef ref = MAP_ID.get(id);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * 返回方法id，全局唯一
+     *
+     * @return
+     */
+    public int getId()
+    {
+        return mId;
+    }
+
+    /**
+     * 返回方法名称
+     *
+     * @return
+     */
+    public String getName()
+    {
+        return mMethod.getName();
+    }
+
+    /**
+     * 返回方法参数的class，不要修改返回的数组
+     *
+     * @return
+     */
+    public Class<?>[] getArgsClass()
+    {
+        return mArgsClass;
+    }
+
+    /**
+     * 返回方法返回值的class
+     *
+     * @return
+     */
+    public Class<?> getReturnType()
+    {
+        return mMethod.getReturnType();
+    }
+
+    /**
+     * 返回被拦截的方法
+     *
+     * @return
+     */
+    public Method getMethod()
+    {
+        return mMethod;
+    }
+
+    @Override
+    public String toString()
+    {
+        return mMethod.toString();
+    }
+
+    /**
+     * 方法信息的弱引用，保存方法的hashCode，方法信息被回收之后和其他key都不相等
+     */
+    private static final class InfoRef extends WeakReference<FMethodInfo>
+    {
+        private final int mId;
+        private final int mHashCode;
+
+        public InfoRef(FMethodInfo info, ReferenceQueue<FMethodInfo> queue)
+        {
+            super(info, queue);
+            mId = info.mId;
+            mHashCode = info.mMethod.hashCode();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+            {
+                return true;
+            }
+            final FMethodInfo info = get();
+            if (info == null)
+            {
+                return false;
+            }
+            if (obj instanceof LookupKey)
+            {
+                return info.mMethod.equals(((LookupKey) obj).mMethod);
+            }
+            if (obj instanceof InfoRef)
+            {
+                final FMethodInfo other = ((InfoRef) obj).get();
+                return other != null && info.mMethod.equals(other.mMethod);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 每个线程一个的查找key，查找的时候不创建对象
+     */
+    private static final class LookupKey
+    {
+        private Method mMethod;
+
+        @Override
+        public int hashCode()
+        {
+            return mMethod.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj instanceof InfoRef)
+            {
+                final FMethodInfo info = ((InfoRef) obj).get();
+                return info != null && info.mMethod.equals(mMethod);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.sd.lib.proxy;
+
+/**
+ * 生成代理class的报告，用来比较不同生成模式的dex大小和方法数量
+ */
+public final class FProxyClassReport
+{
+    private final Class<?> mProxiedClass;
+    private final boolean mCompact;
+    private final int mInterceptedMethodCount;
+    private final int mGeneratedMethodCount;
+    private final int mDexSize;
+    private final long mGenerateTime;
+
+    FProxyClassReport(Class<?> proxiedClass, boolean compact,
+                      int interceptedMethodCount, int generatedMethodCount,
+                      int dexSize, long generateTime)
+    {
+        mProxiedClass = proxiedClass;
+        mCompact = compact;
+        mInterceptedMethodCount = interceptedMethodCount;
+        mGeneratedMethodCount = generatedMethodCount;
+        mDexSize = dexSize;
+        mGenerateTime = generateTime;
+    }
+
+    /**
+     * 返回被代理的class
+     *
+     * @return
+     */
+    public Class<?> getProxiedClass()
+    {
+        return mProxiedClass;
+    }
+
+    /**
+     * 是否是紧凑模式生成的
+     *
+     * @return
+     */
+    public boolean isCompact()
+    {
+        return mCompact;
+    }
+
+    /**
+     * 返回被拦截的方法数量
+     *
+     * @return
+     */
+    public int getInterceptedMethodCount()
+    {
+        return mInterceptedMethodCount;
+    }
+
+    /**
+     * 返回代理class中生成的方法数量（包括构造方法）
+     *
+     * @return
+     */
+    public int getGeneratedMethodCount()
+    {
+        return mGeneratedMethodCount;
+    }
+
+    /**
+     * 返回生成的dex字节数
+     *
+     * @return
+     */
+    public int getDexSize()
+    {
+        return mDexSize;
+    }
+
+    /**
+     * 返回生成并加载代理class的耗时（毫秒）
+     *
+     * @return
+     */
+    public long getGenerateTime()
+    {
+        return mGenerateTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return mProxiedClass.getName()
+                + " compact:" + mCompact
+                + " intercepted:" + mInterceptedMethodCount
+                + " methods:" + mGeneratedMethodCount
+                + " dex:" + mDexSize
+                + " time:" + mGenerateTime;
+    }
+}
@@ -0,0 +1,27 @@
+package com.sd.lib.proxy;
+
+/**
+ * 绑定到class的代理class所有对象共享的状态，代理class的静态属性{@link FProxyInterface#FIELD_NAME_CLASSSTATE}指向这个对象
+ * <p>
+ * 属性是public的，因为生成的代理class要直接读取；不要直接修改，通过{@link FProxyInterface}，
+ * {@link FProxyControl}或者{@link FProxyFactory#bindClassInterceptor(Class, FMethodInterceptor)}修改
+ */
+public final class FProxyClassState
+{
+    /**
+     * 拦截对象
+     */
+    public volatile FMethodInterceptor mMethodInterceptor;
+    /**
+     * 禁止拦截的方法标识
+     */
+    public volatile long[] mInterceptFlags;
+    /**
+     * 采样状态
+     */
+    public volatile int[] mSampleState;
+
+    FProxyClassState()
+    {
+    }
+}
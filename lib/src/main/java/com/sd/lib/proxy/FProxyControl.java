@@ -0,0 +1,295 @@
+package com.sd.lib.proxy;
+
+import java.util.Arrays;
+
+/**
+ * 运行时控制代理对象
+ * <p>
+ * 读取和修改拦截对象，禁止拦截的标识，采样状态都是无锁的，修改的时候比较并替换代理对象（绑定到class的代理对象是代理class共享的状态）的属性，
+ * 和{@link FProxyPool}，{@link FProxyFactory#bindClassInterceptor(Class, FMethodInterceptor)}直接设置属性也不会互相覆盖中间状态，
+ * 修改之后其他线程下一次调用方法就能看到最新的状态，不需要重新生成代理class，也不会锁住代理对象
+ * <p>
+ * 没有父类实现的方法（抽象方法，接口方法）必须调用拦截对象，所以不能单独禁止拦截或者设置采样间隔，会抛出{@link FProxyException}；
+ * 设置所有方法的时候这些方法不受影响，仍然每次都调用拦截对象
+ */
+public class FProxyControl
+{
+    private FProxyControl()
+    {
+    }
+
+    /**
+     * 替换代理对象的拦截对象
+     *
+     * @param proxy       代理对象
+     * @param interceptor 新的拦截对象，为null的话直接调用父类的方法
+     * @return 旧的拦截对象
+     */
+    public static FMethodInterceptor swapMethodInterceptor(Object proxy, FMethodInterceptor interceptor)
+    {
+        final ProxyStateAccess access = getAccess(proxy);
+        while (true)
+        {
+            final FMethodInterceptor old = access.getMethodInterceptor(proxy);
+            if (access.compareAndSetMethodInterceptor(proxy, old, interceptor))
+            {
+                return old;
+            }
+        }
+    }
+
+    /**
+     * 如果代理对象当前的拦截对象是expect，则替换为update
+     *
+     * @param proxy  代理对象
+     * @param expect 期望的当前拦截对象
+     * @param update 新的拦截对象
+     * @return true-替换成功
+     */
+    public static boolean compareAndSetMethodInterceptor(Object proxy, FMethodInterceptor expect, FMethodInterceptor update)
+    {
+        return getAccess(proxy).compareAndSetMethodInterceptor(proxy, expect, update);
+    }
+
+    /**
+     * 设置某个方法是否要拦截，不拦截的话直接调用父类的方法
+     *
+     * @param proxy      代理对象
+     * @param enabled    true-拦截，false-不拦截
+     * @param methodName 方法名称
+     * @param argsClass  方法参数class
+     * @throws FProxyException 方法没有父类的实现，不能禁止拦截
+     */
+    public static void setInterceptEnabled(Object proxy, boolean enabled, String methodName, Class<?>... argsClass)
+    {
+        final ProxyStateAccess access = getAccess(proxy);
+        final FMethodInfo[] arrMethodInfo = access.getMethodInfos();
+        final int index = indexOf(arrMethodInfo, methodName, argsClass);
+        if (!enabled)
+        {
+            checkSuperMethod(access, index);
+        }
+
+        while (true)
+        {
+            final long[] old = access.getInterceptFlags(proxy);
+            final long[] flags = old != null ? old.clone() : new long[(arrMethodInfo.length + 63) / 64];
+            if (enabled)
+            {
+                flags[index >> 6] &= ~(1L << (index & 63));
+            } else
+            {
+                flags[index >> 6] |= (1L << (index & 63));
+            }
+            if (access.compareAndSetInterceptFlags(proxy, old, isAllZero(flags) ? null : flags))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 设置代理对象的所有方法是否要拦截，没有父类实现的方法仍然每次都调用拦截对象
+     *
+     * @param proxy   代理对象
+     * @param enabled true-拦截，false-不拦截
+     */
+    public static void setInterceptEnabled(Object proxy, boolean enabled)
+    {
+        final ProxyStateAccess access = getAccess(proxy);
+
+        long[] flags = null;
+        if (!enabled)
+        {
+            flags = new long[(access.getMethodInfos().length + 63) / 64];
+            Arrays.fill(flags, -1L);
+        }
+
+        while (true)
+        {
+            final long[] old = access.getInterceptFlags(proxy);
+            if (access.compareAndSetInterceptFlags(proxy, old, flags))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 某个方法当前是否要拦截
+     *
+     * @param proxy      代理对象
+     * @param methodName 方法名称
+     * @param argsClass  方法参数class
+     * @return
+     */
+    public static boolean isInterceptEnabled(Object proxy, String methodName, Class<?>... argsClass)
+    {
+        final ProxyStateAccess access = getAccess(proxy);
+        final int index = indexOf(access.getMethodInfos(), methodName, argsClass);
+        if (!access.hasSuperMethod(index))
+        {
+            return true;
+        }
+
+        final long[] flags = access.getInterceptFlags(proxy);
+        return flags == null || (flags[index >> 6] & (1L << (index & 63))) == 0;
+    }
+
+    /**
+     * 设置某个方法的采样间隔，每rate次调用只有1次调用拦截对象，其他调用直接调用父类的方法<br>
+     * 代理对象必须是{@link FProxyFactory#setSampleRate(int)}大于0之后创建的
+     *
+     * @param proxy      代理对象
+     * @param rate       采样间隔，小于等于1的话每次都调用拦截对象
+     * @param methodName 方法名称
+     * @param argsClass  方法参数class
+     * @throws FProxyException 方法没有父类的实现，不能采样
+     */
+    public static void setSampleRate(Object proxy, int rate, String methodName, Class<?>... argsClass)
+    {
+        final ProxyStateAccess access = getAccess(proxy);
+        final FMethodInfo[] arrMethodInfo = access.getMethodInfos();
+        final int index = indexOf(arrMethodInfo, methodName, argsClass);
+        if (rate > 1)
+        {
+            checkSuperMethod(access, index);
+        }
+
+        while (true)
+        {
+            final int[] old = access.getSampleState(proxy);
+            final int[] state = old != null ? old.clone() : new int[arrMethodInfo.length * 2];
+            state[index * 2] = Math.max(1, rate);
+            state[index * 2 + 1] = 0;
+            if (access.compareAndSetSampleState(proxy, old, isAllSampled(state) ? null : state))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 设置代理对象所有方法的采样间隔，没有父类实现的方法仍然每次都调用拦截对象
+     *
+     * @param proxy 代理对象
+     * @param rate  采样间隔，小于等于1的话每次都调用拦截对象
+     * @see #setSampleRate(Object, int, String, Class[])
+     */
+    public static void setSampleRate(Object proxy, int rate)
+    {
+        final ProxyStateAccess access = getAccess(proxy);
+        final int[] state = rate <= 1 ? null : newSampleState(access.getMethodInfos().length, rate);
+
+        while (true)
+        {
+            final int[] old = access.getSampleState(proxy);
+            if (access.compareAndSetSampleState(proxy, old, state))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 返回某个方法的采样间隔，1表示每次都调用拦截对象
+     *
+     * @param proxy      代理对象
+     * @param methodName 方法名称
+     * @param argsClass  方法参数class
+     * @return
+     */
+    public static int getSampleRate(Object proxy, String methodName, Class<?>... argsClass)
+    {
+        final ProxyStateAccess access = getAccess(proxy);
+        final int index = indexOf(access.getMethodInfos(), methodName, argsClass);
+
+        final int[] state = access.getSampleState(proxy);
+        if (state == null || !access.hasSuperMethod(index))
+        {
+            return 1;
+        }
+        return Math.max(1, state[index * 2]);
+    }
+
+    /**
+     * 创建所有方法采样间隔都是rate的采样状态
+     *
+     * @param methodCount 代理class中被拦截的方法数量
+     * @param rate        采样间隔
+     * @return
+     */
+    static int[] newSampleState(int methodCount, int rate)
+    {
+        final int[] state = new int[methodCount * 2];
+        for (int i = 0; i < methodCount; i++)
+        {
+            state[i * 2] = rate;
+        }
+        return state;
+    }
+
+    private static ProxyStateAccess getAccess(Object proxy)
+    {
+        if (proxy instanceof FProxyInterface)
+        {
+            return ProxyStateAccess.get(proxy.getClass());
+        }
+        throw new FProxyException(proxy + " is not a class proxy created by FProxyFactory");
+    }
+
+    private static void checkSuperMethod(ProxyStateAccess access, int index)
+    {
+        if (!access.hasSuperMethod(index))
+        {
+            throw new FProxyException("method without super implementation is always intercepted:" + access.getMethodInfos()[index]);
+        }
+    }
+
+    /**
+     * 返回方法在代理class中的下标
+     */
+    static int indexOf(FMethodInfo[] arrMethodInfo, String methodName, Class<?>[] argsClass)
+    {
+        if (argsClass == null)
+        {
+            argsClass = new Class<?>[0];
+        }
+        for (int i = 0; i < arrMethodInfo.length; i++)
+        {
+            final FMethodInfo item = arrMethodInfo[i];
+            if (item.getName().equals(methodName) && Arrays.equals(item.getArgsClass(), argsClass))
+            {
+                return i;
+            }
+        }
+        throw new FProxyException("method not found:" + methodName + Arrays.toString(argsClass));
+    }
+
+    /**
+     * 是否所有方法每次都调用拦截对象
+     */
+    private static boolean isAllSampled(int[] state)
+    {
+        for (int i = 0; i < state.length; i += 2)
+        {
+            if (state[i] > 1)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAllZero(long[] flags)
+    {
+        for (long item : flags)
+        {
+            if (item != 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,21 +1,35 @@
 package com.sd.lib.proxy;
 
 import android.content.Context;
+import android.os.Build;
 
-import com.android.dx.Code;
-import com.android.dx.Comparison;
-import com.android.dx.FieldId;
-import com.android.dx.Label;
-import com.android.dx.Local;
-import com.android.dx.MethodId;
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisStd;
+
+import dalvik.system.DexClassLoader;
+import dalvik.system.InMemoryDexClassLoader;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 
 /**
  * 代理工厂
@@ -23,8 +37,32 @@ import java.lang.reflect.Proxy;
 public class FProxyFactory
 {
     private static final String DIR_NAME_DEX = "f_proxy_files";
+    private static final String FILE_NAME_PROFILE = "f_proxy_profile";
 
     private Context mContext;
+    private final Map<ProxySpec, Class<?>> mMapProxyClass = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ProxySpec, ProxyClassInfo> mMapClassInfo = new ConcurrentHashMap<>();
+    /**
+     * 接口代理拦截到的方法信息，全局只保存方法信息的弱引用，由代理工厂保存强引用
+     */
+    private final Map<Method, FMethodInfo> mMapInterfaceMethod = new ConcurrentHashMap<>();
+    private final List<FProxyClassReport> mListReport = new CopyOnWriteArrayList<>();
+    private final Map<Class<?>, FMethodInterceptor> mMapClassInterceptor = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ClassAdvice> mMapClassAdvice = new ConcurrentHashMap<>();
+    private final Map<ProxySpec, Class<?>> mMapSpecializedClass = new ConcurrentHashMap<>();
+    /**
+     * 每个被代理的class一个锁对象，生成代理class，绑定拦截对象，设置advice，特化都锁住它，不锁住外部的Class对象
+     */
+    private final ConcurrentHashMap<Class<?>, Object> mMapClassLock = new ConcurrentHashMap<>();
+    private final List<FTieredPromotion> mListPromotion = new CopyOnWriteArrayList<>();
+    private final DexMakerHelper.Interns mInterns = new DexMakerHelper.Interns();
+    private volatile boolean mLoadInMemory;
+    private volatile boolean mCompactMode;
+    private volatile boolean mReuseArgs;
+    private volatile int mSampleRate;
+    private volatile int mTierThreshold;
+    private volatile Executor mTierExecutor;
+    private volatile ProxyProfile mProfile;
 
     public FProxyFactory(Context context)
     {
@@ -41,6 +79,246 @@ public class FProxyFactory
         return mContext.getDir(DIR_NAME_DEX, Context.MODE_PRIVATE);
     }
 
+    /**
+     * 设置是否在内存中加载代理class，不写入本地文件<br>
+     * 只有Android 8.0及以上支持，不支持的话还是保存到本地文件再加载
+     *
+     * @param loadInMemory
+     */
+    public void setLoadInMemory(boolean loadInMemory)
+    {
+        mLoadInMemory = loadInMemory;
+    }
+
+    /**
+     * 当前设备是否支持在内存中加载代理class
+     *
+     * @return
+     */
+    public static boolean isLoadInMemorySupported()
+    {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+    }
+
+    /**
+     * 设置是否使用紧凑模式生成代理class，默认false<br>
+     * 紧凑模式下参数形状相同的方法共享一个参数打包方法，所有方法共用一个按下标分发的方法调用父类方法，
+     * 不再为每个方法生成$Super$方法，生成的dex更小，方法数量更少；
+     * {@link FInterceptInfo#invokeSuper(Object[])}也不再需要反射
+     *
+     * @param compactMode
+     */
+    public void setCompactMode(boolean compactMode)
+    {
+        mCompactMode = compactMode;
+    }
+
+    /**
+     * 设置调用拦截对象的时候是否复用参数数组，默认false<br>
+     * 复用的话参数数组从当前线程按参数数量保存的数组中借用，调用结束之后清空并归还，调用拦截对象不再创建Object[]；
+     * 同一个线程中嵌套调用（比如拦截对象中又调用了其他代理对象）会借用不同的数组。<br>
+     * 注意：参数数组只在{@link FMethodInterceptor#intercept(FInterceptInfo, Object[])}返回之前有效，
+     * 需要在返回之后使用参数的话要调用{@link FInterceptInfo#copyArgs(Object[])}复制一份
+     *
+     * @param reuseArgs
+     */
+    public void setReuseArgs(boolean reuseArgs)
+    {
+        mReuseArgs = reuseArgs;
+    }
+
+    /**
+     * 设置新创建的代理对象的采样间隔，默认0<br>
+     * 大于0的话生成支持采样拦截的代理class，每个方法每sampleRate次调用只有1次调用拦截对象，
+     * 其他调用在生成的代码中直接调用父类的方法，不打包参数也不创建{@link FInterceptInfo}；
+     * 等于1的话每次都调用拦截对象，之后可以通过{@link FProxyControl#setSampleRate(Object, int, String, Class[])}
+     * 按对象或者按方法修改采样间隔<br>
+     * 计数没有加锁，多个线程同时调用的时候采样的次数是近似的
+     *
+     * @param sampleRate
+     */
+    public void setSampleRate(int sampleRate)
+    {
+        mSampleRate = Math.max(0, sampleRate);
+    }
+
+    /**
+     * 设置分层模式，默认关闭<br>
+     * 开启之后{@link #newProxy(Class, Class[], Class[], Object[], FMethodInterceptor)}创建的代理class会统计每个方法调用拦截对象的次数，
+     * 有方法的调用次数达到threshold之后，在executor中生成特化的代理class：调用次数达到threshold并且一直是同一个class的拦截对象的方法，
+     * 检查拦截对象的类型之后直接调用这个class的intercept方法，不再经过{@link FProxyHelper}和接口调用；
+     * 之后创建的代理对象使用特化的代理class，已经创建的代理对象不变<br>
+     * 拦截对象的class必须是public的，并且能被这个库的ClassLoader加载（匿名内部类不能被特化）
+     *
+     * @param threshold 调用次数阈值，小于等于0表示关闭
+     * @param executor  用来生成特化的代理class的线程池
+     */
+    public void setTieredMode(int threshold, Executor executor)
+    {
+        if (threshold > 0 && executor == null)
+        {
+            throw new NullPointerException("executor is null");
+        }
+        mTierExecutor = executor;
+        mTierThreshold = Math.max(0, threshold);
+    }
+
+    /**
+     * 返回分层模式下被特化的方法，按特化的顺序
+     *
+     * @return
+     */
+    public List<FTieredPromotion> getTieredPromotions()
+    {
+        return new ArrayList<>(mListPromotion);
+    }
+
+    /**
+     * 返回已经生成的代理class的报告，按生成的顺序
+     *
+     * @return
+     */
+    public List<FProxyClassReport> getProxyClassReports()
+    {
+        return new ArrayList<>(mListReport);
+    }
+
+    /**
+     * 设置是否记录本次启动创建过代理的class，记录之后调用{@link #saveProfile()}保存，
+     * 下次启动的时候可以调用{@link #warmFromProfile(Executor, WarmListener)}提前生成代理class
+     *
+     * @param enabled
+     */
+    public synchronized void setProfileEnabled(boolean enabled)
+    {
+        if (enabled)
+        {
+            if (mProfile == null)
+            {
+                mProfile = new ProxyProfile();
+            }
+        } else
+        {
+            mProfile = null;
+        }
+    }
+
+    /**
+     * 返回记录保存的文件
+     *
+     * @return
+     */
+    public File getProfileFile()
+    {
+        return new File(mContext.getFilesDir(), FILE_NAME_PROFILE);
+    }
+
+    /**
+     * 保存记录到本地，会覆盖之前保存的记录
+     */
+    public void saveProfile()
+    {
+        final ProxyProfile profile = mProfile;
+        if (profile == null)
+        {
+            throw new FProxyException("profile is not enabled");
+        }
+        try
+        {
+            profile.save(getProfileFile());
+        } catch (IOException e)
+        {
+            throw new FProxyException(e);
+        }
+    }
+
+    /**
+     * 在线程池中按照上次启动第一次使用的顺序，提前生成保存在记录中的代理class
+     *
+     * @param executor
+     * @see #warmFromProfile(Executor, WarmListener)
+     */
+    public void warmFromProfile(Executor executor)
+    {
+        warmFromProfile(executor, null);
+    }
+
+    /**
+     * 在线程池中按照上次启动第一次使用的顺序，提前生成保存在记录中的代理class<br>
+     * 生成选项和创建代理对象的时候一样按照代理工厂当前的设置，所以要在修改设置（比如{@link #setCompactMode(boolean)}）之后调用；
+     * 提前生成失败的代理class等到真正创建代理的时候再生成
+     *
+     * @param executor
+     * @param listener 回调生成失败的记录和结果，可以为null
+     */
+    public void warmFromProfile(Executor executor, final WarmListener listener)
+    {
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final List<ProxyProfile.Entry> listEntry;
+                try
+                {
+                    listEntry = ProxyProfile.load(getProfileFile(), FProxyFactory.class.getClassLoader());
+                } catch (IOException e)
+                {
+                    if (listener != null)
+                    {
+                        listener.onWarmError(null, e);
+                        listener.onWarmFinish(0, 0);
+                    }
+                    return;
+                }
+
+                int errorCount = 0;
+                for (ProxyProfile.Entry item : listEntry)
+                {
+                    try
+                    {
+                        final ProxySpec spec = newProxySpec(item.getProxiedClass(), item.getInterfaces(), item.getFlags());
+                        getProxyClass(spec).getDeclaredConstructor(item.getArgsClass());
+                    } catch (Exception e)
+                    {
+                        errorCount++;
+                        if (listener != null)
+                        {
+                            listener.onWarmError(item.getProxiedClass(), e);
+                        }
+                    }
+                }
+
+                if (listener != null)
+                {
+                    listener.onWarmFinish(listEntry.size() - errorCount, errorCount);
+                }
+            }
+        });
+    }
+
+    /**
+     * 提前生成代理class的回调，在生成的线程中回调
+     */
+    public interface WarmListener
+    {
+        /**
+         * 生成某个记录的代理class失败
+         *
+         * @param clazz 要创建代理的class，读取记录文件失败的话为null
+         * @param e     异常
+         */
+        void onWarmError(Class<?> clazz, Exception e);
+
+        /**
+         * 所有记录处理完成
+         *
+         * @param successCount 生成成功的数量
+         * @param errorCount   生成失败的数量
+         */
+        void onWarmFinish(int successCount, int errorCount);
+    }
+
     /**
      * 清空所有保存本地的代理class
      */
@@ -75,6 +353,24 @@ public class FProxyFactory
     public final <T> T newProxy(Class<T> clazz,
                                 Class[] argsClass, Object[] args,
                                 final FMethodInterceptor methodInterceptor)
+    {
+        return newProxy(clazz, null, argsClass, args, methodInterceptor);
+    }
+
+    /**
+     * 创建一个代理对象，代理对象同时实现额外的接口，接口方法和父类方法一样会被拦截
+     *
+     * @param clazz             要创建代理的class
+     * @param interfaces        代理对象额外要实现的接口，必须是public的
+     * @param argsClass         要调用的构造方法参数class
+     * @param args              要调用的构造方法参数
+     * @param methodInterceptor 方法拦截回调对象
+     * @param <T>               要创建代理的class类型
+     * @return 代理对象
+     */
+    public final <T> T newProxy(Class<T> clazz, Class<?>[] interfaces,
+                                Class[] argsClass, Object[] args,
+                                final FMethodInterceptor methodInterceptor)
     {
         if (methodInterceptor == null)
         {
@@ -83,13 +379,19 @@ public class FProxyFactory
 
         if (clazz.isInterface())
         {
-            Object proxy = Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[]{clazz}, new InvocationHandler()
+            final Class<?>[] arrInterface = new Class<?>[1 + (interfaces == null ? 0 : interfaces.length)];
+            arrInterface[0] = clazz;
+            if (interfaces != null)
+            {
+                System.arraycopy(interfaces, 0, arrInterface, 1, interfaces.length);
+            }
+
+            Object proxy = Proxy.newProxyInstance(clazz.getClassLoader(), arrInterface, new InvocationHandler()
             {
                 @Override
                 public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
                 {
-                    FInterceptInfo info = new FInterceptInfo(proxy, method.getName(), method.getParameterTypes());
-                    info.setMethod(method);
+                    FInterceptInfo info = new FInterceptInfo(proxy, getInterfaceMethodInfo(method));
                     return methodInterceptor.intercept(info, args);
                 }
             });
@@ -106,251 +408,734 @@ public class FProxyFactory
                 throw new FProxyException("FProxy clazz must not be private");
             }
 
-            DexMakerHelper helper = new DexMakerHelper(clazz);
-            makeProxyClass(helper);
+            final ProxySpec spec = newProxySpec(clazz, interfaces, 0);
+            recordProfile(spec, argsClass);
 
-            ClassLoader loader = null;
-            Class classProxy = null;
-            Constructor constructor = null;
-            FProxyInterface proxy = null;
-            try
+            Class<?> classProxy = getProxyClass(spec);
+            if (spec.hasFlag(ProxySpec.FLAG_TIERED))
             {
-                loader = helper.getDexMaker().generateAndLoad(getClass().getClassLoader(), getDexDir());
-            } catch (IOException e)
-            {
-                throw new FProxyException(e);
+                // 已经特化的话使用特化的代理class
+                final Class<?> classSpecialized = mMapSpecializedClass.get(spec);
+                if (classSpecialized != null)
+                {
+                    classProxy = classSpecialized;
+                }
             }
-            try
-            {
-                classProxy = loader.loadClass(helper.getProxyClassName());
-            } catch (ClassNotFoundException e)
+
+            final FProxyInterface proxy = newProxyInstance(classProxy, argsClass, args);
+            proxy.setMethodInterceptor$FProxy$(methodInterceptor);
+
+            final int sampleRate = mSampleRate;
+            if (sampleRate > 1 && spec.hasFlag(ProxySpec.FLAG_SAMPLED))
             {
-                throw new FProxyException(e);
+                FProxyControl.setSampleRate(proxy, sampleRate);
             }
-            try
+            return (T) proxy;
+        }
+    }
+
+    /**
+     * 设置某个class绑定到class的代理对象的拦截对象，{@link #newClassBoundProxy(Class, Class[], Object[])}创建的
+     * 这个class的所有代理对象共享这个拦截对象，已经创建的代理对象也会生效
+     *
+     * @param clazz             要创建代理的class
+     * @param methodInterceptor 方法拦截回调对象，为null的话直接调用父类的方法
+     */
+    public final void bindClassInterceptor(Class<?> clazz, FMethodInterceptor methodInterceptor)
+    {
+        synchronized (getClassLock(clazz))
+        {
+            if (methodInterceptor == null)
             {
-                constructor = classProxy.getDeclaredConstructor(argsClass);
-            } catch (NoSuchMethodException e)
+                mMapClassInterceptor.remove(clazz);
+            } else
             {
-                throw new FProxyException(e);
+                mMapClassInterceptor.put(clazz, methodInterceptor);
             }
-            try
+
+            for (Map.Entry<ProxySpec, Class<?>> item : mMapProxyClass.entrySet())
             {
-                proxy = (FProxyInterface) constructor.newInstance(args);
-                proxy.setMethodInterceptor$FProxy$(methodInterceptor);
-                return (T) proxy;
-            } catch (Exception e)
+                final ProxySpec spec = item.getKey();
+                if (spec.getSuperClass() == clazz && spec.hasFlag(ProxySpec.FLAG_CLASS_BOUND))
+                {
+                    setClassInterceptor(item.getValue(), methodInterceptor);
+                }
+            }
+        }
+    }
+
+    /**
+     * 创建一个绑定到class的代理对象
+     *
+     * @param clazz 要创建代理的class
+     * @param <T>   要创建代理的class类型
+     * @return 代理对象
+     * @see #newClassBoundProxy(Class, Class[], Object[])
+     */
+    public final <T> T newClassBoundProxy(Class<T> clazz)
+    {
+        return newClassBoundProxy(clazz, null, null);
+    }
+
+    /**
+     * 创建一个绑定到class的代理对象，拦截对象和禁止拦截的标识保存在代理class的静态属性中，
+     * 代理对象不保存额外的状态，适合创建大量共享同一个拦截对象的代理对象<br>
+     * 拦截对象通过{@link #bindClassInterceptor(Class, FMethodInterceptor)}设置，没有设置的话直接调用父类的方法；
+     * 对某个代理对象调用{@link FProxyInterface#setMethodInterceptor$FProxy$(FMethodInterceptor)}
+     * 或者{@link FProxyControl}修改的是这个代理class所有对象的状态
+     *
+     * @param clazz     要创建代理的class
+     * @param argsClass 要调用的构造方法参数class
+     * @param args      要调用的构造方法参数
+     * @param <T>       要创建代理的class类型
+     * @return 代理对象
+     */
+    public final <T> T newClassBoundProxy(Class<T> clazz, Class[] argsClass, Object[] args)
+    {
+        checkProxiedClass(clazz);
+        final ProxySpec spec = newProxySpec(clazz, null, ProxySpec.FLAG_CLASS_BOUND);
+        recordProfile(spec, argsClass);
+        final Class<?> classProxy = getProxyClass(spec);
+        return (T) newProxyInstance(classProxy, argsClass, args);
+    }
+
+    private static FProxyInterface newProxyInstance(Class<?> classProxy, Class[] argsClass, Object[] args)
+    {
+        Constructor constructor = null;
+        try
+        {
+            constructor = classProxy.getDeclaredConstructor(argsClass);
+        } catch (NoSuchMethodException e)
+        {
+            throw new FProxyException(e);
+        }
+        try
+        {
+            return (FProxyInterface) constructor.newInstance(args);
+        } catch (Exception e)
+        {
+            throw new FProxyException(e);
+        }
+    }
+
+    /**
+     * 设置某个class的advice，{@link #newAdvisedProxy(Class, Class[], Object[])}创建的这个class的所有代理对象共享，
+     * 已经创建的代理对象也会生效
+     *
+     * @param clazz  要创建代理的class
+     * @param before 调用父类方法之前的回调，可以为null
+     * @param after  调用父类方法之后的回调，可以为null
+     */
+    public final void setClassAdvice(Class<?> clazz, FBeforeAdvice before, FAfterAdvice after)
+    {
+        final ClassAdvice advice = new ClassAdvice(before, after);
+        synchronized (getClassLock(clazz))
+        {
+            mMapClassAdvice.put(clazz, advice);
+
+            for (Map.Entry<ProxySpec, Class<?>> item : mMapProxyClass.entrySet())
             {
-                throw new FProxyException(e);
+                final ProxySpec spec = item.getKey();
+                if (spec.getSuperClass() == clazz && spec.hasFlag(ProxySpec.FLAG_ADVICE))
+                {
+                    setClassAdvice(item.getValue(), advice);
+                }
             }
         }
     }
 
-    private void makeProxyClass(DexMakerHelper helper)
+    /**
+     * 创建一个带advice的代理对象
+     *
+     * @param clazz 要创建代理的class
+     * @param <T>   要创建代理的class类型
+     * @return 代理对象
+     * @see #newAdvisedProxy(Class, Class[], Object[])
+     */
+    public final <T> T newAdvisedProxy(Class<T> clazz)
     {
-        // public class com/sd/model/Person$FProxy$ extends com/sd/model/Person implements FProxyInterface
-        helper.declareClass(Modifier.PUBLIC, helper.getSuperClass(), FProxyInterface.class);
+        return newAdvisedProxy(clazz, null, null);
+    }
 
-        // ---------- 构造方法start ----------
+    /**
+     * 创建一个带advice的代理对象，没有拦截对象或者方法被禁止拦截的时候，代理class在调用父类方法前后直接回调
+     * {@link #setClassAdvice(Class, FBeforeAdvice, FAfterAdvice)}设置的advice，不打包参数，也没有反射；
+     * 适合只需要观察调用（计时，计数，检查状态）不需要替换调用的场景<br>
+     * 创建的代理对象没有拦截对象，需要的话可以再调用{@link FProxyInterface#setMethodInterceptor$FProxy$(FMethodInterceptor)}设置
+     *
+     * @param clazz     要创建代理的class
+     * @param argsClass 要调用的构造方法参数class
+     * @param args      要调用的构造方法参数
+     * @param <T>       要创建代理的class类型
+     * @return 代理对象
+     */
+    public final <T> T newAdvisedProxy(Class<T> clazz, Class[] argsClass, Object[] args)
+    {
+        checkProxiedClass(clazz);
+        final ProxySpec spec = newProxySpec(clazz, null, ProxySpec.FLAG_ADVICE);
+        recordProfile(spec, argsClass);
+        final Class<?> classProxy = getProxyClass(spec);
+        return (T) newProxyInstance(classProxy, argsClass, args);
+    }
 
-        helper.declareConstructors();
+    private static void checkProxiedClass(Class<?> clazz)
+    {
+        if (clazz.isInterface())
+        {
+            throw new FProxyException("FProxy clazz must not be interface");
+        }
+        final int modifiers = clazz.getModifiers();
+        if (Modifier.isFinal(modifiers))
+        {
+            throw new FProxyException("FProxy clazz must not be final");
+        }
+        if (Modifier.isPrivate(modifiers))
+        {
+            throw new FProxyException("FProxy clazz must not be private");
+        }
+    }
 
-        // ---------- 构造方法end ----------
+    /**
+     * 设置绑定到class的代理class的拦截对象
+     */
+    private static void setClassInterceptor(Class<?> classProxy, FMethodInterceptor methodInterceptor)
+    {
+        ProxyStateAccess.getClassState(classProxy).mMethodInterceptor = methodInterceptor;
+    }
 
-        // ---------- 属性start ----------
-        // private FMethodInterceptor mMethodInterceptor = null;
-        helper.declareField(Modifier.PRIVATE,
-                FMethodInterceptor.class, FProxyInterface.FIELD_NAME_METHODINTERCEPTOR, null);
-        // ---------- 属性end ----------
+    /**
+     * 设置带advice的代理class的advice
+     */
+    private static void setClassAdvice(Class<?> classProxy, ClassAdvice advice)
+    {
+        setStaticField(classProxy, FProxyInterface.FIELD_NAME_BEFOREADVICE, advice.before);
+        setStaticField(classProxy, FProxyInterface.FIELD_NAME_AFTERADVICE, advice.after);
+    }
 
-        // ---------- FProxyInterface接口方法start ----------
-        /**
-         * public void setMethodInterceptor$FProxy$(FMethodInterceptor interceptor)
-         * {
-         *     mMethodInterceptor = handler;
-         * }
-         */
-        Code code = helper.declareMethod(Modifier.PUBLIC,
-                Void.class, FProxyInterface.METHOD_NAME_SETMETHODINTERCEPTOR,
-                FMethodInterceptor.class);
+    private static void setStaticField(Class<?> classProxy, String fieldName, Object value)
+    {
+        try
+        {
+            final Field field = classProxy.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(null, value);
+        } catch (Exception e)
+        {
+            throw new FProxyException(e);
+        }
+    }
 
-        FieldId fieldMethodInterceptor = helper.getField(helper.getProxyClass(),
-                FMethodInterceptor.class, FProxyInterface.FIELD_NAME_METHODINTERCEPTOR);
+    private static final class ClassAdvice
+    {
+        public final FBeforeAdvice before;
+        public final FAfterAdvice after;
 
-        code.iput(fieldMethodInterceptor,
-                helper.getThis(code),
-                helper.getParameter(code, 0, FMethodInterceptor.class));
-        code.returnVoid();
+        public ClassAdvice(FBeforeAdvice before, FAfterAdvice after)
+        {
+            this.before = before;
+            this.after = after;
+        }
+    }
 
-        /**
-         * public FMethodInterceptor getMethodInterceptor$FProxy$()
-         * {
-         *     return this.mMethodInterceptor;
-         * }
-         */
-        code = helper.declareMethod(Modifier.PUBLIC,
-                FMethodInterceptor.class, FProxyInterface.METHOD_NAME_GETMETHODINTERCEPTOR);
+    /**
+     * 创建一个延迟代理对象，创建的时候不调用构造方法，第一次调用方法的时候才调用supplier创建真正的对象，
+     * 之后所有方法直接转发给真正的对象，不经过拦截对象
+     * <p>
+     * 多个线程同时第一次调用方法，supplier只会被调用一次；supplier抛出异常或者返回null的话，下次调用方法的时候重试
+     * <p>
+     * 接口和class的行为一样：
+     * <ul>
+     * <li>Object的方法不转发，即使clazz重写了equals，hashCode，toString也不转发，也不会创建真正的对象：
+     * equals比较是否是同一个代理对象，hashCode返回System.identityHashCode，toString返回clazz名称@identityHashCode；
+     * clazz把这些方法声明为final的话调用的是clazz自己的实现</li>
+     * <li>只转发public方法，protected和包访问权限的方法调用的是代理对象自己（没有调用构造方法）的实现，
+     * 因为代理class在另一个ClassLoader中，不能跨包调用真正对象的这些方法</li>
+     * </ul>
+     *
+     * @param clazz    要创建代理的class
+     * @param supplier 创建真正的对象
+     * @param <T>      要创建代理的class类型
+     * @return 代理对象
+     */
+    public final <T> T newLazyProxy(final Class<T> clazz, final FSupplier<? extends T> supplier)
+    {
+        if (supplier == null)
+        {
+            throw new FProxyException("supplier must not be null");
+        }
 
-        Local<FMethodInterceptor> localMethodInterceptor = helper.newLocal(code, FMethodInterceptor.class);
-        code.iget(fieldMethodInterceptor, localMethodInterceptor, helper.getThis(code));
-        code.returnValue(localMethodInterceptor);
+        if (clazz.isInterface())
+        {
+            final Object proxy = Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[]{clazz}, new InvocationHandler()
+            {
+                private volatile Object mTarget;
 
-        // ---------- FProxyInterface接口方法end ----------
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+                {
+                    if (method.getDeclaringClass() == Object.class)
+                    {
+                        // Object的方法不转发
+                        final String name = method.getName();
+                        if ("equals".equals(name))
+                        {
+                            return proxy == args[0];
+                        } else if ("hashCode".equals(name))
+                        {
+                            return System.identityHashCode(proxy);
+                        } else
+                        {
+                            return FProxyHelper.lazyToString(clazz, proxy);
+                        }
+                    }
 
-        final Method[] arrMethod = helper.getSuperClass().getDeclaredMethods();
+                    Object target = mTarget;
+                    if (target == null)
+                    {
+                        synchronized (this)
+                        {
+                            target = mTarget;
+                            if (target == null)
+                            {
+                                target = supplier.get();
+                                if (target == null)
+                                {
+                                    throw new FProxyException("supplier returned null:" + clazz);
+                                }
+                                mTarget = target;
+                            }
+                        }
+                    }
 
-        String methodName = null;
-        String methodNameSuper = null;
-        Class<?> classReturn = null;
-        boolean isReturnVoid = false;
-        Class<?>[] classArgs = null;
+                    try
+                    {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e)
+                    {
+                        throw e.getCause();
+                    }
+                }
+            });
+            return (T) proxy;
+        }
 
-        MethodId<?, ?> methodNotifyInterceptor = helper.getMethod(FProxyHelper.class,
-                Object.class, FProxyHelper.METHOD_NAME_NOTIFYINTERCEPTOR,
-                String.class, Class[].class, Object[].class, Object.class);
+        final int modifiers = clazz.getModifiers();
+        if (Modifier.isFinal(modifiers))
+        {
+            throw new FProxyException("FProxy clazz must not be final");
+        }
+        if (Modifier.isPrivate(modifiers))
+        {
+            throw new FProxyException("FProxy clazz must not be private");
+        }
 
-        int modifiers = 0;
-        for (Method item : arrMethod)
+        final Class<?> classProxy = getProxyClass(new ProxySpec(clazz, null, ProxySpec.FLAG_LAZY));
+        try
         {
-            modifiers = item.getModifiers();
-            methodName = item.getName();
-            if (methodName.contains("$") ||
-                    modifiers == 0 ||
-                    Modifier.isStatic(modifiers) ||
-                    Modifier.isFinal(modifiers) ||
-                    Modifier.isPrivate(modifiers))
+            final FLazyProxyInterface proxy = (FLazyProxyInterface) LazyInstantiator.newInstance(classProxy);
+            proxy.setLazySupplier$FProxy$(new FProxyHelper.LazyResolver(supplier));
+            return (T) proxy;
+        } catch (Exception e)
+        {
+            throw new FProxyException(e);
+        }
+    }
+
+    private void recordProfile(ProxySpec spec, Class[] argsClass)
+    {
+        final ProxyProfile profile = mProfile;
+        if (profile != null)
+        {
+            profile.record(spec, argsClass);
+        }
+    }
+
+    /**
+     * 按照当前的设置创建代理class描述，创建代理对象和提前生成代理class都通过这个方法，保证描述一致
+     *
+     * @param flags 由创建代理对象的方法决定的生成选项，见{@link ProxySpec#FLAGS_PATH}
+     */
+    private ProxySpec newProxySpec(Class<?> clazz, Class<?>[] interfaces, int flags)
+    {
+        if (mTierThreshold > 0 && (flags & ProxySpec.FLAGS_PATH) == 0)
+        {
+            // 只有newProxy创建的代理class支持分层
+            flags |= ProxySpec.FLAG_TIERED;
+        }
+        if (mCompactMode)
+        {
+            flags |= ProxySpec.FLAG_COMPACT;
+        }
+        if (mReuseArgs)
+        {
+            flags |= ProxySpec.FLAG_REUSE_ARGS;
+        }
+        if (mSampleRate > 0)
+        {
+            flags |= ProxySpec.FLAG_SAMPLED;
+        }
+        return new ProxySpec(clazz, interfaces, flags);
+    }
+
+    /**
+     * 返回代理class，相同的{@link ProxySpec}只会生成一次
+     *
+     * @param spec 要生成的代理class描述
+     * @return
+     */
+    private Class<?> getProxyClass(ProxySpec spec)
+    {
+        Class<?> classProxy = mMapProxyClass.get(spec);
+        if (classProxy != null)
+        {
+            return classProxy;
+        }
+
+        synchronized (getClassLock(spec.getSuperClass()))
+        {
+            classProxy = mMapProxyClass.get(spec);
+            if (classProxy == null)
             {
-                continue;
+                classProxy = generateProxyClass(spec);
+                mMapProxyClass.put(spec, classProxy);
             }
-            classReturn = item.getReturnType();
-            isReturnVoid = classReturn.getSimpleName().equals("void");
-            classArgs = item.getParameterTypes();
-
-            code = helper.declareMethod(item.getModifiers(), classReturn, methodName, classArgs); // 生成方法体
+            return classProxy;
+        }
+    }
 
-            // ---------- 变量 ----------
+    /**
+     * 返回被代理的class对应的锁对象
+     */
+    private Object getClassLock(Class<?> clazz)
+    {
+        Object lock = mMapClassLock.get(clazz);
+        if (lock == null)
+        {
+            final Object newLock = new Object();
+            lock = mMapClassLock.putIfAbsent(clazz, newLock);
+            if (lock == null)
+            {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
 
-            // 保存返回值
-            Local localReturn = helper.newLocal(code, classReturn);
-            Local localReturnPack = null;
-            if (classReturn.isPrimitive())
+    /**
+     * 返回要生成的代理class的反射信息，相同的{@link ProxySpec}只扫描一次
+     */
+    private ProxyClassInfo getProxyClassInfo(ProxySpec spec)
+    {
+        ProxyClassInfo info = mMapClassInfo.get(spec);
+        if (info == null)
+        {
+            final ProxyClassInfo newInfo = new ProxyClassInfo(spec);
+            info = mMapClassInfo.putIfAbsent(spec, newInfo);
+            if (info == null)
             {
-                localReturnPack = helper.newLocal(code, DexMakerHelper.getPackedClass(classReturn));
+                info = newInfo;
             }
+        }
+        return info;
+    }
 
-            // 保存方法拦截的返回值
-            Local<Object> localReturnInterceptor = helper.newLocal(code, Object.class);
+    /**
+     * 返回接口代理拦截到的方法信息
+     */
+    private FMethodInfo getInterfaceMethodInfo(Method method)
+    {
+        FMethodInfo info = mMapInterfaceMethod.get(method);
+        if (info == null)
+        {
+            info = FMethodInfo.get(method);
+            mMapInterfaceMethod.put(method, info);
+        }
+        return info;
+    }
 
-            Local<String> localMethodName = helper.newLocal(code, String.class);
-            Local<Class[]> localArgsClass = helper.newLocal(code, Class[].class);
-            Local<Object[]> localArgsValue = helper.newLocal(code, Object[].class);
+    private Class<?> generateProxyClass(ProxySpec spec)
+    {
+        return generateProxyClass(spec, null);
+    }
 
-            Local<Integer> localIntTmp = helper.newLocal(code, int.class);
-            Local<Class> localClassTmp = helper.newLocal(code, Class.class);
-            Local<Object> localObjectTmp = helper.newLocal(code, Object.class);
+    /**
+     * 生成代理class
+     *
+     * @param spec             要生成的代理class描述
+     * @param specializedTypes 分层模式下每个方法特化的拦截对象class，为null的话生成统计调用次数的代理class
+     * @return
+     */
+    private Class<?> generateProxyClass(final ProxySpec spec, Class<?>[] specializedTypes)
+    {
+        final long startTime = System.nanoTime();
+        final boolean isLazy = spec.hasFlag(ProxySpec.FLAG_LAZY);
+        final DexMakerHelper helper = new DexMakerHelper(spec.getSuperClass(), mInterns);
+        final FMethodInfo[] arrMethodInfo = isLazy ? new LazyProxyGenerator(helper, getProxyClassInfo(spec)).generate()
+                : new ProxyClassGenerator(helper, getProxyClassInfo(spec), specializedTypes).generate();
 
-            // ---------- 变量赋值 ----------
-            code.loadConstant(localMethodName, methodName);
+        final byte[] dex = helper.getDexMaker().generate();
+        final ClassLoader loader = loadDex(dex);
+        try
+        {
+            final Class<?> classProxy = loader.loadClass(helper.getProxyClassName());
 
-            if (classArgs.length > 0)
+            if (!isLazy)
             {
-                code.loadConstant(localIntTmp, classArgs.length);
-                code.newArray(localArgsClass, localIntTmp);
-                code.newArray(localArgsValue, localIntTmp);
-
-                Class<?> classArg = null;
-                for (int i = 0; i < classArgs.length; i++)
+                final Field fieldMethodInfos = classProxy.getDeclaredField(FProxyInterface.FIELD_NAME_METHODINFOS);
+                fieldMethodInfos.setAccessible(true);
+                fieldMethodInfos.set(null, arrMethodInfo);
+            }
+            if (spec.hasFlag(ProxySpec.FLAG_ADVICE))
+            {
+                final int[] arrMethodId = new int[arrMethodInfo.length];
+                for (int i = 0; i < arrMethodId.length; i++)
                 {
-                    classArg = classArgs[i];
-
-                    code.loadConstant(localIntTmp, i);
-                    code.loadConstant(localClassTmp, classArg);
-                    code.aput(localArgsClass, localIntTmp, localClassTmp);
+                    arrMethodId[i] = arrMethodInfo[i].getId();
+                }
+                setStaticField(classProxy, FProxyInterface.FIELD_NAME_METHODIDS, arrMethodId);
 
-                    if (classArg.isPrimitive())
-                    {
-                        MethodId methodValueOf = helper.getMethodPrimitiveValueOf(classArg);
-                        code.invokeStatic(methodValueOf,
-                                localObjectTmp,
-                                helper.getParameter(code, i, classArg));
+                final ClassAdvice advice = mMapClassAdvice.get(spec.getSuperClass());
+                if (advice != null)
+                {
+                    setClassAdvice(classProxy, advice);
+                }
+            }
+            if (spec.hasFlag(ProxySpec.FLAG_CLASS_BOUND))
+            {
+                final FProxyClassState classState = new FProxyClassState();
+                // 生成之前已经绑定的拦截对象，调用方已经锁住了父类的锁对象
+                classState.mMethodInterceptor = mMapClassInterceptor.get(spec.getSuperClass());
 
-                        code.aput(localArgsValue, localIntTmp, localObjectTmp);
-                    } else
-                    {
-                        code.aput(localArgsValue, localIntTmp, helper.getParameter(code, i, classArg));
-                    }
+                final int sampleRate = mSampleRate;
+                if (sampleRate > 1 && spec.hasFlag(ProxySpec.FLAG_SAMPLED))
+                {
+                    classState.mSampleState = FProxyControl.newSampleState(arrMethodInfo.length, sampleRate);
                 }
-            } else
+                setStaticField(classProxy, FProxyInterface.FIELD_NAME_CLASSSTATE, classState);
+            }
+
+            if (spec.hasFlag(ProxySpec.FLAG_TIERED) && specializedTypes == null)
+            {
+                final Executor executor = mTierExecutor;
+                final FTieredProfile tieredProfile = new FTieredProfile(arrMethodInfo.length, Math.max(1, mTierThreshold),
+                        new FTieredProfile.Callback()
+                        {
+                            @Override
+                            public void onHot(final FTieredProfile profile)
+                            {
+                                executor.execute(new Runnable()
+                                {
+                                    @Override
+                                    public void run()
+                                    {
+                                        promote(spec, profile);
+                                    }
+                                });
+                            }
+                        });
+                setStaticField(classProxy, FProxyInterface.FIELD_NAME_TIEREDPROFILE, tieredProfile);
+            }
+            if (!isLazy)
             {
-                code.loadConstant(localArgsClass, null);
-                code.loadConstant(localArgsValue, null);
+                // 静态属性都设置之后再创建，绑定到class的话要读取共享的状态
+                ProxyStateAccess.attach(classProxy);
             }
 
-            // 调用拦截对象
-            code.invokeStatic(methodNotifyInterceptor,
-                    isReturnVoid ? null : localReturnInterceptor,
-                    localMethodName, localArgsClass, localArgsValue, helper.getThis(code));
+            mListReport.add(new FProxyClassReport(spec.getSuperClass(), spec.hasFlag(ProxySpec.FLAG_COMPACT),
+                    arrMethodInfo.length, helper.getDeclaredMethodCount(), dex.length,
+                    (System.nanoTime() - startTime) / 1000000));
+            return classProxy;
+        } catch (Exception e)
+        {
+            throw new FProxyException(e);
+        }
+    }
 
-            if (isReturnVoid)
+    /**
+     * 生成特化的代理class，只特化调用次数达到阈值并且拦截对象class固定的方法，没有可以特化的方法的话推迟到下次再检查
+     */
+    private void promote(ProxySpec spec, FTieredProfile profile)
+    {
+        synchronized (getClassLock(spec.getSuperClass()))
+        {
+            if (mMapSpecializedClass.containsKey(spec))
             {
-                code.returnVoid();
-            } else
+                return;
+            }
+
+            final FMethodInfo[] arrMethodInfo = getProxyClassInfo(spec).getMethods();
+            final Class<?>[] arrType = new Class<?>[arrMethodInfo.length];
+            boolean hasSpecialized = false;
+            for (int i = 0; i < arrMethodInfo.length; i++)
             {
-                if (classReturn.isPrimitive())
+                if (profile.getCount(i) < profile.getThreshold())
                 {
-                    Label ifNull = new Label();
-                    code.loadConstant(localReturnPack, null);
-                    code.compare(Comparison.EQ, ifNull, localReturnInterceptor, localReturnPack);
-
-                    code.cast(localReturnPack, localReturnInterceptor);
-                    MethodId methodPrimitiveValue = helper.getMethodPrimitiveValue(classReturn);
-                    code.invokeVirtual(methodPrimitiveValue, localReturn, localReturnPack);
-                    code.returnValue(localReturn);
-
-                    code.mark(ifNull);
-                    code.loadConstant(localReturn, 0);
-                    code.returnValue(localReturn);
-                } else
+                    continue;
+                }
+                final Class<?> type = profile.getMonomorphicType(i);
+                if (type != null && isSpecializable(type))
                 {
-                    code.cast(localReturn, localReturnInterceptor);
-                    code.returnValue(localReturn);
+                    arrType[i] = type;
+                    hasSpecialized = true;
                 }
             }
 
-            // 创建调用父类的方法
-            methodNameSuper = methodName + FProxyInterface.PROXY_CLASS_INVOKE_SUPER_METHOD_SUFFIX;
-            code = helper.declareMethod(Modifier.PUBLIC, classReturn, methodNameSuper, classArgs);
-
-            localReturn = helper.newLocal(code, classReturn);
-            Local[] localArgsValueSuper = null;
+            if (!hasSpecialized)
+            {
+                profile.postpone();
+                return;
+            }
 
-            MethodId methodSuper = helper.getMethod(helper.getSuperClass(), classReturn, methodName, classArgs);
+            final Class<?> classSpecialized;
+            try
+            {
+                classSpecialized = generateProxyClass(spec, arrType);
+            } catch (Exception e)
+            {
+                // 特化失败的话继续使用统计调用次数的代理class
+                profile.postpone();
+                return;
+            }
 
-            if (classArgs.length > 0)
+            for (int i = 0; i < arrType.length; i++)
             {
-                localArgsValueSuper = new Local[classArgs.length];
-                for (int i = 0; i < classArgs.length; i++)
+                if (arrType[i] != null)
                 {
-                    localArgsValueSuper[i] = helper.getParameter(code, i, classArgs[i]);
+                    mListPromotion.add(new FTieredPromotion(spec.getSuperClass(), arrMethodInfo[i], arrType[i], profile.getCount(i)));
                 }
+            }
+            mMapSpecializedClass.put(spec, classSpecialized);
+        }
+    }
 
-                code.invokeSuper(methodSuper, isReturnVoid ? null : localReturn, helper.getThis(code),
-                        localArgsValueSuper);
-            } else
+    /**
+     * 拦截对象class是否可以被代理class直接调用
+     */
+    private boolean isSpecializable(Class<?> type)
+    {
+        if (!Modifier.isPublic(type.getModifiers()) || Proxy.isProxyClass(type))
+        {
+            return false;
+        }
+        try
+        {
+            return Class.forName(type.getName(), false, getClass().getClassLoader()) == type;
+        } catch (ClassNotFoundException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * 加载生成的dex
+     *
+     * @param dex
+     * @return
+     */
+    private ClassLoader loadDex(byte[] dex)
+    {
+        final ClassLoader parent = getClass().getClassLoader();
+        if (mLoadInMemory && isLoadInMemorySupported())
+        {
+            // 直接从内存加载，不写文件
+            return InMemoryLoader.load(dex, parent);
+        }
+
+        // 相同内容的dex只保存一次，文件名是内容的SHA-256，已经存在的文件内容一定相同，可以直接加载
+        final File dir = getDexDir();
+        final File file = new File(dir, "Generated_" + sha256Hex(dex) + ".jar");
+        try
+        {
+            if (!file.exists())
             {
-                code.invokeSuper(methodSuper, isReturnVoid ? null : localReturn, helper.getThis(code));
+                writeDexJar(file, dex);
             }
+        } catch (IOException e)
+        {
+            throw new FProxyException(e);
+        }
+        return new DexClassLoader(file.getPath(), dir.getAbsolutePath(), null, parent);
+    }
 
-            if (isReturnVoid)
-            {
-                code.returnVoid();
-            } else
+    /**
+     * 返回数据的SHA-256十六进制字符串
+     */
+    private static String sha256Hex(byte[] data)
+    {
+        final byte[] digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e)
+        {
+            throw new FProxyException(e);
+        }
+
+        final char[] arrHex = "0123456789abcdef".toCharArray();
+        final char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++)
+        {
+            chars[i * 2] = arrHex[(digest[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = arrHex[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 把dex保存为jar文件，先写临时文件再重命名，避免其他线程加载到没写完的文件
+     */
+    private static void writeDexJar(File file, byte[] dex) throws IOException
+    {
+        final File fileTmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        final JarOutputStream jar = new JarOutputStream(new FileOutputStream(fileTmp));
+        try
+        {
+            final JarEntry entry = new JarEntry("classes.dex");
+            entry.setSize(dex.length);
+            jar.putNextEntry(entry);
+            jar.write(dex);
+            jar.closeEntry();
+        } finally
+        {
+            jar.close();
+        }
+
+        // 高版本系统要求加载的dex文件是只读的
+        fileTmp.setReadOnly();
+        if (!fileTmp.renameTo(file))
+        {
+            fileTmp.delete();
+            if (!file.exists())
             {
-                code.returnValue(localReturn);
+                throw new IOException("rename dex file failed:" + file);
             }
         }
     }
 
+    /**
+     * 单独放在一个类中，低版本系统不会加载到InMemoryDexClassLoader
+     */
+    private static final class InMemoryLoader
+    {
+        public static ClassLoader load(byte[] dex, ClassLoader parent)
+        {
+            return new InMemoryDexClassLoader(ByteBuffer.wrap(dex), parent);
+        }
+    }
+
+    /**
+     * 单独放在一个类中，不使用延迟代理的话不会加载objenesis
+     */
+    private static final class LazyInstantiator
+    {
+        private static final Objenesis OBJENESIS = new ObjenesisStd(true);
+
+        public static Object newInstance(Class<?> clazz)
+        {
+            return OBJENESIS.newInstance(clazz);
+        }
+    }
+
     private static boolean deleteFileOrDir(File path)
     {
         if (path == null || !path.exists())
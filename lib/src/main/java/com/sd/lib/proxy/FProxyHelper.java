@@ -1,6 +1,6 @@
 package com.sd.lib.proxy;
 
-import java.lang.reflect.Method;
+import java.util.Arrays;
 
 /**
  * 这个类的方法为代理对象调用的
@@ -8,43 +8,315 @@ import java.lang.reflect.Method;
 public class FProxyHelper
 {
     public static final String METHOD_NAME_NOTIFYINTERCEPTOR = "notifyInterceptor";
+    public static final String METHOD_NAME_RESOLVELAZYTARGET = "resolveLazyTarget";
+    public static final String METHOD_NAME_OBTAINARGS = "obtainArgs";
+    public static final String METHOD_NAME_RELEASEARGS = "releaseArgs";
+    public static final String METHOD_NAME_NEWINTERCEPTINFO = "newInterceptInfo";
+    public static final String METHOD_NAME_LAZYTOSTRING = "lazyToString";
+
+    private static final ThreadLocal<ArgsFrames> THREAD_ARGS_FRAMES = new ThreadLocal<ArgsFrames>()
+    {
+        @Override
+        protected ArgsFrames initialValue()
+        {
+            return new ArgsFrames();
+        }
+    };
 
     /**
      * 通知方法拦截对象
      *
-     * @param methodName 方法名称
-     * @param argsClass  参数class
-     * @param argsValue  参数值
-     * @param proxy      代理对象
+     * @param methodInfo  方法信息
+     * @param methodIndex 方法在代理class中的下标
+     * @param argsValue   参数值
+     * @param proxy       代理对象
      * @return 返回拦截对象的返回值
      */
-    public static Object notifyInterceptor(String methodName, Class[] argsClass, Object[] argsValue,
+    public static Object notifyInterceptor(FMethodInfo methodInfo, int methodIndex, Object[] argsValue,
                                            Object proxy)
     {
-        FInterceptInfo info = new FInterceptInfo(proxy, methodName, argsClass);
-
         FProxyInterface proxyInterface = (FProxyInterface) proxy;
         FMethodInterceptor methodInterceptor = proxyInterface.getMethodInterceptor$FProxy$();
         if (methodInterceptor != null)
         {
+            FInterceptInfo info = new FInterceptInfo(proxy, methodInfo, methodIndex);
             return methodInterceptor.intercept(info, argsValue);
         } else
         {
-            return executeSuperMethod(methodName, argsClass, argsValue, proxy);
+            if (proxy instanceof FProxySuperInvoker)
+            {
+                return ((FProxySuperInvoker) proxy).invokeSuper$FProxy$(methodIndex, argsValue);
+            }
+            return executeSuperMethod(methodInfo, methodIndex, argsValue, proxy);
         }
     }
 
-    public static Object executeSuperMethod(String methodName, Class[] argsClass, Object[] argsValue,
+    /**
+     * 创建拦截信息，分层模式下特化的代码直接调用拦截对象之前调用
+     *
+     * @param methodInfo  方法信息
+     * @param methodIndex 方法在代理class中的下标
+     * @param proxy       代理对象
+     * @return
+     */
+    public static FInterceptInfo newInterceptInfo(FMethodInfo methodInfo, int methodIndex, Object proxy)
+    {
+        return new FInterceptInfo(proxy, methodInfo, methodIndex);
+    }
+
+    public static Object executeSuperMethod(FMethodInfo methodInfo, Object[] argsValue,
                                             Object proxy)
+    {
+        return executeSuperMethod(methodInfo, -1, argsValue, proxy);
+    }
+
+    /**
+     * 调用代理对象父类的方法
+     *
+     * @param methodInfo  方法信息
+     * @param methodIndex 方法在代理class中的下标，未知的话传-1
+     * @param argsValue   参数值
+     * @param proxy       代理对象
+     * @return
+     */
+    static Object executeSuperMethod(FMethodInfo methodInfo, int methodIndex, Object[] argsValue,
+                                     Object proxy)
     {
         try
         {
-            Method methodSuper = proxy.getClass().getDeclaredMethod(methodName + FProxyInterface.PROXY_CLASS_INVOKE_SUPER_METHOD_SUFFIX,
-                    argsClass);
-            return methodSuper.invoke(proxy, argsValue);
+            return ProxyStateAccess.get(proxy.getClass()).getSuperMethod(methodInfo, methodIndex).invoke(proxy, argsValue);
         } catch (Exception e)
         {
             throw new FProxyException(e);
         }
     }
+
+    /**
+     * 返回延迟代理真正的对象，还没创建的话调用提供者创建，多个线程同时调用只会创建一次<br>
+     * 创建的时候锁住{@link LazyResolver}私有的锁对象，不锁住代理对象
+     *
+     * @param proxy 延迟代理对象
+     * @return
+     */
+    public static Object resolveLazyTarget(Object proxy)
+    {
+        final FLazyProxyInterface lazyProxy = (FLazyProxyInterface) proxy;
+        Object target = lazyProxy.getLazyTarget$FProxy$();
+        if (target != null)
+        {
+            return target;
+        }
+
+        final FSupplier<?> supplier = lazyProxy.getLazySupplier$FProxy$();
+        if (supplier instanceof LazyResolver)
+        {
+            return ((LazyResolver) supplier).resolve(lazyProxy);
+        }
+
+        // 创建之后先设置真正的对象再清空提供者，这里一定能读到真正的对象
+        target = lazyProxy.getLazyTarget$FProxy$();
+        if (target == null)
+        {
+            throw new FProxyException("lazy proxy has no supplier:" + proxy.getClass().getSuperclass());
+        }
+        return target;
+    }
+
+    /**
+     * 返回延迟代理对象的toString()，不转发给真正的对象
+     *
+     * @param proxy 延迟代理对象
+     * @return
+     */
+    public static String lazyToString(Object proxy)
+    {
+        return lazyToString(proxy.getClass().getSuperclass(), proxy);
+    }
+
+    /**
+     * 返回延迟代理对象的toString()，格式和Object.toString()一样，class名称是被代理的class
+     */
+    static String lazyToString(Class<?> clazz, Object proxy)
+    {
+        return clazz.getName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+    }
+
+    /**
+     * 从当前线程借用一个参数数组，用完之后要调用{@link #releaseArgs(Object[])}归还
+     *
+     * @param length 参数数量
+     * @return
+     */
+    public static Object[] obtainArgs(int length)
+    {
+        return THREAD_ARGS_FRAMES.get().obtain(length);
+    }
+
+    /**
+     * 清空并归还参数数组，必须按借用的相反顺序归还
+     *
+     * @param args {@link #obtainArgs(int)}返回的参数数组
+     */
+    public static void releaseArgs(Object[] args)
+    {
+        THREAD_ARGS_FRAMES.get().release(args);
+    }
+
+    /**
+     * 参数数组是否是当前线程借用的数组，借用的数组在调用返回之后会被清空，要保存的话必须复制
+     *
+     * @param args 参数数组
+     * @return
+     */
+    static boolean isBorrowedArgs(Object[] args)
+    {
+        return args != null && THREAD_ARGS_FRAMES.get().isBorrowed(args);
+    }
+
+    /**
+     * 延迟代理保存的提供者，包装外部的提供者，创建真正对象的时候锁住自己私有的锁对象
+     */
+    static final class LazyResolver implements FSupplier<Object>
+    {
+        private final FSupplier<?> mSupplier;
+        private final Object mLock = new Object();
+        private boolean mResolving;
+
+        public LazyResolver(FSupplier<?> supplier)
+        {
+            mSupplier = supplier;
+        }
+
+        @Override
+        public Object get()
+        {
+            return mSupplier.get();
+        }
+
+        public Object resolve(FLazyProxyInterface lazyProxy)
+        {
+            synchronized (mLock)
+            {
+                Object target = lazyProxy.getLazyTarget$FProxy$();
+                if (target != null)
+                {
+                    return target;
+                }
+
+                final Class<?> classTarget = lazyProxy.getClass().getSuperclass();
+                if (mResolving)
+                {
+                    // 提供者创建对象的时候又调用了代理对象的方法
+                    throw new FProxyException("lazy target is being created recursively:" + classTarget);
+                }
+
+                // 创建失败的话下次调用的时候重试
+                mResolving = true;
+                try
+                {
+                    target = mSupplier.get();
+                } finally
+                {
+                    mResolving = false;
+                }
+
+                if (!classTarget.isInstance(target))
+                {
+                    throw new FProxyException("lazy target must be an instance of " + classTarget + " but was:" + target);
+                }
+
+                lazyProxy.setLazyTarget$FProxy$(target);
+                // 不再持有外部的提供者
+                lazyProxy.setLazySupplier$FProxy$(null);
+                return target;
+            }
+        }
+    }
+
+    /**
+     * 某个线程的参数数组，按参数数量分开保存，每种参数数量是一个栈，嵌套调用的时候借用栈中的下一个数组
+     */
+    private static final class ArgsFrames
+    {
+        /**
+         * 参数数量超过这个值的话不复用
+         */
+        private static final int MAX_LENGTH = 16;
+        /**
+         * 嵌套深度超过这个值的话不复用
+         */
+        private static final int MAX_DEPTH = 64;
+
+        private final Object[][][] mStacks = new Object[MAX_LENGTH + 1][][];
+        private final int[] mDepths = new int[MAX_LENGTH + 1];
+
+        public Object[] obtain(int length)
+        {
+            if (length > MAX_LENGTH)
+            {
+                return new Object[length];
+            }
+
+            final int depth = mDepths[length];
+            Object[][] stack = mStacks[length];
+            if (stack == null)
+            {
+                stack = new Object[4][];
+                mStacks[length] = stack;
+            } else if (depth >= stack.length)
+            {
+                if (depth >= MAX_DEPTH)
+                {
+                    return new Object[length];
+                }
+                stack = Arrays.copyOf(stack, stack.length * 2);
+                mStacks[length] = stack;
+            }
+
+            Object[] args = stack[depth];
+            if (args == null)
+            {
+                args = new Object[length];
+                stack[depth] = args;
+            }
+            mDepths[length] = depth + 1;
+            return args;
+        }
+
+        public boolean isBorrowed(Object[] args)
+        {
+            final int length = args.length;
+            if (length > MAX_LENGTH)
+            {
+                return false;
+            }
+
+            final Object[][] stack = mStacks[length];
+            for (int i = mDepths[length] - 1; i >= 0; i--)
+            {
+                if (stack[i] == args)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void release(Object[] args)
+        {
+            final int length = args.length;
+            if (length > MAX_LENGTH)
+            {
+                return;
+            }
+
+            final int depth = mDepths[length];
+            // 不是借用的数组（超过深度新创建的）不处理
+            if (depth > 0 && mStacks[length][depth - 1] == args)
+            {
+                Arrays.fill(args, null);
+                mDepths[length] = depth - 1;
+            }
+        }
+    }
 }
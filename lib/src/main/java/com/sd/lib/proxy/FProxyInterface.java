@@ -18,6 +18,38 @@ public interface FProxyInterface
      * 属性：拦截对象
      */
     String FIELD_NAME_METHODINTERCEPTOR = "mMethodInterceptor";
+    /**
+     * 属性：禁止拦截的方法标识，按方法下标对应的位，为1表示禁止拦截
+     */
+    String FIELD_NAME_INTERCEPTFLAGS = "mInterceptFlags";
+    /**
+     * 静态属性：所有对象共享的状态{@link FProxyClassState}，绑定到class的模式下使用
+     */
+    String FIELD_NAME_CLASSSTATE = "sClassState";
+    /**
+     * 静态属性：调用父类方法之前的回调，带advice的代理class使用
+     */
+    String FIELD_NAME_BEFOREADVICE = "sBeforeAdvice";
+    /**
+     * 静态属性：调用父类方法之后的回调，带advice的代理class使用
+     */
+    String FIELD_NAME_AFTERADVICE = "sAfterAdvice";
+    /**
+     * 静态属性：方法id数组，下标和生成的方法一一对应，带advice的代理class使用
+     */
+    String FIELD_NAME_METHODIDS = "sMethodIds";
+    /**
+     * 静态属性：分层模式下的调用统计
+     */
+    String FIELD_NAME_TIEREDPROFILE = "sTieredProfile";
+    /**
+     * 静态属性：被拦截的方法信息数组，下标和生成的方法一一对应
+     */
+    String FIELD_NAME_METHODINFOS = "sMethodInfos";
+    /**
+     * 静态属性：读写代理对象状态的对象，类型声明为Object
+     */
+    String FIELD_NAME_STATEACCESS = "sStateAccess";
     /**
      * 方法：设置拦截对象
      */
@@ -26,9 +58,17 @@ public interface FProxyInterface
      * 方法：返回拦截对象
      */
     String METHOD_NAME_GETMETHODINTERCEPTOR = "getMethodInterceptor" + PROXY_CLASS_SUFFIX;
+    /**
+     * 方法：设置禁止拦截的方法标识
+     */
+    String METHOD_NAME_SETINTERCEPTFLAGS = "setInterceptFlags" + PROXY_CLASS_SUFFIX;
+    /**
+     * 方法：返回禁止拦截的方法标识
+     */
+    String METHOD_NAME_GETINTERCEPTFLAGS = "getInterceptFlags" + PROXY_CLASS_SUFFIX;
 
     /**
-     * 设置拦截对象
+     * 设置拦截对象，绑定到class的模式下会修改这个代理class所有对象的拦截对象
      *
      * @param interceptor
      */
@@ -40,4 +80,19 @@ public interface FProxyInterface
      * @return
      */
     FMethodInterceptor getMethodInterceptor$FProxy$();
+
+    /**
+     * 设置禁止拦截的方法标识，数组不能被修改，要修改的话创建新的数组再设置<br>
+     * 绑定到class的模式下会修改这个代理class所有对象的标识
+     *
+     * @param flags
+     */
+    void setInterceptFlags$FProxy$(long[] flags);
+
+    /**
+     * 返回禁止拦截的方法标识
+     *
+     * @return
+     */
+    long[] getInterceptFlags$FProxy$();
 }
@@ -0,0 +1,319 @@
+package com.sd.lib.proxy;
+
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 代理对象池
+ * <p>
+ * 同一个class的代理对象用完之后归还到池中，下次{@link #acquire(FMethodInterceptor)}的时候只替换拦截对象，
+ * 不再调用构造方法创建新的代理对象；池的容量是固定的，获取和归还都是无锁的<br>
+ * 只能归还这个池创建的代理class的对象，绑定到class的代理对象和其他工厂创建的代理对象会被拒绝
+ *
+ * @param <T> 要创建代理的class类型
+ */
+public class FProxyPool<T>
+{
+    private final FProxyFactory mFactory;
+    private final Class<T> mClass;
+    private final Class[] mArgsClass;
+    private final Object[] mArgs;
+
+    private final AtomicReferenceArray<T> mSlots;
+    private volatile ResetHook<? super T> mResetHook;
+
+    /**
+     * 这个池创建过的代理class，分层模式特化之后会有多个
+     */
+    private final CopyOnWriteArraySet<Class<?>> mProxyClasses = new CopyOnWriteArraySet<>();
+    /**
+     * 新创建的代理对象的采样状态，归还的时候恢复为这个状态
+     */
+    private volatile int[] mSampleStateTemplate;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    /**
+     * @param factory 用来创建代理对象的工厂
+     * @param clazz   要创建代理的class，不能是接口
+     * @param maxSize 池中最多保存多少个代理对象
+     */
+    public FProxyPool(FProxyFactory factory, Class<T> clazz, int maxSize)
+    {
+        this(factory, clazz, null, null, maxSize);
+    }
+
+    /**
+     * @param factory   用来创建代理对象的工厂
+     * @param clazz     要创建代理的class，不能是接口
+     * @param argsClass 创建代理对象要调用的构造方法参数class
+     * @param args      创建代理对象要调用的构造方法参数
+     * @param maxSize   池中最多保存多少个代理对象
+     */
+    public FProxyPool(FProxyFactory factory, Class<T> clazz, Class[] argsClass, Object[] args, int maxSize)
+    {
+        if (factory == null)
+        {
+            throw new NullPointerException("factory is null");
+        }
+        if (clazz.isInterface())
+        {
+            throw new FProxyException("FProxyPool clazz must not be interface");
+        }
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException("maxSize must be > 0");
+        }
+        mFactory = factory;
+        mClass = clazz;
+        mArgsClass = argsClass;
+        mArgs = args;
+        mSlots = new AtomicReferenceArray<>(maxSize);
+    }
+
+    /**
+     * 设置代理对象归还到池中的时候的回调，用来清空代理对象自己的状态
+     *
+     * @param resetHook
+     */
+    public void setResetHook(ResetHook<? super T> resetHook)
+    {
+        mResetHook = resetHook;
+    }
+
+    /**
+     * 获取一个代理对象，池中没有的话创建一个新的
+     *
+     * @param methodInterceptor 方法拦截回调对象
+     * @return
+     */
+    public T acquire(FMethodInterceptor methodInterceptor)
+    {
+        if (methodInterceptor == null)
+        {
+            throw new FProxyException("methodInterceptor must not be null");
+        }
+
+        final int length = mSlots.length();
+        final int start = startIndex(length);
+        for (int i = 0; i < length; i++)
+        {
+            final int index = (start + i) % length;
+            final T proxy = mSlots.get(index);
+            if (proxy != null && mSlots.compareAndSet(index, proxy, null))
+            {
+                mHitCount.incrementAndGet();
+                ((FProxyInterface) proxy).setMethodInterceptor$FProxy$(methodInterceptor);
+                return proxy;
+            }
+        }
+
+        mMissCount.incrementAndGet();
+        final T proxy = createProxy(methodInterceptor);
+        final Class<?> classProxy = proxy.getClass();
+        if (!mProxyClasses.contains(classProxy))
+        {
+            mProxyClasses.add(classProxy);
+        }
+        if (proxy instanceof FSampledProxyInterface)
+        {
+            final int[] state = ((FSampledProxyInterface) proxy).getSampleState$FProxy$();
+            mSampleStateTemplate = state == null ? null : state.clone();
+        }
+        return proxy;
+    }
+
+    /**
+     * 创建新的代理对象
+     */
+    T createProxy(FMethodInterceptor methodInterceptor)
+    {
+        return mFactory.newProxy(mClass, mArgsClass, mArgs, methodInterceptor);
+    }
+
+    /**
+     * 归还代理对象，会清空拦截对象和禁止拦截的标识，采样状态恢复为新创建的时候的状态，然后回调{@link ResetHook}；
+     * 池已经满了的话丢弃这个代理对象<br>
+     * 归还之后不能再使用这个代理对象，同一个代理对象也不能归还多次
+     *
+     * @param proxy 通过{@link #acquire(FMethodInterceptor)}获取的代理对象
+     * @return true-保存到池中，false-池已经满了
+     * @throws FProxyException 代理对象不是这个池创建的代理class的对象
+     */
+    public boolean release(T proxy)
+    {
+        if (proxy == null || !mProxyClasses.contains(proxy.getClass()))
+        {
+            throw new FProxyException(proxy + " is not a proxy created by " + this);
+        }
+
+        final FProxyInterface proxyInterface = (FProxyInterface) proxy;
+        proxyInterface.setMethodInterceptor$FProxy$(null);
+        proxyInterface.setInterceptFlags$FProxy$(null);
+        if (proxy instanceof FSampledProxyInterface)
+        {
+            resetSampleState((FSampledProxyInterface) proxy);
+        }
+
+        final ResetHook<? super T> resetHook = mResetHook;
+        if (resetHook != null)
+        {
+            resetHook.reset(proxy);
+        }
+
+        final int length = mSlots.length();
+        final int start = startIndex(length);
+        for (int i = 0; i < length; i++)
+        {
+            final int index = (start + i) % length;
+            if (mSlots.get(index) == null && mSlots.compareAndSet(index, null, proxy))
+            {
+                return true;
+            }
+        }
+
+        mDroppedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 恢复采样状态，采样间隔没有被修改过的话不创建新的状态
+     */
+    private void resetSampleState(FSampledProxyInterface proxy)
+    {
+        final int[] template = mSampleStateTemplate;
+        final int[] state = proxy.getSampleState$FProxy$();
+        if (template == null)
+        {
+            if (state != null)
+            {
+                proxy.setSampleState$FProxy$(null);
+            }
+        } else if (state == null || !isSameSampleRate(state, template))
+        {
+            proxy.setSampleState$FProxy$(template.clone());
+        }
+    }
+
+    private static boolean isSameSampleRate(int[] state, int[] template)
+    {
+        if (state.length != template.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < state.length; i += 2)
+        {
+            if (state[i] != template[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 清空池中的代理对象
+     */
+    public void clear()
+    {
+        for (int i = 0; i < mSlots.length(); i++)
+        {
+            mSlots.set(i, null);
+        }
+    }
+
+    /**
+     * 不同线程从不同的位置开始查找，减少竞争
+     */
+    private static int startIndex(int length)
+    {
+        return (int) (Thread.currentThread().getId() % length);
+    }
+
+    /**
+     * 返回池中空闲的代理对象数量
+     *
+     * @return
+     */
+    public int getIdleCount()
+    {
+        int count = 0;
+        for (int i = 0; i < mSlots.length(); i++)
+        {
+            if (mSlots.get(i) != null)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 返回从池中获取到代理对象的次数，也就是少创建的代理对象数量
+     *
+     * @return
+     */
+    public long getHitCount()
+    {
+        return mHitCount.get();
+    }
+
+    /**
+     * 返回池中没有代理对象，新创建代理对象的次数
+     *
+     * @return
+     */
+    public long getMissCount()
+    {
+        return mMissCount.get();
+    }
+
+    /**
+     * 返回归还的时候池已经满了，被丢弃的代理对象数量
+     *
+     * @return
+     */
+    public long getDroppedCount()
+    {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * 返回从池中获取到代理对象的比例，还没有获取过的话返回0
+     *
+     * @return
+     */
+    public float getHitRate()
+    {
+        final long hit = mHitCount.get();
+        final long total = hit + mMissCount.get();
+        return total <= 0 ? 0 : (float) hit / total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + "(" + mClass.getName()
+                + " idle:" + getIdleCount()
+                + " hit:" + getHitCount()
+                + " miss:" + getMissCount()
+                + " dropped:" + getDroppedCount()
+                + ")";
+    }
+
+    /**
+     * 代理对象归还到池中的回调
+     */
+    public interface ResetHook<T>
+    {
+        /**
+         * 清空代理对象自己的状态，回调的时候拦截对象已经被清空
+         *
+         * @param proxy
+         */
+        void reset(T proxy);
+    }
+}
@@ -0,0 +1,21 @@
+package com.sd.lib.proxy;
+
+/**
+ * 紧凑模式生成的代理class要实现的接口，按方法下标调用父类的方法
+ */
+public interface FProxySuperInvoker
+{
+    /**
+     * 方法：按方法下标调用父类的方法
+     */
+    String METHOD_NAME_INVOKESUPER = "invokeSuper" + FProxyInterface.PROXY_CLASS_SUFFIX;
+
+    /**
+     * 调用父类的方法，父类方法抛出的异常会直接抛出
+     *
+     * @param methodIndex 方法在代理class中的下标
+     * @param args        参数
+     * @return 父类方法的返回值，基本类型会被包装，void返回null
+     */
+    Object invokeSuper$FProxy$(int methodIndex, Object[] args);
+}
@@ -0,0 +1,37 @@
+package com.sd.lib.proxy;
+
+/**
+ * 支持采样拦截的代理class要实现的接口
+ * <p>
+ * 采样状态是一个int数组，下标methodIndex * 2保存方法的采样间隔，methodIndex * 2 + 1保存方法的计数，
+ * 采样间隔小于等于1的方法每次都调用拦截对象
+ */
+public interface FSampledProxyInterface
+{
+    /**
+     * 属性：采样状态
+     */
+    String FIELD_NAME_SAMPLESTATE = "mSampleState";
+    /**
+     * 方法：设置采样状态
+     */
+    String METHOD_NAME_SETSAMPLESTATE = "setSampleState" + FProxyInterface.PROXY_CLASS_SUFFIX;
+    /**
+     * 方法：返回采样状态
+     */
+    String METHOD_NAME_GETSAMPLESTATE = "getSampleState" + FProxyInterface.PROXY_CLASS_SUFFIX;
+
+    /**
+     * 设置采样状态，为null的话所有方法每次都调用拦截对象
+     *
+     * @param state
+     */
+    void setSampleState$FProxy$(int[] state);
+
+    /**
+     * 返回采样状态
+     *
+     * @return
+     */
+    int[] getSampleState$FProxy$();
+}
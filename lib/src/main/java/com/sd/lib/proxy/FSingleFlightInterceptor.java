@@ -0,0 +1,180 @@
+package com.sd.lib.proxy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并并发重复调用的拦截对象
+ * <p>
+ * 多个线程同时用相同的参数调用同一个代理对象的同一个方法的时候，只有第一个线程真正执行，
+ * 其他线程等待并共享它的返回值或者异常；调用结束之后不保存任何结果<br>
+ * 代理对象按引用区分，同一个拦截对象给多个代理对象使用的时候，不同代理对象的调用不会合并
+ */
+public class FSingleFlightInterceptor implements FMethodInterceptor
+{
+    private final ConcurrentHashMap<Object, Flight> mMapFlight = new ConcurrentHashMap<>();
+    private final FMethodInterceptor mInterceptor;
+
+    private final AtomicLong mExecuteCount = new AtomicLong();
+    private final AtomicLong mShareCount = new AtomicLong();
+
+    public FSingleFlightInterceptor()
+    {
+        this(null);
+    }
+
+    /**
+     * @param interceptor 真正执行的时候要调用的拦截对象，为null的话调用父类的方法
+     */
+    public FSingleFlightInterceptor(FMethodInterceptor interceptor)
+    {
+        mInterceptor = interceptor;
+    }
+
+    /**
+     * 方法是否要合并并发调用，默认有返回值的方法都合并
+     *
+     * @param info
+     * @return
+     */
+    protected boolean isShareable(FInterceptInfo info)
+    {
+        return info.getMethodInfo().getReturnType() != void.class;
+    }
+
+    @Override
+    public Object intercept(FInterceptInfo info, Object[] args)
+    {
+        if (!isShareable(info))
+        {
+            return invoke(info, args);
+        }
+
+        final MethodKey key = MethodKey.obtain(info.getProxy(), info.getMethodInfo(), args);
+        Flight flight = mMapFlight.get(key);
+        if (flight == null)
+        {
+            final Flight newFlight = new Flight(MethodKey.stable(key));
+            flight = mMapFlight.putIfAbsent(newFlight.mKey, newFlight);
+            if (flight == null)
+            {
+                return execute(newFlight, info, args);
+            }
+        }
+
+        if (flight.mThread == Thread.currentThread())
+        {
+            // 同一个线程重入，直接执行，避免等待自己
+            return invoke(info, args);
+        }
+
+        mShareCount.incrementAndGet();
+        return flight.await();
+    }
+
+    private Object execute(Flight flight, FInterceptInfo info, Object[] args)
+    {
+        mExecuteCount.incrementAndGet();
+        try
+        {
+            final Object result = invoke(info, args);
+            flight.mResult = result;
+            return result;
+        } catch (RuntimeException | Error e)
+        {
+            flight.mError = e;
+            throw e;
+        } finally
+        {
+            mMapFlight.remove(flight.mKey, flight);
+            flight.mLatch.countDown();
+        }
+    }
+
+    private Object invoke(FInterceptInfo info, Object[] args)
+    {
+        if (mInterceptor != null)
+        {
+            return mInterceptor.intercept(info, args);
+        } else
+        {
+            return info.invokeSuper(args);
+        }
+    }
+
+    /**
+     * 返回真正执行的次数
+     *
+     * @return
+     */
+    public long getExecuteCount()
+    {
+        return mExecuteCount.get();
+    }
+
+    /**
+     * 返回共享了其他线程执行结果的次数
+     *
+     * @return
+     */
+    public long getShareCount()
+    {
+        return mShareCount.get();
+    }
+
+    /**
+     * 返回正在执行的调用数量
+     *
+     * @return
+     */
+    public int getInFlightCount()
+    {
+        return mMapFlight.size();
+    }
+
+    private static final class Flight
+    {
+        private final Object mKey;
+        private final Thread mThread = Thread.currentThread();
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+
+        private Object mResult;
+        private Throwable mError;
+
+        public Flight(Object key)
+        {
+            mKey = key;
+        }
+
+        public Object await()
+        {
+            boolean interrupted = false;
+            while (true)
+            {
+                try
+                {
+                    mLatch.await();
+                    break;
+                } catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            final Throwable error = mError;
+            if (error instanceof RuntimeException)
+            {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error)
+            {
+                throw (Error) error;
+            }
+            return mResult;
+        }
+    }
+}
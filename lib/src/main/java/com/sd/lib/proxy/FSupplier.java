@@ -0,0 +1,16 @@
+package com.sd.lib.proxy;
+
+/**
+ * 提供对象
+ *
+ * @param <T> 对象类型
+ */
+public interface FSupplier<T>
+{
+    /**
+     * 返回对象
+     *
+     * @return
+     */
+    T get();
+}
@@ -0,0 +1,112 @@
+package com.sd.lib.proxy;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 分层模式下代理class的调用统计，记录每个方法的调用次数和拦截对象的class，这个类的方法为代理对象调用的
+ * <p>
+ * 计数和记录class都没有加锁，多个线程同时调用的时候是近似的；特化的代码会再检查拦截对象的类型，
+ * 所以统计不准确只影响性能，不影响结果
+ */
+public final class FTieredProfile
+{
+    public static final String METHOD_NAME_RECORD = "record";
+
+    /**
+     * 方法被不同class的拦截对象调用过
+     */
+    private static final Class<?> TYPE_MEGAMORPHIC = Void.class;
+
+    private final int mThreshold;
+    private final int[] mCounts;
+    private final Class<?>[] mTypes;
+    private final Callback mCallback;
+
+    private volatile int mCheckThreshold;
+    private final AtomicBoolean mHotNotified = new AtomicBoolean();
+
+    FTieredProfile(int methodCount, int threshold, Callback callback)
+    {
+        mThreshold = threshold;
+        mCounts = new int[methodCount];
+        mTypes = new Class<?>[methodCount];
+        mCallback = callback;
+        mCheckThreshold = threshold;
+    }
+
+    /**
+     * 记录一次调用拦截对象
+     *
+     * @param methodIndex 方法在代理class中的下标
+     * @param interceptor 拦截对象
+     */
+    public void record(int methodIndex, FMethodInterceptor interceptor)
+    {
+        final int count = mCounts[methodIndex] + 1;
+        if (count > 0)
+        {
+            mCounts[methodIndex] = count;
+        }
+
+        if (interceptor != null)
+        {
+            final Class<?> type = interceptor.getClass();
+            final Class<?> seen = mTypes[methodIndex];
+            if (seen == null)
+            {
+                mTypes[methodIndex] = type;
+            } else if (seen != type && seen != TYPE_MEGAMORPHIC)
+            {
+                mTypes[methodIndex] = TYPE_MEGAMORPHIC;
+            }
+        }
+
+        if (count >= mCheckThreshold && !mHotNotified.get() && mHotNotified.compareAndSet(false, true))
+        {
+            mCallback.onHot(this);
+        }
+    }
+
+    /**
+     * 返回特化的调用次数阈值
+     */
+    int getThreshold()
+    {
+        return mThreshold;
+    }
+
+    /**
+     * 返回方法的调用次数
+     */
+    int getCount(int methodIndex)
+    {
+        return mCounts[methodIndex];
+    }
+
+    /**
+     * 返回方法的拦截对象的class，没有调用过或者被不同class的拦截对象调用过的话返回null
+     */
+    Class<?> getMonomorphicType(int methodIndex)
+    {
+        final Class<?> type = mTypes[methodIndex];
+        return type == TYPE_MEGAMORPHIC ? null : type;
+    }
+
+    /**
+     * 这次没有可以特化的方法，调用次数达到当前阈值的2倍之后再通知
+     */
+    void postpone()
+    {
+        final int next = mCheckThreshold * 2;
+        mCheckThreshold = next > 0 ? next : Integer.MAX_VALUE;
+        mHotNotified.set(false);
+    }
+
+    interface Callback
+    {
+        /**
+         * 有方法的调用次数达到阈值，只会通知一次，直到调用{@link #postpone()}
+         */
+        void onHot(FTieredProfile profile);
+    }
+}
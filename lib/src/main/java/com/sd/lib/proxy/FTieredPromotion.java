@@ -0,0 +1,69 @@
+package com.sd.lib.proxy;
+
+/**
+ * 分层模式下被特化的方法
+ */
+public final class FTieredPromotion
+{
+    private final Class<?> mProxiedClass;
+    private final FMethodInfo mMethodInfo;
+    private final Class<?> mInterceptorClass;
+    private final int mInvokeCount;
+
+    FTieredPromotion(Class<?> proxiedClass, FMethodInfo methodInfo, Class<?> interceptorClass, int invokeCount)
+    {
+        mProxiedClass = proxiedClass;
+        mMethodInfo = methodInfo;
+        mInterceptorClass = interceptorClass;
+        mInvokeCount = invokeCount;
+    }
+
+    /**
+     * 返回被代理的class
+     *
+     * @return
+     */
+    public Class<?> getProxiedClass()
+    {
+        return mProxiedClass;
+    }
+
+    /**
+     * 返回被特化的方法
+     *
+     * @return
+     */
+    public FMethodInfo getMethodInfo()
+    {
+        return mMethodInfo;
+    }
+
+    /**
+     * 返回特化的代码直接调用的拦截对象class
+     *
+     * @return
+     */
+    public Class<?> getInterceptorClass()
+    {
+        return mInterceptorClass;
+    }
+
+    /**
+     * 返回特化的时候方法的调用次数
+     *
+     * @return
+     */
+    public int getInvokeCount()
+    {
+        return mInvokeCount;
+    }
+
+    @Override
+    public String toString()
+    {
+        return mProxiedClass.getName()
+                + " method:" + mMethodInfo
+                + " interceptor:" + mInterceptorClass.getName()
+                + " count:" + mInvokeCount;
+    }
+}
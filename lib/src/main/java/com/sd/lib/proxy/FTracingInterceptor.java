@@ -0,0 +1,294 @@
+package com.sd.lib.proxy;
+
+import android.os.Process;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 记录方法耗时的拦截对象
+ * <p>
+ * 每个线程有一个预先分配好的环形缓冲区，记录(方法id，开始时间，耗时)，记录的时候不创建对象也不加锁，
+ * 缓冲区满了之后覆盖最早的记录；可以随时调用{@link #dump(File)}导出为Chrome/Perfetto可以打开的trace json
+ * <p>
+ * 缓冲区只弱引用所属的线程，线程结束之后它的记录保留到下一次{@link #dump(File)}或者{@link #clear()}，然后被移除；
+ * 一直不导出的话最多保留{@link #MAX_DEAD_RING_COUNT}个已经结束的线程的缓冲区，更早的被丢弃
+ */
+public class FTracingInterceptor implements FMethodInterceptor
+{
+    /**
+     * 每条记录占用的long数量
+     */
+    private static final int EVENT_SIZE = 3;
+    /**
+     * 最多保留多少个已经结束的线程的缓冲区
+     */
+    public static final int MAX_DEAD_RING_COUNT = 32;
+
+    private final int mCapacity;
+    private final FMethodInterceptor mInterceptor;
+
+    private volatile boolean mEnabled = true;
+    /**
+     * 每次{@link #clear()}加1，缓冲区的版本和这个不一样的话记录已经被清空
+     */
+    private volatile int mClearVersion;
+
+    private final List<Ring> mListRing = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Ring> mThreadRing = new ThreadLocal<Ring>()
+    {
+        @Override
+        protected Ring initialValue()
+        {
+            pruneDeadRings(MAX_DEAD_RING_COUNT);
+            final Ring ring = new Ring(Thread.currentThread(), mCapacity, mClearVersion);
+            mListRing.add(ring);
+            return ring;
+        }
+    };
+
+    /**
+     * @param capacity 每个线程最多保存多少条记录
+     */
+    public FTracingInterceptor(int capacity)
+    {
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity    每个线程最多保存多少条记录
+     * @param interceptor 被记录的拦截对象，为null的话记录父类方法的耗时
+     */
+    public FTracingInterceptor(int capacity, FMethodInterceptor interceptor)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        mCapacity = capacity;
+        mInterceptor = interceptor;
+    }
+
+    /**
+     * 设置是否记录，默认true
+     *
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled)
+    {
+        mEnabled = enabled;
+    }
+
+    @Override
+    public Object intercept(FInterceptInfo info, Object[] args)
+    {
+        if (!mEnabled)
+        {
+            return invoke(info, args);
+        }
+
+        final long start = System.nanoTime();
+        try
+        {
+            return invoke(info, args);
+        } finally
+        {
+            mThreadRing.get().add(info.getMethodInfo().getId(), start, System.nanoTime() - start, mClearVersion);
+        }
+    }
+
+    private Object invoke(FInterceptInfo info, Object[] args)
+    {
+        if (mInterceptor != null)
+        {
+            return mInterceptor.intercept(info, args);
+        } else
+        {
+            return info.invokeSuper(args);
+        }
+    }
+
+    /**
+     * 清空所有线程的记录，并移除已经结束的线程的缓冲区
+     * <p>
+     * 缓冲区的位置只由所属的线程修改，这里只增加版本号，各个线程下一次记录的时候发现版本变化再从头开始写，
+     * 所以不会和正在写入的线程互相覆盖；在此之前{@link #dump(File)}会跳过版本不一致的缓冲区
+     */
+    public void clear()
+    {
+        mClearVersion++;
+        pruneDeadRings(0);
+    }
+
+    /**
+     * 移除已经结束的线程的缓冲区，只保留最近的keepCount个
+     */
+    private void pruneDeadRings(int keepCount)
+    {
+        final List<Ring> listDead = new ArrayList<>();
+        for (Ring item : mListRing)
+        {
+            if (item.isDead())
+            {
+                listDead.add(item);
+            }
+        }
+        if (listDead.size() > keepCount)
+        {
+            // 按添加的顺序，先移除最早的
+            mListRing.removeAll(listDead.subList(0, listDead.size() - keepCount));
+        }
+    }
+
+    /**
+     * 把所有线程的记录导出为Chrome trace json文件，导出之后移除已经结束的线程的缓冲区<br>
+     * 导出的时候其他线程还可以继续记录，正在被覆盖的记录可能不准确
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void dump(File file) throws IOException
+    {
+        final int pid = Process.myPid();
+        final int clearVersion = mClearVersion;
+        final List<Ring> listDead = new ArrayList<>();
+        final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try
+        {
+            writer.write("{\"traceEvents\":[");
+            boolean first = true;
+            for (Ring ring : mListRing)
+            {
+                if (ring.isDead())
+                {
+                    listDead.add(ring);
+                }
+
+                // 线程名称
+                if (!first)
+                {
+                    writer.write(',');
+                }
+                first = false;
+                writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":");
+                writer.write(String.valueOf(pid));
+                writer.write(",\"tid\":");
+                writer.write(String.valueOf(ring.mThreadId));
+                writer.write(",\"args\":{\"name\":");
+                writeString(writer, ring.mThreadName);
+                writer.write("}}");
+
+                // 先读版本再读位置，所属的线程是先重置位置再更新版本的
+                final long position = ring.mVersion == clearVersion ? ring.mPosition.get() : 0;
+                final long begin = Math.max(0, position - mCapacity);
+                for (long i = begin; i < position; i++)
+                {
+                    final int index = (int) (i % mCapacity) * EVENT_SIZE;
+                    final int methodId = (int) ring.mEvents[index];
+                    final long start = ring.mEvents[index + 1];
+                    final long duration = ring.mEvents[index + 2];
+
+                    final FMethodInfo methodInfo = FMethodInfo.get(methodId);
+                    final String name = methodInfo == null ? String.valueOf(methodId)
+                            : methodInfo.getMethod().getDeclaringClass().getSimpleName() + "." + methodInfo.getName();
+
+                    writer.write(",{\"name\":");
+                    writeString(writer, name);
+                    writer.write(",\"cat\":\"proxy\",\"ph\":\"X\",\"ts\":");
+                    writer.write(String.valueOf(start / 1000.0));
+                    writer.write(",\"dur\":");
+                    writer.write(String.valueOf(duration / 1000.0));
+                    writer.write(",\"pid\":");
+                    writer.write(String.valueOf(pid));
+                    writer.write(",\"tid\":");
+                    writer.write(String.valueOf(ring.mThreadId));
+                    writer.write('}');
+                }
+            }
+            writer.write("]}");
+        } finally
+        {
+            writer.close();
+        }
+        mListRing.removeAll(listDead);
+    }
+
+    private static void writeString(BufferedWriter writer, String value) throws IOException
+    {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20)
+            {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else
+            {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    /**
+     * 某个线程的环形缓冲区，只有这个线程会写入
+     */
+    private static final class Ring
+    {
+        private final WeakReference<Thread> mThread;
+        private final long mThreadId;
+        private final String mThreadName;
+        private final int mCapacity;
+        private final long[] mEvents;
+        private final AtomicLong mPosition = new AtomicLong();
+        private volatile int mVersion;
+
+        public Ring(Thread thread, int capacity, int version)
+        {
+            mThread = new WeakReference<>(thread);
+            mThreadId = thread.getId();
+            mThreadName = thread.getName();
+            mCapacity = capacity;
+            mEvents = new long[capacity * EVENT_SIZE];
+            mVersion = version;
+        }
+
+        /**
+         * 所属的线程是否已经结束
+         */
+        public boolean isDead()
+        {
+            final Thread thread = mThread.get();
+            return thread == null || !thread.isAlive();
+        }
+
+        public void add(int methodId, long start, long duration, int version)
+        {
+            long position = mPosition.get();
+            if (mVersion != version)
+            {
+                // 已经被清空，先重置位置再更新版本
+                position = 0;
+                mPosition.set(0);
+                mVersion = version;
+            }
+            final int index = (int) (position % mCapacity) * EVENT_SIZE;
+            mEvents[index] = methodId;
+            mEvents[index + 1] = start;
+            mEvents[index + 2] = duration;
+            mPosition.lazySet(position + 1);
+        }
+    }
+}
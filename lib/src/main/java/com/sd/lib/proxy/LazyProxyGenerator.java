@@ -0,0 +1,198 @@
+package com.sd.lib.proxy;
+
+import com.android.dx.Code;
+import com.android.dx.Comparison;
+import com.android.dx.FieldId;
+import com.android.dx.Label;
+import com.android.dx.Local;
+import com.android.dx.MethodId;
+
+import java.lang.reflect.Modifier;
+
+/**
+ * 生成延迟代理class
+ */
+final class LazyProxyGenerator
+{
+    private final DexMakerHelper mHelper;
+    private final ProxyClassInfo mClassInfo;
+
+    /**
+     * @param helper
+     * @param classInfo 要生成的代理class的反射信息
+     */
+    public LazyProxyGenerator(DexMakerHelper helper, ProxyClassInfo classInfo)
+    {
+        mHelper = helper;
+        mClassInfo = classInfo;
+    }
+
+    /**
+     * 生成延迟代理class，public方法直接转发给真正的对象，不经过拦截对象；Object的方法不转发，和接口的延迟代理一样
+     *
+     * <pre>
+     * public R method(args)
+     * {
+     *     Person target = mLazyTarget;
+     *     if (target == null) target = (Person) FProxyHelper.resolveLazyTarget(this);
+     *     return target.method(args);
+     * }
+     *
+     * public boolean equals(Object obj) { return this == obj; }
+     * public int hashCode() { return System.identityHashCode(this); }
+     * public String toString() { return FProxyHelper.lazyToString(this); }
+     * </pre>
+     *
+     * @return 转发的方法信息
+     */
+    public FMethodInfo[] generate()
+    {
+        final Class<?> classSuper = mHelper.getSuperClass();
+
+        // public class com/sd/model/Person$FProxy$ extends com/sd/model/Person implements FLazyProxyInterface
+        // 不声明构造方法，对象不调用构造方法创建
+        mHelper.declareClass(Modifier.PUBLIC, classSuper, FLazyProxyInterface.class);
+
+        // ---------- 属性start ----------
+        // private volatile Person mLazyTarget = null;
+        mHelper.declareField(Modifier.PRIVATE | Modifier.VOLATILE,
+                classSuper, FLazyProxyInterface.FIELD_NAME_LAZYTARGET, null);
+        // private volatile FSupplier mLazySupplier = null;
+        mHelper.declareField(Modifier.PRIVATE | Modifier.VOLATILE,
+                FSupplier.class, FLazyProxyInterface.FIELD_NAME_LAZYSUPPLIER, null);
+        // ---------- 属性end ----------
+
+        // ---------- FLazyProxyInterface接口方法start ----------
+        final FieldId fieldTarget = mHelper.getField(mHelper.getProxyClass(),
+                classSuper, FLazyProxyInterface.FIELD_NAME_LAZYTARGET);
+        final FieldId fieldSupplier = mHelper.getField(mHelper.getProxyClass(),
+                FSupplier.class, FLazyProxyInterface.FIELD_NAME_LAZYSUPPLIER);
+
+        /**
+         * public void setLazyTarget$FProxy$(Object target)
+         * {
+         *     mLazyTarget = (Person) target;
+         * }
+         */
+        Code code = mHelper.declareMethod(Modifier.PUBLIC, Void.class, FLazyProxyInterface.METHOD_NAME_SETLAZYTARGET, Object.class);
+        Local localTarget = mHelper.newLocal(code, classSuper);
+        code.cast(localTarget, mHelper.getParameter(code, 0, Object.class));
+        code.iput(fieldTarget, mHelper.getThis(code), localTarget);
+        code.returnVoid();
+
+        /**
+         * public Object getLazyTarget$FProxy$()
+         * {
+         *     return this.mLazyTarget;
+         * }
+         */
+        code = mHelper.declareMethod(Modifier.PUBLIC, Object.class, FLazyProxyInterface.METHOD_NAME_GETLAZYTARGET);
+        localTarget = mHelper.newLocal(code, classSuper);
+        code.iget(fieldTarget, localTarget, mHelper.getThis(code));
+        code.returnValue(localTarget);
+
+        mHelper.declareFieldSetter(fieldSupplier, FSupplier.class, FLazyProxyInterface.METHOD_NAME_SETLAZYSUPPLIER);
+        mHelper.declareFieldGetter(fieldSupplier, FSupplier.class, FLazyProxyInterface.METHOD_NAME_GETLAZYSUPPLIER);
+
+        // ---------- FLazyProxyInterface接口方法end ----------
+
+        declareObjectMethods(classSuper);
+
+        final MethodId<?, ?> methodResolve = mHelper.getMethod(FProxyHelper.class,
+                Object.class, FProxyHelper.METHOD_NAME_RESOLVELAZYTARGET, Object.class);
+
+        final FMethodInfo[] arrMethodInfo = mClassInfo.getMethods();
+        for (FMethodInfo item : arrMethodInfo)
+        {
+            final Class<?> classReturn = item.getReturnType();
+            final Class<?>[] classArgs = item.getArgsClass();
+            final boolean isReturnVoid = classReturn == void.class;
+
+            final int methodModifiers = item.getMethod().getModifiers() & ~(Modifier.ABSTRACT | Modifier.NATIVE);
+            code = mHelper.declareMethod(methodModifiers, classReturn, item.getName(), classArgs);
+
+            // ---------- 变量 ----------
+            localTarget = mHelper.newLocal(code, classSuper);
+            final Local<Object> localObjectTmp = mHelper.newLocal(code, Object.class);
+            final Local localReturn = isReturnVoid ? null : mHelper.newLocal(code, classReturn);
+
+            // ---------- 变量赋值 ----------
+            final Label labelReady = new Label();
+            code.iget(fieldTarget, localTarget, mHelper.getThis(code));
+            code.loadConstant(localObjectTmp, null);
+            code.compare(Comparison.NE, labelReady, localTarget, (Local) localObjectTmp);
+
+            code.invokeStatic(methodResolve, localObjectTmp, mHelper.getThis(code));
+            code.cast(localTarget, localObjectTmp);
+
+            code.mark(labelReady);
+
+            final Local[] localArgs = new Local[classArgs.length];
+            for (int i = 0; i < classArgs.length; i++)
+            {
+                localArgs[i] = mHelper.getParameter(code, i, classArgs[i]);
+            }
+            final MethodId methodTarget = mHelper.getMethod(classSuper, classReturn, item.getName(), classArgs);
+            code.invokeVirtual(methodTarget, localReturn, localTarget, localArgs);
+
+            if (isReturnVoid)
+            {
+                code.returnVoid();
+            } else
+            {
+                code.returnValue(localReturn);
+            }
+        }
+        return arrMethodInfo.clone();
+    }
+
+    /**
+     * 生成延迟代理的equals，hashCode，toString，父类把方法声明为final的话不生成
+     */
+    private void declareObjectMethods(Class<?> classSuper)
+    {
+        Code code;
+        if (!isFinalMethod(classSuper, "equals", Object.class))
+        {
+            code = mHelper.declareMethod(Modifier.PUBLIC, boolean.class, "equals", Object.class);
+            final Local<Boolean> localResult = mHelper.newLocal(code, boolean.class);
+            final Label labelSame = new Label();
+            code.compare(Comparison.EQ, labelSame, (Local) mHelper.getThis(code), mHelper.getParameter(code, 0, Object.class));
+            code.loadConstant(localResult, false);
+            code.returnValue(localResult);
+            code.mark(labelSame);
+            code.loadConstant(localResult, true);
+            code.returnValue(localResult);
+        }
+
+        if (!isFinalMethod(classSuper, "hashCode"))
+        {
+            code = mHelper.declareMethod(Modifier.PUBLIC, int.class, "hashCode");
+            final Local<Integer> localResult = mHelper.newLocal(code, int.class);
+            final MethodId methodIdentityHashCode = mHelper.getMethod(System.class, int.class, "identityHashCode", Object.class);
+            code.invokeStatic(methodIdentityHashCode, localResult, mHelper.getThis(code));
+            code.returnValue(localResult);
+        }
+
+        if (!isFinalMethod(classSuper, "toString"))
+        {
+            code = mHelper.declareMethod(Modifier.PUBLIC, String.class, "toString");
+            final Local<String> localResult = mHelper.newLocal(code, String.class);
+            final MethodId methodToString = mHelper.getMethod(FProxyHelper.class, String.class,
+                    FProxyHelper.METHOD_NAME_LAZYTOSTRING, Object.class);
+            code.invokeStatic(methodToString, localResult, mHelper.getThis(code));
+            code.returnValue(localResult);
+        }
+    }
+
+    private static boolean isFinalMethod(Class<?> clazz, String name, Class<?>... argsClass)
+    {
+        try
+        {
+            return Modifier.isFinal(clazz.getMethod(name, argsClass).getModifiers());
+        } catch (NoSuchMethodException e)
+        {
+            throw new FProxyException(e);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.sd.lib.proxy;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * 代理对象、方法和参数组成的key
+ * <p>
+ * 代理对象按引用比较，同一个拦截对象被多个代理对象使用的时候不会互相共享结果；<br>
+ * 只有一个基本类型参数的方法把参数值保存为long，不持有包装对象，参数类型由方法决定，不需要保存
+ */
+abstract class MethodKey
+{
+    final FMethodInfo mMethodInfo;
+    /**
+     * 代理对象，{@link #weak(MethodKey)}返回的key保存的是{@link ProxyRef}
+     */
+    final Object mProxy;
+    final int mHashCode;
+
+    private MethodKey(FMethodInfo methodInfo, Object proxy, int hashCode)
+    {
+        mMethodInfo = methodInfo;
+        mProxy = proxy;
+        mHashCode = hashCode;
+    }
+
+    private static int hash(FMethodInfo methodInfo, Object proxy, int argsHashCode)
+    {
+        return (System.identityHashCode(proxy) * 31 + methodInfo.hashCode()) * 31 + argsHashCode;
+    }
+
+    /**
+     * 返回代理对象、方法和参数对应的key，返回的key只适合用来查找
+     *
+     * @param proxy      代理对象，为null的话不区分代理对象
+     * @param methodInfo
+     * @param args
+     * @return
+     */
+    public static MethodKey obtain(Object proxy, FMethodInfo methodInfo, Object[] args)
+    {
+        if (args == null || args.length <= 0)
+        {
+            return new NoArgsKey(methodInfo, proxy, hash(methodInfo, proxy, 0));
+        }
+
+        if (args.length == 1)
+        {
+            final Object arg = args[0];
+            if (methodInfo.getArgsClass()[0].isPrimitive())
+            {
+                final long bits = primitiveBits(arg);
+                return new PrimitiveKey(methodInfo, proxy, hash(methodInfo, proxy, (int) (bits ^ (bits >>> 32))), bits);
+            }
+            return new SingleKey(methodInfo, proxy, hash(methodInfo, proxy, arg == null ? 0 : arg.hashCode()), arg);
+        }
+
+        return new ArrayKey(methodInfo, proxy, hash(methodInfo, proxy, Arrays.hashCode(args)), args);
+    }
+
+    /**
+     * 返回可以在调用期间保存的key，参数数组会被拷贝，防止外部修改
+     *
+     * @param key {@link #obtain(Object, FMethodInfo, Object[])}返回的key
+     * @return
+     */
+    public static MethodKey stable(MethodKey key)
+    {
+        if (key instanceof ArrayKey)
+        {
+            return key.copy(key.mProxy);
+        }
+        return key;
+    }
+
+    /**
+     * 返回可以长期保存的key，参数数组会被拷贝，代理对象改为弱引用，保存的key不会让代理对象无法回收
+     *
+     * @param key {@link #obtain(Object, FMethodInfo, Object[])}返回的key
+     * @return
+     */
+    public static MethodKey weak(MethodKey key)
+    {
+        if (key.mProxy == null || key.mProxy instanceof ProxyRef)
+        {
+            return stable(key);
+        }
+        return key.copy(new ProxyRef(key.mProxy));
+    }
+
+    /**
+     * 返回保存的代理对象，弱引用已经被回收的话返回弱引用本身，不会和其他key相等
+     */
+    private Object getProxy()
+    {
+        if (mProxy instanceof ProxyRef)
+        {
+            final Object proxy = ((ProxyRef) mProxy).get();
+            return proxy != null ? proxy : mProxy;
+        }
+        return mProxy;
+    }
+
+    /**
+     * 代理对象和方法是否相同
+     */
+    final boolean isSameTarget(MethodKey other)
+    {
+        return mHashCode == other.mHashCode && mMethodInfo == other.mMethodInfo && getProxy() == other.getProxy();
+    }
+
+    /**
+     * 返回保存指定代理对象的拷贝，参数数组会被拷贝
+     */
+    abstract MethodKey copy(Object proxy);
+
+    private static long primitiveBits(Object arg)
+    {
+        if (arg instanceof Integer)
+        {
+            return (Integer) arg;
+        } else if (arg instanceof Long)
+        {
+            return (Long) arg;
+        } else if (arg instanceof Boolean)
+        {
+            return ((Boolean) arg) ? 1 : 0;
+        } else if (arg instanceof Character)
+        {
+            return (Character) arg;
+        } else if (arg instanceof Short)
+        {
+            return (Short) arg;
+        } else if (arg instanceof Byte)
+        {
+            return (Byte) arg;
+        } else if (arg instanceof Float)
+        {
+            return Float.floatToIntBits((Float) arg);
+        } else
+        {
+            return Double.doubleToLongBits((Double) arg);
+        }
+    }
+
+    @Override
+    public final int hashCode()
+    {
+        return mHashCode;
+    }
+
+    private static final class ProxyRef extends WeakReference<Object>
+    {
+        public ProxyRef(Object proxy)
+        {
+            super(proxy);
+        }
+    }
+
+    private static final class NoArgsKey extends MethodKey
+    {
+        public NoArgsKey(FMethodInfo methodInfo, Object proxy, int hashCode)
+        {
+            super(methodInfo, proxy, hashCode);
+        }
+
+        @Override
+        MethodKey copy(Object proxy)
+        {
+            return new NoArgsKey(mMethodInfo, proxy, mHashCode);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+            {
+                return true;
+            }
+            return obj instanceof NoArgsKey && isSameTarget((NoArgsKey) obj);
+        }
+    }
+
+    private static final class PrimitiveKey extends MethodKey
+    {
+        private final long mBits;
+
+        public PrimitiveKey(FMethodInfo methodInfo, Object proxy, int hashCode, long bits)
+        {
+            super(methodInfo, proxy, hashCode);
+            mBits = bits;
+        }
+
+        @Override
+        MethodKey copy(Object proxy)
+        {
+            return new PrimitiveKey(mMethodInfo, proxy, mHashCode, mBits);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+            {
+                return true;
+            }
+            if (!(obj instanceof PrimitiveKey))
+            {
+                return false;
+            }
+            final PrimitiveKey other = (PrimitiveKey) obj;
+            return mBits == other.mBits && isSameTarget(other);
+        }
+    }
+
+    private static final class SingleKey extends MethodKey
+    {
+        private final Object mArg;
+
+        public SingleKey(FMethodInfo methodInfo, Object proxy, int hashCode, Object arg)
+        {
+            super(methodInfo, proxy, hashCode);
+            mArg = arg;
+        }
+
+        @Override
+        MethodKey copy(Object proxy)
+        {
+            return new SingleKey(mMethodInfo, proxy, mHashCode, mArg);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+            {
+                return true;
+            }
+            if (!(obj instanceof SingleKey))
+            {
+                return false;
+            }
+            final SingleKey other = (SingleKey) obj;
+            return isSameTarget(other) && (mArg == null ? other.mArg == null : mArg.equals(other.mArg));
+        }
+    }
+
+    private static final class ArrayKey extends MethodKey
+    {
+        private final Object[] mArgs;
+
+        public ArrayKey(FMethodInfo methodInfo, Object proxy, int hashCode, Object[] args)
+        {
+            super(methodInfo, proxy, hashCode);
+            mArgs = args;
+        }
+
+        @Override
+        MethodKey copy(Object proxy)
+        {
+            return new ArrayKey(mMethodInfo, proxy, mHashCode, mArgs.clone());
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+            {
+                return true;
+            }
+            if (!(obj instanceof ArrayKey))
+            {
+                return false;
+            }
+            final ArrayKey other = (ArrayKey) obj;
+            return isSameTarget(other) && Arrays.equals(mArgs, other.mArgs);
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package com.sd.lib.proxy;
+
+import com.android.dx.BinaryOp;
+import com.android.dx.Code;
+import com.android.dx.Comparison;
+import com.android.dx.FieldId;
+import com.android.dx.Label;
+import com.android.dx.Local;
+import com.android.dx.MethodId;
+
+import java.lang.reflect.Modifier;
+
+/**
+ * 生成代理class，方法调用通知拦截对象
+ * <p>
+ * 各个模式的代码由单独的类生成：{@link CompactGenerator}紧凑模式，{@link AdviceGenerator}advice，
+ * {@link SamplingGenerator}采样，{@link TieredGenerator}分层；没有开启的模式对应的属性为null
+ */
+final class ProxyClassGenerator
+{
+    private final DexMakerHelper mHelper;
+    private final ProxyClassInfo mClassInfo;
+    private final boolean mIsReuseArgs;
+
+    private final ProxyStateFields mStateFields;
+    private final CompactGenerator mCompact;
+    private final AdviceGenerator mAdvice;
+    private final SamplingGenerator mSampling;
+    private final TieredGenerator mTiered;
+
+    private final FieldId mFieldMethodInfos;
+    private final MethodId<?, ?> mMethodNotifyInterceptor;
+    private final MethodId<?, ?> mMethodReleaseArgs;
+    private FieldId mFieldMethodInterceptor;
+    private FieldId mFieldInterceptFlags;
+
+    /**
+     * @param helper
+     * @param classInfo        要生成的代理class的反射信息
+     * @param specializedTypes 分层模式下每个方法特化的拦截对象class，为null的话不特化
+     */
+    public ProxyClassGenerator(DexMakerHelper helper, ProxyClassInfo classInfo, Class<?>[] specializedTypes)
+    {
+        final ProxySpec spec = classInfo.getSpec();
+        mHelper = helper;
+        mClassInfo = classInfo;
+        mIsReuseArgs = spec.hasFlag(ProxySpec.FLAG_REUSE_ARGS);
+
+        mStateFields = new ProxyStateFields(helper, spec.hasFlag(ProxySpec.FLAG_CLASS_BOUND));
+        mCompact = spec.hasFlag(ProxySpec.FLAG_COMPACT) ? new CompactGenerator(helper, mIsReuseArgs) : null;
+        mAdvice = spec.hasFlag(ProxySpec.FLAG_ADVICE) ? new AdviceGenerator(helper) : null;
+        mSampling = spec.hasFlag(ProxySpec.FLAG_SAMPLED) ? new SamplingGenerator(helper, mStateFields) : null;
+        mTiered = spec.hasFlag(ProxySpec.FLAG_TIERED) || specializedTypes != null
+                ? new TieredGenerator(helper, specializedTypes) : null;
+
+        mFieldMethodInfos = helper.getField(helper.getProxyClass(),
+                FMethodInfo[].class, FProxyInterface.FIELD_NAME_METHODINFOS);
+        mMethodNotifyInterceptor = helper.getMethod(FProxyHelper.class,
+                Object.class, FProxyHelper.METHOD_NAME_NOTIFYINTERCEPTOR,
+                FMethodInfo.class, int.class, Object[].class, Object.class);
+        mMethodReleaseArgs = helper.getMethod(FProxyHelper.class,
+                Void.class, FProxyHelper.METHOD_NAME_RELEASEARGS, Object[].class);
+    }
+
+    /**
+     * 生成代理class
+     *
+     * @return 被拦截的方法信息，下标和代理class中的sMethodInfos对应
+     */
+    public FMethodInfo[] generate()
+    {
+        declareClass();
+
+        // ---------- 构造方法start ----------
+
+        mHelper.declareConstructors(mClassInfo.getConstructors());
+
+        // ---------- 构造方法end ----------
+
+        declareFields();
+        declareInterfaceMethods();
+
+        final FMethodInfo[] arrMethodInfo = mClassInfo.getMethods();
+        for (int methodIndex = 0; methodIndex < arrMethodInfo.length; methodIndex++)
+        {
+            declareProxyMethod(arrMethodInfo[methodIndex], methodIndex);
+        }
+
+        if (mCompact != null)
+        {
+            mCompact.declareSuperInvoker(mClassInfo, arrMethodInfo);
+        }
+        return arrMethodInfo.clone();
+    }
+
+    /**
+     * public class com/sd/model/Person$FProxy$ extends com/sd/model/Person implements FProxyInterface, 额外的接口...
+     */
+    private void declareClass()
+    {
+        final Class<?>[] arrExtraInterface = mClassInfo.getSpec().getInterfaces();
+        final int extraInterfaceCount = arrExtraInterface == null ? 0 : arrExtraInterface.length;
+        final Class<?>[] arrInterface = new Class<?>[1 + (mCompact != null ? 1 : 0) + (mSampling != null ? 1 : 0) + extraInterfaceCount];
+        int interfaceIndex = 0;
+        arrInterface[interfaceIndex++] = FProxyInterface.class;
+        if (mCompact != null)
+        {
+            arrInterface[interfaceIndex++] = FProxySuperInvoker.class;
+        }
+        if (mSampling != null)
+        {
+            arrInterface[interfaceIndex++] = FSampledProxyInterface.class;
+        }
+        if (arrExtraInterface != null)
+        {
+            System.arraycopy(arrExtraInterface, 0, arrInterface, arrInterface.length - extraInterfaceCount, extraInterfaceCount);
+        }
+        mHelper.declareClass(Modifier.PUBLIC, mHelper.getSuperClass(), arrInterface);
+    }
+
+    private void declareFields()
+    {
+        // ---------- 属性start ----------
+        mStateFields.declareClassState();
+        // public volatile FMethodInterceptor mMethodInterceptor = null;
+        mFieldMethodInterceptor = mStateFields.declareField(FMethodInterceptor.class, FProxyInterface.FIELD_NAME_METHODINTERCEPTOR);
+        // public volatile long[] mInterceptFlags = null;
+        mFieldInterceptFlags = mStateFields.declareField(long[].class, FProxyInterface.FIELD_NAME_INTERCEPTFLAGS);
+        // private static FMethodInfo[] sMethodInfos = null;
+        mHelper.declareField(Modifier.PRIVATE | Modifier.STATIC,
+                FMethodInfo[].class, FProxyInterface.FIELD_NAME_METHODINFOS, null);
+        // private static Object sStateAccess = null;
+        mHelper.declareField(Modifier.PRIVATE | Modifier.STATIC,
+                Object.class, FProxyInterface.FIELD_NAME_STATEACCESS, null);
+        if (mAdvice != null)
+        {
+            mAdvice.declareFields();
+        }
+        if (mSampling != null)
+        {
+            mSampling.declareFields();
+        }
+        if (mTiered != null)
+        {
+            mTiered.declareFields();
+        }
+        // ---------- 属性end ----------
+    }
+
+    private void declareInterfaceMethods()
+    {
+        // ---------- FProxyInterface接口方法start ----------
+
+        /**
+         * public void setMethodInterceptor$FProxy$(FMethodInterceptor interceptor)
+         * {
+         *     mMethodInterceptor = handler;
+         * }
+         */
+        mStateFields.declareSetter(mFieldMethodInterceptor, FMethodInterceptor.class, FProxyInterface.METHOD_NAME_SETMETHODINTERCEPTOR);
+
+        /**
+         * public FMethodInterceptor getMethodInterceptor$FProxy$()
+         * {
+         *     return this.mMethodInterceptor;
+         * }
+         */
+        mStateFields.declareGetter(mFieldMethodInterceptor, FMethodInterceptor.class, FProxyInterface.METHOD_NAME_GETMETHODINTERCEPTOR);
+
+        /**
+         * public void setInterceptFlags$FProxy$(long[] flags)
+         * {
+         *     mInterceptFlags = flags;
+         * }
+         */
+        mStateFields.declareSetter(mFieldInterceptFlags, long[].class, FProxyInterface.METHOD_NAME_SETINTERCEPTFLAGS);
+
+        /**
+         * public long[] getInterceptFlags$FProxy$()
+         * {
+         *     return this.mInterceptFlags;
+         * }
+         */
+        mStateFields.declareGetter(mFieldInterceptFlags, long[].class, FProxyInterface.METHOD_NAME_GETINTERCEPTFLAGS);
+
+        // ---------- FProxyInterface接口方法end ----------
+
+        if (mSampling != null)
+        {
+            mSampling.declareInterfaceMethods();
+        }
+    }
+
+    /**
+     * 生成通知拦截对象的方法，有父类实现并且不是紧凑模式的话还生成调用父类的方法
+     *
+     * @param item        方法信息
+     * @param methodIndex 方法下标
+     */
+    private void declareProxyMethod(FMethodInfo item, int methodIndex)
+    {
+        final String methodName = item.getName();
+        final Class<?> classReturn = item.getReturnType();
+        final boolean isReturnVoid = classReturn == void.class;
+        final boolean hasSuperMethod = mClassInfo.hasSuperMethod(methodIndex);
+        final Class<?>[] classArgs = item.getArgsClass();
+        final Class<?> specializedType = mTiered == null ? null : mTiered.getSpecializedType(methodIndex);
+        final boolean isLoadInterceptor = mTiered != null && mTiered.isLoadInterceptor(methodIndex);
+
+        MethodId methodPackArgs = null;
+        if (mCompact != null && classArgs.length > 0)
+        {
+            methodPackArgs = mCompact.getPackArgsMethod(classArgs);
+        }
+
+        final int methodModifiers = item.getMethod().getModifiers() & ~(Modifier.ABSTRACT | Modifier.NATIVE);
+        Code code = mHelper.declareMethod(methodModifiers, classReturn, methodName, classArgs); // 生成方法体
+
+        // ---------- 变量 ----------
+        // dexmaker要求所有变量在第一条指令之前创建，只创建用得到的变量
+        final MethodLocals locals = new MethodLocals();
+
+        // 保存返回值
+        Local localReturn = null;
+        Local localReturnPack = null;
+        if (!isReturnVoid)
+        {
+            localReturn = mHelper.newLocal(code, classReturn);
+            if (classReturn.isPrimitive())
+            {
+                localReturnPack = mHelper.newLocal(code, DexMakerHelper.getPackedClass(classReturn));
+            }
+            // 保存方法拦截的返回值
+            locals.interceptResult = mHelper.newLocal(code, Object.class);
+        }
+
+        locals.methodInfos = mHelper.newLocal(code, FMethodInfo[].class);
+        locals.methodInfo = mHelper.newLocal(code, FMethodInfo.class);
+        locals.argsValue = mHelper.newLocal(code, Object[].class);
+
+        locals.intTmp = mHelper.newLocal(code, int.class);
+        if (hasSuperMethod || (mCompact == null && classArgs.length > 0) || isLoadInterceptor)
+        {
+            locals.objectTmp = mHelper.newLocal(code, Object.class);
+        }
+
+        // 复用参数数组的时候，调用拦截对象抛出异常也要归还参数数组
+        final boolean isReleaseArgs = mIsReuseArgs && classArgs.length > 0;
+        Local<Throwable> localError = null;
+        if (isReleaseArgs)
+        {
+            localError = mHelper.newLocal(code, Throwable.class);
+        }
+
+        Local localFlags = null;
+        Local localFlagWord = null;
+        Local localFlagMask = null;
+        if (hasSuperMethod || isLoadInterceptor)
+        {
+            locals.interceptor = mHelper.newLocal(code, FMethodInterceptor.class);
+        }
+        if (hasSuperMethod)
+        {
+            localFlags = mHelper.newLocal(code, long[].class);
+            localFlagWord = mHelper.newLocal(code, long.class);
+            localFlagMask = mHelper.newLocal(code, long.class);
+        }
+        if (hasSuperMethod || specializedType != null)
+        {
+            locals.intZero = mHelper.newLocal(code, int.class);
+        }
+        if (mStateFields.isClassBound() && (hasSuperMethod || isLoadInterceptor))
+        {
+            locals.classState = mHelper.newLocal(code, FProxyClassState.class);
+        }
+
+        final TieredGenerator.Locals tieredLocals = mTiered == null ? null : mTiered.newLocals(code, methodIndex);
+        final SamplingGenerator.Locals sampleLocals = hasSuperMethod && mSampling != null ? mSampling.newLocals(code) : null;
+        final AdviceGenerator.Locals adviceLocals = hasSuperMethod && mAdvice != null ? mAdvice.newLocals(code, locals.objectTmp) : null;
+
+        // ---------- 变量赋值 ----------
+        if (hasSuperMethod)
+        {
+            /**
+             * if (mMethodInterceptor == null) return super.method(args);
+             * long[] flags = mInterceptFlags;
+             * if (flags != null && (flags[methodIndex / 64] & (1L << (methodIndex % 64))) != 0) return super.method(args);
+             */
+            final Label labelInvokeSuper = new Label();
+            final Label labelIntercept = new Label();
+            // 采样的话，要拦截的调用还要检查是否采样到
+            final Label labelCheckSample = mSampling != null ? new Label() : labelIntercept;
+
+            code.loadConstant(locals.objectTmp, null);
+            mStateFields.load(code, mFieldMethodInterceptor, locals.classState, locals.interceptor);
+            code.compare(Comparison.EQ, labelInvokeSuper, locals.interceptor, (Local) locals.objectTmp);
+
+            mStateFields.load(code, mFieldInterceptFlags, locals.classState, localFlags);
+            code.compare(Comparison.EQ, labelCheckSample, localFlags, (Local) locals.objectTmp);
+
+            code.loadConstant(locals.intTmp, methodIndex >> 6);
+            code.aget(localFlagWord, localFlags, locals.intTmp);
+            code.loadConstant(localFlagMask, 1L << (methodIndex & 63));
+            code.op(BinaryOp.AND, localFlagWord, localFlagWord, localFlagMask);
+            code.loadConstant(localFlagMask, 0L);
+            code.compareLongs(locals.intTmp, localFlagWord, localFlagMask);
+            code.loadConstant(locals.intZero, 0);
+            code.compare(Comparison.EQ, labelCheckSample, locals.intTmp, locals.intZero);
+
+            code.mark(labelInvokeSuper);
+            if (mAdvice != null)
+            {
+                mAdvice.invokeSuper(code, item, methodIndex, localReturn, adviceLocals);
+            } else
+            {
+                mHelper.invokeSuperAndReturn(code, item, localReturn);
+            }
+
+            if (mSampling != null)
+            {
+                code.mark(labelCheckSample);
+                mSampling.emitCheck(code, methodIndex, sampleLocals, locals, labelInvokeSuper, labelIntercept);
+            }
+
+            code.mark(labelIntercept);
+        }
+
+        if (isLoadInterceptor)
+        {
+            // FMethodInterceptor interceptor = mMethodInterceptor;
+            mStateFields.load(code, mFieldMethodInterceptor, locals.classState, locals.interceptor);
+        }
+
+        if (mTiered != null)
+        {
+            mTiered.emitRecord(code, methodIndex, tieredLocals, locals);
+        }
+
+        // FMethodInfo methodInfo = sMethodInfos[methodIndex];
+        code.sget(mFieldMethodInfos, locals.methodInfos);
+        code.loadConstant(locals.intTmp, methodIndex);
+        code.aget(locals.methodInfo, locals.methodInfos, locals.intTmp);
+
+        if (classArgs.length <= 0)
+        {
+            code.loadConstant(locals.argsValue, null);
+        } else if (mCompact != null)
+        {
+            // Object[] args = packArgs$FProxy$N(arg0, arg1...);
+            final Local[] localArgs = new Local[classArgs.length];
+            for (int i = 0; i < classArgs.length; i++)
+            {
+                localArgs[i] = mHelper.getParameter(code, i, classArgs[i]);
+            }
+            code.invokeStatic(methodPackArgs, locals.argsValue, localArgs);
+        } else
+        {
+            code.loadConstant(locals.intTmp, classArgs.length);
+            newArgsArray(mHelper, code, locals.argsValue, locals.intTmp, mIsReuseArgs);
+
+            Class<?> classArg = null;
+            for (int i = 0; i < classArgs.length; i++)
+            {
+                classArg = classArgs[i];
+
+                code.loadConstant(locals.intTmp, i);
+
+                if (classArg.isPrimitive())
+                {
+                    MethodId methodValueOf = mHelper.getMethodPrimitiveValueOf(classArg);
+                    code.invokeStatic(methodValueOf,
+                            locals.objectTmp,
+                            mHelper.getParameter(code, i, classArg));
+
+                    code.aput(locals.argsValue, locals.intTmp, locals.objectTmp);
+                } else
+                {
+                    code.aput(locals.argsValue, locals.intTmp, mHelper.getParameter(code, i, classArg));
+                }
+            }
+        }
+
+        // 调用拦截对象
+        final Label labelReleaseArgsOnError = new Label();
+        if (isReleaseArgs)
+        {
+            code.addCatchClause(mHelper.getType(Throwable.class), labelReleaseArgsOnError);
+        }
+        code.loadConstant(locals.intTmp, methodIndex);
+        final Label labelIntercepted = mTiered == null ? null
+                : mTiered.emitSpecializedIntercept(code, methodIndex, isReturnVoid, tieredLocals, locals);
+        code.invokeStatic(mMethodNotifyInterceptor,
+                isReturnVoid ? null : locals.interceptResult,
+                locals.methodInfo, locals.intTmp, locals.argsValue, mHelper.getThis(code));
+        if (labelIntercepted != null)
+        {
+            code.mark(labelIntercepted);
+        }
+        if (isReleaseArgs)
+        {
+            code.removeCatchClause(mHelper.getType(Throwable.class));
+            code.invokeStatic(mMethodReleaseArgs, null, locals.argsValue);
+        }
+
+        if (isReturnVoid)
+        {
+            code.returnVoid();
+        } else
+        {
+            if (classReturn.isPrimitive())
+            {
+                Label ifNull = new Label();
+                code.loadConstant(localReturnPack, null);
+                code.compare(Comparison.EQ, ifNull, locals.interceptResult, localReturnPack);
+
+                code.cast(localReturnPack, locals.interceptResult);
+                MethodId methodPrimitiveValue = mHelper.getMethodPrimitiveValue(classReturn);
+                code.invokeVirtual(methodPrimitiveValue, localReturn, localReturnPack);
+                code.returnValue(localReturn);
+
+                code.mark(ifNull);
+                code.loadConstant(localReturn, 0);
+                code.returnValue(localReturn);
+            } else
+            {
+                code.cast(localReturn, locals.interceptResult);
+                code.returnValue(localReturn);
+            }
+        }
+
+        if (isReleaseArgs)
+        {
+            /**
+             * catch (Throwable e)
+             * {
+             *     FProxyHelper.releaseArgs(args);
+             *     throw e;
+             * }
+             */
+            code.mark(labelReleaseArgsOnError);
+            code.moveException(localError);
+            code.invokeStatic(mMethodReleaseArgs, null, locals.argsValue);
+            code.throwValue(localError);
+        }
+
+        if (!hasSuperMethod || mCompact != null)
+        {
+            // 没有父类的实现（抽象方法或者父类没有实现的接口方法），不创建调用父类的方法；
+            // 紧凑模式统一由invokeSuper$FProxy$调用父类的方法
+            return;
+        }
+
+        // 创建调用父类的方法
+        code = mHelper.declareMethod(Modifier.PUBLIC, classReturn,
+                methodName + FProxyInterface.PROXY_CLASS_INVOKE_SUPER_METHOD_SUFFIX, classArgs);
+        localReturn = isReturnVoid ? null : mHelper.newLocal(code, classReturn);
+        mHelper.invokeSuperAndReturn(code, item, localReturn);
+    }
+
+    /**
+     * 生成创建参数数组的代码，复用参数数组的话从当前线程借一个数组
+     */
+    static void newArgsArray(DexMakerHelper helper, Code code, Local<Object[]> localArgsValue, Local<Integer> localLength,
+                             boolean isReuseArgs)
+    {
+        if (isReuseArgs)
+        {
+            // Object[] args = FProxyHelper.obtainArgs(length);
+            final MethodId methodObtainArgs = helper.getMethod(FProxyHelper.class,
+                    Object[].class, FProxyHelper.METHOD_NAME_OBTAINARGS, int.class);
+            code.invokeStatic(methodObtainArgs, localArgsValue, localLength);
+        } else
+        {
+            code.newArray(localArgsValue, localLength);
+        }
+    }
+
+    /**
+     * 生成的方法中共用的变量，没用到的为null
+     */
+    static final class MethodLocals
+    {
+        /**
+         * 拦截对象的返回值
+         */
+        public Local<Object> interceptResult;
+        public Local<FMethodInfo[]> methodInfos;
+        public Local<FMethodInfo> methodInfo;
+        public Local<Object[]> argsValue;
+        public Local<Integer> intTmp;
+        public Local<Integer> intZero;
+        public Local<Object> objectTmp;
+        public Local interceptor;
+        public Local<FProxyClassState> classState;
+    }
+}
@@ -0,0 +1,226 @@
+package com.sd.lib.proxy;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 要生成的代理class的反射信息，由代理工厂保存，每个代理工厂中每个{@link ProxySpec}只扫描一次
+ */
+final class ProxyClassInfo
+{
+    private final ProxySpec mSpec;
+    private final Constructor<?>[] mConstructors;
+    private final FMethodInfo[] mMethods;
+    private final boolean[] mHasSuperMethod;
+
+    ProxyClassInfo(ProxySpec spec)
+    {
+        mSpec = spec;
+        final Class<?> clazz = spec.getSuperClass();
+
+        if (spec.hasFlag(ProxySpec.FLAG_LAZY))
+        {
+            // 延迟代理不调用构造方法创建
+            mConstructors = new Constructor<?>[0];
+            mMethods = getLazyMethods(clazz);
+            mHasSuperMethod = new boolean[mMethods.length];
+            return;
+        }
+
+        final List<Constructor<?>> listConstructor = new ArrayList<>();
+        int modifiers = 0;
+        for (Constructor<?> item : clazz.getDeclaredConstructors())
+        {
+            modifiers = item.getModifiers();
+            if (Modifier.isPrivate(modifiers) || modifiers == 0)
+            {
+                continue;
+            }
+            listConstructor.add(item);
+        }
+        mConstructors = listConstructor.toArray(new Constructor<?>[listConstructor.size()]);
+
+        final List<FMethodInfo> listMethod = new ArrayList<>();
+        final List<Boolean> listHasSuper = new ArrayList<>();
+        for (Method item : clazz.getDeclaredMethods())
+        {
+            modifiers = item.getModifiers();
+            if (item.getName().contains("$") ||
+                    modifiers == 0 ||
+                    Modifier.isStatic(modifiers) ||
+                    Modifier.isFinal(modifiers) ||
+                    Modifier.isPrivate(modifiers))
+            {
+                continue;
+            }
+            listMethod.add(FMethodInfo.get(item));
+            listHasSuper.add(!Modifier.isAbstract(modifiers));
+        }
+
+        final Class<?>[] interfaces = spec.getInterfaces();
+        if (interfaces != null)
+        {
+            for (Class<?> itemInterface : interfaces)
+            {
+                for (Method item : itemInterface.getMethods())
+                {
+                    if (Modifier.isStatic(item.getModifiers()) || containsMethod(listMethod, item))
+                    {
+                        continue;
+                    }
+
+                    // 父类已经有实现的话，调用父类的实现
+                    Method methodSuper = null;
+                    try
+                    {
+                        methodSuper = clazz.getMethod(item.getName(), item.getParameterTypes());
+                    } catch (NoSuchMethodException e)
+                    {
+                    }
+
+                    if (methodSuper != null && Modifier.isFinal(methodSuper.getModifiers()))
+                    {
+                        continue;
+                    }
+
+                    listMethod.add(FMethodInfo.get(item));
+                    listHasSuper.add(methodSuper != null && !Modifier.isAbstract(methodSuper.getModifiers()));
+                }
+            }
+        }
+
+        mMethods = listMethod.toArray(new FMethodInfo[listMethod.size()]);
+        mHasSuperMethod = new boolean[mMethods.length];
+        for (int i = 0; i < mHasSuperMethod.length; i++)
+        {
+            mHasSuperMethod[i] = listHasSuper.get(i);
+        }
+    }
+
+    /**
+     * 返回延迟代理要转发的方法，包括父类继承下来的public方法，不包括Object的方法（子类重写的equals，hashCode，toString也不包括）<br>
+     * protected和包访问权限的方法不转发：代理class和父类不在同一个ClassLoader，跨包不能调用真正对象的这些方法
+     */
+    private static FMethodInfo[] getLazyMethods(Class<?> clazz)
+    {
+        final List<FMethodInfo> listMethod = new ArrayList<>();
+        // 子类已经声明过的方法，包括final的方法，父类相同的方法不再处理
+        final List<Method> listDeclared = new ArrayList<>();
+
+        Class<?> current = clazz;
+        while (current != null && current != Object.class)
+        {
+            for (Method item : current.getDeclaredMethods())
+            {
+                addLazyMethod(item, listMethod, listDeclared);
+            }
+            current = current.getSuperclass();
+        }
+
+        // 抽象类没有声明的接口方法
+        for (Method item : clazz.getMethods())
+        {
+            if (item.getDeclaringClass() != Object.class)
+            {
+                addLazyMethod(item, listMethod, listDeclared);
+            }
+        }
+        return listMethod.toArray(new FMethodInfo[listMethod.size()]);
+    }
+
+    private static void addLazyMethod(Method method, List<FMethodInfo> listMethod, List<Method> listDeclared)
+    {
+        final int modifiers = method.getModifiers();
+        if (Modifier.isStatic(modifiers) || Modifier.isPrivate(modifiers))
+        {
+            return;
+        }
+        for (Method item : listDeclared)
+        {
+            if (item.getName().equals(method.getName())
+                    && item.getReturnType() == method.getReturnType()
+                    && Arrays.equals(item.getParameterTypes(), method.getParameterTypes()))
+            {
+                return;
+            }
+        }
+        listDeclared.add(method);
+
+        if (method.getName().contains("$") ||
+                Modifier.isFinal(modifiers) ||
+                !Modifier.isPublic(modifiers) ||
+                isObjectMethod(method))
+        {
+            return;
+        }
+        listMethod.add(FMethodInfo.get(method));
+    }
+
+    /**
+     * 是否是Object的方法或者子类重写的Object的方法
+     */
+    private static boolean isObjectMethod(Method method)
+    {
+        try
+        {
+            Object.class.getDeclaredMethod(method.getName(), method.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+
+    private static boolean containsMethod(List<FMethodInfo> list, Method method)
+    {
+        for (FMethodInfo item : list)
+        {
+            if (item.getName().equals(method.getName())
+                    && Arrays.equals(item.getArgsClass(), method.getParameterTypes()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public ProxySpec getSpec()
+    {
+        return mSpec;
+    }
+
+    /**
+     * 返回可以被代理类调用的构造方法，不要修改返回的数组
+     *
+     * @return
+     */
+    public Constructor<?>[] getConstructors()
+    {
+        return mConstructors;
+    }
+
+    /**
+     * 返回要拦截的方法，不要修改返回的数组
+     *
+     * @return
+     */
+    public FMethodInfo[] getMethods()
+    {
+        return mMethods;
+    }
+
+    /**
+     * 第几个方法是否有父类的实现可以调用
+     *
+     * @param index
+     * @return
+     */
+    public boolean hasSuperMethod(int index)
+    {
+        return mHasSuperMethod[index];
+    }
+}
@@ -0,0 +1,272 @@
+package com.sd.lib.proxy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 记录创建过代理的class，用于下次启动的时候提前生成代理class
+ * <p>
+ * 文件每一行是一个记录：第一次使用的时间(距离开始记录的毫秒)\tclass名称\t构造方法参数class名称(逗号分隔)\t额外实现的接口名称(逗号分隔)\t生成选项<br>
+ * 生成选项只保存由创建代理对象的方法决定的选项({@link ProxySpec#FLAGS_PATH})，其他选项在提前生成的时候按照代理工厂当前的设置
+ */
+final class ProxyProfile
+{
+    private static final String SEPARATOR = "\t";
+    private static final String SEPARATOR_ARGS = ",";
+    private static final String CHARSET = "UTF-8";
+
+    private static final Map<String, Class<?>> MAP_PRIMITIVE = new HashMap<>();
+
+    static
+    {
+        for (Class<?> item : new Class<?>[]{boolean.class, byte.class, char.class, double.class,
+                float.class, int.class, long.class, short.class})
+        {
+            MAP_PRIMITIVE.put(item.getName(), item);
+        }
+    }
+
+    private final long mStartTime = System.nanoTime();
+    private final ConcurrentHashMap<Entry, Entry> mMapEntry = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次创建代理
+     *
+     * @param spec      要生成的代理class描述
+     * @param argsClass 构造方法参数class
+     */
+    public void record(ProxySpec spec, Class<?>[] argsClass)
+    {
+        final Entry entry = new Entry(spec.getSuperClass(), argsClass, spec.getInterfaces(),
+                spec.getFlags() & ProxySpec.FLAGS_PATH, (System.nanoTime() - mStartTime) / 1000000);
+        if (!mMapEntry.containsKey(entry))
+        {
+            final Entry entryCopy = new Entry(entry.mClass, entry.mArgsClass == null ? null : entry.mArgsClass.clone(),
+                    entry.mInterfaces, entry.mFlags, entry.mTime);
+            mMapEntry.putIfAbsent(entryCopy, entryCopy);
+        }
+    }
+
+    /**
+     * 保存到文件
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException
+    {
+        final List<Entry> listEntry = sort(new ArrayList<>(mMapEntry.values()));
+
+        final File fileTmp = new File(file.getAbsolutePath() + ".tmp");
+        final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileTmp), CHARSET));
+        try
+        {
+            for (Entry item : listEntry)
+            {
+                writer.write(String.valueOf(item.mTime));
+                writer.write(SEPARATOR);
+                writer.write(item.mClass.getName());
+                writer.write(SEPARATOR);
+                writeClasses(writer, item.mArgsClass);
+                writer.write(SEPARATOR);
+                writeClasses(writer, item.mInterfaces);
+                writer.write(SEPARATOR);
+                writer.write(String.valueOf(item.mFlags));
+                writer.newLine();
+            }
+        } finally
+        {
+            writer.close();
+        }
+
+        if (!fileTmp.renameTo(file))
+        {
+            throw new IOException("rename profile file failed:" + file);
+        }
+    }
+
+    /**
+     * 从文件读取记录，按第一次使用的时间排序，无法加载的class会被忽略
+     *
+     * @param file
+     * @param loader 用来加载class的ClassLoader
+     * @return
+     * @throws IOException
+     */
+    public static List<Entry> load(File file, ClassLoader loader) throws IOException
+    {
+        final List<Entry> listEntry = new ArrayList<>();
+        if (!file.exists())
+        {
+            return listEntry;
+        }
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+        try
+        {
+            String line = null;
+            while ((line = reader.readLine()) != null)
+            {
+                final String[] arrItem = line.split(SEPARATOR, -1);
+                if (arrItem.length < 3)
+                {
+                    continue;
+                }
+
+                try
+                {
+                    final long time = Long.parseLong(arrItem[0]);
+                    final Class<?> clazz = loadClass(arrItem[1], loader);
+
+                    final Class<?>[] argsClass = loadClasses(arrItem[2], loader);
+                    final Class<?>[] interfaces = arrItem.length > 3 ? loadClasses(arrItem[3], loader) : null;
+                    // 旧版本保存的记录没有生成选项
+                    final int flags = arrItem.length > 4 ? Integer.parseInt(arrItem[4]) & ProxySpec.FLAGS_PATH : 0;
+
+                    listEntry.add(new Entry(clazz, argsClass, interfaces, flags, time));
+                } catch (NumberFormatException | ClassNotFoundException e)
+                {
+                    // 忽略无效的记录
+                }
+            }
+        } finally
+        {
+            reader.close();
+        }
+        return sort(listEntry);
+    }
+
+    private static void writeClasses(BufferedWriter writer, Class<?>[] classes) throws IOException
+    {
+        if (classes == null)
+        {
+            return;
+        }
+        for (int i = 0; i < classes.length; i++)
+        {
+            if (i > 0)
+            {
+                writer.write(SEPARATOR_ARGS);
+            }
+            writer.write(classes[i].getName());
+        }
+    }
+
+    private static Class<?>[] loadClasses(String names, ClassLoader loader) throws ClassNotFoundException
+    {
+        if (names.length() <= 0)
+        {
+            return null;
+        }
+
+        final String[] arrName = names.split(SEPARATOR_ARGS);
+        final Class<?>[] classes = new Class<?>[arrName.length];
+        for (int i = 0; i < arrName.length; i++)
+        {
+            classes[i] = loadClass(arrName[i], loader);
+        }
+        return classes;
+    }
+
+    private static Class<?> loadClass(String name, ClassLoader loader) throws ClassNotFoundException
+    {
+        final Class<?> classPrimitive = MAP_PRIMITIVE.get(name);
+        if (classPrimitive != null)
+        {
+            return classPrimitive;
+        }
+        return Class.forName(name, false, loader);
+    }
+
+    private static List<Entry> sort(List<Entry> list)
+    {
+        Collections.sort(list, new Comparator<Entry>()
+        {
+            @Override
+            public int compare(Entry o1, Entry o2)
+            {
+                return o1.mTime < o2.mTime ? -1 : (o1.mTime == o2.mTime ? 0 : 1);
+            }
+        });
+        return list;
+    }
+
+    public static final class Entry
+    {
+        private final Class<?> mClass;
+        private final Class<?>[] mArgsClass;
+        private final Class<?>[] mInterfaces;
+        private final int mFlags;
+        private final long mTime;
+
+        public Entry(Class<?> clazz, Class<?>[] argsClass, Class<?>[] interfaces, int flags, long time)
+        {
+            mClass = clazz;
+            mArgsClass = (argsClass == null || argsClass.length <= 0) ? null : argsClass;
+            mInterfaces = interfaces;
+            mFlags = flags;
+            mTime = time;
+        }
+
+        public Class<?> getProxiedClass()
+        {
+            return mClass;
+        }
+
+        public Class<?>[] getArgsClass()
+        {
+            return mArgsClass;
+        }
+
+        public Class<?>[] getInterfaces()
+        {
+            return mInterfaces;
+        }
+
+        /**
+         * 返回由创建代理对象的方法决定的生成选项
+         */
+        public int getFlags()
+        {
+            return mFlags;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ((mClass.hashCode() * 31 + Arrays.hashCode(mArgsClass)) * 31 + Arrays.hashCode(mInterfaces)) * 31 + mFlags;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+            {
+                return true;
+            }
+            if (!(obj instanceof Entry))
+            {
+                return false;
+            }
+            final Entry other = (Entry) obj;
+            return mClass == other.mClass
+                    && Arrays.equals(mArgsClass, other.mArgsClass)
+                    && Arrays.equals(mInterfaces, other.mInterfaces)
+                    && mFlags == other.mFlags;
+        }
+    }
+}
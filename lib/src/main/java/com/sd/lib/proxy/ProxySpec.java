@@ -0,0 +1,146 @@
+package com.sd.lib.proxy;
+
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+/**
+ * 描述要生成的代理class，相同的描述只会生成一次代理class
+ */
+final class ProxySpec
+{
+    /**
+     * 紧凑模式：共享参数打包方法，用一个按下标分发的方法代替每个方法单独的调用父类方法
+     */
+    public static final int FLAG_COMPACT = 1;
+    /**
+     * 延迟代理：不拦截，把所有方法转发给第一次调用的时候才创建的真正对象
+     */
+    public static final int FLAG_LAZY = 1 << 1;
+    /**
+     * 绑定到class：拦截对象和禁止拦截的标识保存在代理class的静态属性中，所有对象共享
+     */
+    public static final int FLAG_CLASS_BOUND = 1 << 2;
+    /**
+     * 带advice：直接调用父类方法的时候在前后回调advice
+     */
+    public static final int FLAG_ADVICE = 1 << 3;
+    /**
+     * 复用参数数组：调用拦截对象的参数数组从当前线程借用，调用结束之后归还
+     */
+    public static final int FLAG_REUSE_ARGS = 1 << 4;
+    /**
+     * 采样拦截：方法可以设置采样间隔，没有采样到的调用直接调用父类方法
+     */
+    public static final int FLAG_SAMPLED = 1 << 5;
+    /**
+     * 分层：统计每个方法的调用次数，调用频繁并且拦截对象class固定的方法之后会生成特化的代理class
+     */
+    public static final int FLAG_TIERED = 1 << 6;
+
+    /**
+     * 由创建代理对象的方法决定的选项，其他选项由代理工厂的设置决定
+     */
+    public static final int FLAGS_PATH = FLAG_CLASS_BOUND | FLAG_ADVICE;
+
+    private final Class<?> mSuperClass;
+    private final Class<?>[] mInterfaces;
+    private final int mFlags;
+    private final int mHashCode;
+
+    /**
+     * @param superClass 代理class的父类
+     * @param interfaces 代理class额外要实现的接口，可以为null
+     */
+    public ProxySpec(Class<?> superClass, Class<?>[] interfaces)
+    {
+        this(superClass, interfaces, 0);
+    }
+
+    /**
+     * @param superClass 代理class的父类
+     * @param interfaces 代理class额外要实现的接口，可以为null
+     * @param flags      生成选项，比如{@link #FLAG_COMPACT}
+     */
+    public ProxySpec(Class<?> superClass, Class<?>[] interfaces, int flags)
+    {
+        mSuperClass = superClass;
+        mInterfaces = (interfaces == null || interfaces.length <= 0) ? null : interfaces.clone();
+        mFlags = flags;
+
+        if (mInterfaces != null)
+        {
+            for (Class<?> item : mInterfaces)
+            {
+                if (item == null || !item.isInterface())
+                {
+                    throw new FProxyException(item + " is not an interface");
+                }
+                if (!Modifier.isPublic(item.getModifiers()))
+                {
+                    throw new FProxyException(item + " must be public");
+                }
+            }
+        }
+
+        mHashCode = (superClass.hashCode() * 31 + Arrays.hashCode(mInterfaces)) * 31 + flags;
+    }
+
+    public Class<?> getSuperClass()
+    {
+        return mSuperClass;
+    }
+
+    /**
+     * 返回额外要实现的接口，没有的话返回null，不要修改返回的数组
+     *
+     * @return
+     */
+    public Class<?>[] getInterfaces()
+    {
+        return mInterfaces;
+    }
+
+    /**
+     * 返回所有生成选项
+     *
+     * @return
+     */
+    public int getFlags()
+    {
+        return mFlags;
+    }
+
+    /**
+     * 是否包含某个生成选项
+     *
+     * @param flag
+     * @return
+     */
+    public boolean hasFlag(int flag)
+    {
+        return (mFlags & flag) != 0;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return mHashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (obj == this)
+        {
+            return true;
+        }
+        if (!(obj instanceof ProxySpec))
+        {
+            return false;
+        }
+        final ProxySpec other = (ProxySpec) obj;
+        return mSuperClass == other.mSuperClass
+                && mFlags == other.mFlags
+                && Arrays.equals(mInterfaces, other.mInterfaces);
+    }
+}
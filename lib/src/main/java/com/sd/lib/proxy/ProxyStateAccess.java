@@ -0,0 +1,384 @@
+package com.sd.lib.proxy;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 无锁读写代理对象的状态（拦截对象，禁止拦截的标识，采样状态），每个代理class一个对象
+ * <p>
+ * 普通的代理class状态保存在代理对象的volatile属性中，通过{@link AtomicReferenceFieldUpdater}比较并替换；
+ * 绑定到class的代理class状态保存在共享的{@link FProxyClassState}中。
+ * 生成的set方法是volatile写，和这里的比较并替换不会互相覆盖中间状态
+ * <p>
+ * 代理class的静态属性{@link FProxyInterface#FIELD_NAME_STATEACCESS}保存这个对象，全局只保存代理class和这个对象的弱引用，
+ * 代理class和ClassLoader不再使用之后可以被回收
+ */
+abstract class ProxyStateAccess
+{
+    private static final Map<Class<?>, WeakReference<ProxyStateAccess>> MAP_ACCESS = new WeakHashMap<>();
+
+    private final Class<?> mClassProxy;
+    private final FMethodInfo[] mMethodInfos;
+    private final boolean[] mHasSuperMethod;
+    /**
+     * 调用父类方法的Method，第一次使用的时候查找
+     */
+    private final AtomicReferenceArray<Method> mSuperMethods;
+
+    private ProxyStateAccess(Class<?> classProxy)
+    {
+        mClassProxy = classProxy;
+        try
+        {
+            final Field field = classProxy.getDeclaredField(FProxyInterface.FIELD_NAME_METHODINFOS);
+            field.setAccessible(true);
+            mMethodInfos = (FMethodInfo[]) field.get(null);
+        } catch (Exception e)
+        {
+            throw new FProxyException(e);
+        }
+
+        mHasSuperMethod = new boolean[mMethodInfos.length];
+        for (int i = 0; i < mMethodInfos.length; i++)
+        {
+            mHasSuperMethod[i] = hasSuperMethod(classProxy.getSuperclass(), mMethodInfos[i].getMethod());
+        }
+        mSuperMethods = new AtomicReferenceArray<>(mMethodInfos.length);
+    }
+
+    /**
+     * 返回代理class对应的对象
+     *
+     * @param classProxy 代理class
+     * @return
+     */
+    public static ProxyStateAccess get(Class<?> classProxy)
+    {
+        synchronized (MAP_ACCESS)
+        {
+            final WeakReference<ProxyStateAccess> ref = MAP_ACCESS.get(classProxy);
+            final ProxyStateAccess access = ref == null ? null : ref.get();
+            if (access != null)
+            {
+                return access;
+            }
+        }
+        return attach(classProxy);
+    }
+
+    /**
+     * 创建代理class对应的对象并保存到代理class的静态属性中，代理工厂设置完代理class的静态属性之后调用；
+     * 已经创建过的话返回已经创建的对象
+     *
+     * @param classProxy 代理class
+     * @return
+     */
+    public static ProxyStateAccess attach(Class<?> classProxy)
+    {
+        if (!FProxyInterface.class.isAssignableFrom(classProxy))
+        {
+            throw new FProxyException(classProxy + " is not a class proxy created by FProxyFactory");
+        }
+
+        synchronized (MAP_ACCESS)
+        {
+            final WeakReference<ProxyStateAccess> ref = MAP_ACCESS.get(classProxy);
+            ProxyStateAccess access = ref == null ? null : ref.get();
+            if (access != null)
+            {
+                return access;
+            }
+
+            // 没有这个静态属性的话（不是生成的代理class）只保存弱引用，被回收之后重新创建
+            Field field = null;
+            try
+            {
+                field = classProxy.getDeclaredField(FProxyInterface.FIELD_NAME_STATEACCESS);
+                field.setAccessible(true);
+                access = (ProxyStateAccess) field.get(null);
+            } catch (NoSuchFieldException e)
+            {
+            } catch (IllegalAccessException e)
+            {
+                throw new FProxyException(e);
+            }
+
+            if (access == null)
+            {
+                final FProxyClassState classState = getClassState(classProxy);
+                access = classState != null ? new ClassBoundAccess(classProxy, classState) : new InstanceAccess(classProxy);
+                if (field != null)
+                {
+                    try
+                    {
+                        field.set(null, access);
+                    } catch (IllegalAccessException e)
+                    {
+                        throw new FProxyException(e);
+                    }
+                }
+            }
+            MAP_ACCESS.put(classProxy, new WeakReference<>(access));
+            return access;
+        }
+    }
+
+    /**
+     * 返回绑定到class的代理class的共享状态，不是绑定到class的代理class返回null
+     *
+     * @param classProxy 代理class
+     * @return
+     */
+    public static FProxyClassState getClassState(Class<?> classProxy)
+    {
+        final Field field;
+        try
+        {
+            field = classProxy.getDeclaredField(FProxyInterface.FIELD_NAME_CLASSSTATE);
+        } catch (NoSuchFieldException e)
+        {
+            return null;
+        }
+        try
+        {
+            field.setAccessible(true);
+            return (FProxyClassState) field.get(null);
+        } catch (IllegalAccessException e)
+        {
+            throw new FProxyException(e);
+        }
+    }
+
+    private static boolean hasSuperMethod(Class<?> classSuper, Method method)
+    {
+        if (!method.getDeclaringClass().isInterface())
+        {
+            return !Modifier.isAbstract(method.getModifiers());
+        }
+        try
+        {
+            final Method methodSuper = classSuper.getMethod(method.getName(), method.getParameterTypes());
+            return !Modifier.isAbstract(methodSuper.getModifiers());
+        } catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * 返回代理class中被拦截的方法信息，不要修改返回的数组
+     *
+     * @return
+     */
+    public FMethodInfo[] getMethodInfos()
+    {
+        return mMethodInfos;
+    }
+
+    /**
+     * 第几个方法是否有父类的实现，没有的话不能禁止拦截和采样
+     *
+     * @param index
+     * @return
+     */
+    public boolean hasSuperMethod(int index)
+    {
+        return mHasSuperMethod[index];
+    }
+
+    /**
+     * 返回代理class中调用父类方法的Method
+     *
+     * @param methodInfo  方法信息
+     * @param methodIndex 方法在代理class中的下标，未知的话传-1
+     * @return
+     */
+    public Method getSuperMethod(FMethodInfo methodInfo, int methodIndex)
+    {
+        final int index = indexOf(methodInfo, methodIndex);
+        Method method = mSuperMethods.get(index);
+        if (method == null)
+        {
+            try
+            {
+                method = mClassProxy.getDeclaredMethod(methodInfo.getName() + FProxyInterface.PROXY_CLASS_INVOKE_SUPER_METHOD_SUFFIX,
+                        methodInfo.getArgsClass());
+            } catch (NoSuchMethodException e)
+            {
+                throw new FProxyException(e);
+            }
+            mSuperMethods.set(index, method);
+        }
+        return method;
+    }
+
+    private int indexOf(FMethodInfo methodInfo, int methodIndex)
+    {
+        if (methodIndex >= 0 && methodIndex < mMethodInfos.length && mMethodInfos[methodIndex] == methodInfo)
+        {
+            return methodIndex;
+        }
+        for (int i = 0; i < mMethodInfos.length; i++)
+        {
+            if (mMethodInfos[i] == methodInfo)
+            {
+                return i;
+            }
+        }
+        throw new FProxyException(methodInfo + " is not intercepted by " + mClassProxy);
+    }
+
+    public abstract FMethodInterceptor getMethodInterceptor(Object proxy);
+
+    public abstract boolean compareAndSetMethodInterceptor(Object proxy, FMethodInterceptor expect, FMethodInterceptor update);
+
+    public abstract long[] getInterceptFlags(Object proxy);
+
+    public abstract boolean compareAndSetInterceptFlags(Object proxy, long[] expect, long[] update);
+
+    public abstract int[] getSampleState(Object proxy);
+
+    public abstract boolean compareAndSetSampleState(Object proxy, int[] expect, int[] update);
+
+    /**
+     * 状态保存在代理对象的属性中
+     */
+    private static final class InstanceAccess extends ProxyStateAccess
+    {
+        private final AtomicReferenceFieldUpdater<Object, FMethodInterceptor> mUpdaterMethodInterceptor;
+        private final AtomicReferenceFieldUpdater<Object, long[]> mUpdaterInterceptFlags;
+        private final AtomicReferenceFieldUpdater<Object, int[]> mUpdaterSampleState;
+
+        public InstanceAccess(Class<?> classProxy)
+        {
+            super(classProxy);
+            final Class<Object> clazz = (Class<Object>) classProxy;
+            mUpdaterMethodInterceptor = AtomicReferenceFieldUpdater.newUpdater(clazz,
+                    FMethodInterceptor.class, FProxyInterface.FIELD_NAME_METHODINTERCEPTOR);
+            mUpdaterInterceptFlags = AtomicReferenceFieldUpdater.newUpdater(clazz,
+                    long[].class, FProxyInterface.FIELD_NAME_INTERCEPTFLAGS);
+            mUpdaterSampleState = FSampledProxyInterface.class.isAssignableFrom(classProxy) ?
+                    AtomicReferenceFieldUpdater.newUpdater(clazz, int[].class, FSampledProxyInterface.FIELD_NAME_SAMPLESTATE) : null;
+        }
+
+        @Override
+        public FMethodInterceptor getMethodInterceptor(Object proxy)
+        {
+            return mUpdaterMethodInterceptor.get(proxy);
+        }
+
+        @Override
+        public boolean compareAndSetMethodInterceptor(Object proxy, FMethodInterceptor expect, FMethodInterceptor update)
+        {
+            return mUpdaterMethodInterceptor.compareAndSet(proxy, expect, update);
+        }
+
+        @Override
+        public long[] getInterceptFlags(Object proxy)
+        {
+            return mUpdaterInterceptFlags.get(proxy);
+        }
+
+        @Override
+        public boolean compareAndSetInterceptFlags(Object proxy, long[] expect, long[] update)
+        {
+            return mUpdaterInterceptFlags.compareAndSet(proxy, expect, update);
+        }
+
+        @Override
+        public int[] getSampleState(Object proxy)
+        {
+            return getUpdaterSampleState().get(proxy);
+        }
+
+        @Override
+        public boolean compareAndSetSampleState(Object proxy, int[] expect, int[] update)
+        {
+            return getUpdaterSampleState().compareAndSet(proxy, expect, update);
+        }
+
+        private AtomicReferenceFieldUpdater<Object, int[]> getUpdaterSampleState()
+        {
+            if (mUpdaterSampleState == null)
+            {
+                throw new FProxyException("proxy is not created with sampling enabled, see FProxyFactory.setSampleRate(int)");
+            }
+            return mUpdaterSampleState;
+        }
+    }
+
+    /**
+     * 状态保存在代理class共享的{@link FProxyClassState}中
+     */
+    private static final class ClassBoundAccess extends ProxyStateAccess
+    {
+        private static final AtomicReferenceFieldUpdater<FProxyClassState, FMethodInterceptor> UPDATER_METHODINTERCEPTOR =
+                AtomicReferenceFieldUpdater.newUpdater(FProxyClassState.class, FMethodInterceptor.class, FProxyInterface.FIELD_NAME_METHODINTERCEPTOR);
+        private static final AtomicReferenceFieldUpdater<FProxyClassState, long[]> UPDATER_INTERCEPTFLAGS =
+                AtomicReferenceFieldUpdater.newUpdater(FProxyClassState.class, long[].class, FProxyInterface.FIELD_NAME_INTERCEPTFLAGS);
+        private static final AtomicReferenceFieldUpdater<FProxyClassState, int[]> UPDATER_SAMPLESTATE =
+                AtomicReferenceFieldUpdater.newUpdater(FProxyClassState.class, int[].class, FSampledProxyInterface.FIELD_NAME_SAMPLESTATE);
+
+        private final FProxyClassState mClassState;
+        private final boolean mSampled;
+
+        public ClassBoundAccess(Class<?> classProxy, FProxyClassState classState)
+        {
+            super(classProxy);
+            mClassState = classState;
+            mSampled = FSampledProxyInterface.class.isAssignableFrom(classProxy);
+        }
+
+        @Override
+        public FMethodInterceptor getMethodInterceptor(Object proxy)
+        {
+            return mClassState.mMethodInterceptor;
+        }
+
+        @Override
+        public boolean compareAndSetMethodInterceptor(Object proxy, FMethodInterceptor expect, FMethodInterceptor update)
+        {
+            return UPDATER_METHODINTERCEPTOR.compareAndSet(mClassState, expect, update);
+        }
+
+        @Override
+        public long[] getInterceptFlags(Object proxy)
+        {
+            return mClassState.mInterceptFlags;
+        }
+
+        @Override
+        public boolean compareAndSetInterceptFlags(Object proxy, long[] expect, long[] update)
+        {
+            return UPDATER_INTERCEPTFLAGS.compareAndSet(mClassState, expect, update);
+        }
+
+        @Override
+        public int[] getSampleState(Object proxy)
+        {
+            checkSampled();
+            return mClassState.mSampleState;
+        }
+
+        @Override
+        public boolean compareAndSetSampleState(Object proxy, int[] expect, int[] update)
+        {
+            checkSampled();
+            return UPDATER_SAMPLESTATE.compareAndSet(mClassState, expect, update);
+        }
+
+        private void checkSampled()
+        {
+            if (!mSampled)
+            {
+                throw new FProxyException("proxy is not created with sampling enabled, see FProxyFactory.setSampleRate(int)");
+            }
+        }
+    }
+}
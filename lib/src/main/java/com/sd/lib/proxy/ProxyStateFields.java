@@ -0,0 +1,142 @@
+package com.sd.lib.proxy;
+
+import com.android.dx.Code;
+import com.android.dx.FieldId;
+import com.android.dx.Local;
+
+import java.lang.reflect.Modifier;
+
+/**
+ * 生成代理class的状态属性：拦截对象，禁止拦截的标识，采样状态
+ * <p>
+ * 绑定到class的模式下状态保存在静态属性sClassState指向的{@link FProxyClassState}中，对象不保存额外的状态；
+ * 否则保存在对象的属性中，属性是public的，FProxyControl通过AtomicReferenceFieldUpdater无锁修改
+ */
+final class ProxyStateFields
+{
+    private final DexMakerHelper mHelper;
+    /**
+     * 绑定到class的模式下保存状态的静态属性，否则为null
+     */
+    private final FieldId mFieldClassState;
+
+    /**
+     * @param helper
+     * @param isClassBound 是否绑定到class
+     */
+    public ProxyStateFields(DexMakerHelper helper, boolean isClassBound)
+    {
+        mHelper = helper;
+        mFieldClassState = isClassBound ? helper.getField(helper.getProxyClass(),
+                FProxyClassState.class, FProxyInterface.FIELD_NAME_CLASSSTATE) : null;
+    }
+
+    /**
+     * 是否绑定到class
+     *
+     * @return
+     */
+    public boolean isClassBound()
+    {
+        return mFieldClassState != null;
+    }
+
+    /**
+     * 绑定到class的模式下声明保存状态的静态属性
+     *
+     * <pre>
+     * private static FProxyClassState sClassState = null;
+     * </pre>
+     */
+    public void declareClassState()
+    {
+        if (mFieldClassState != null)
+        {
+            mHelper.declareField(Modifier.PRIVATE | Modifier.STATIC,
+                    FProxyClassState.class, FProxyInterface.FIELD_NAME_CLASSSTATE, null);
+        }
+    }
+
+    /**
+     * 声明状态属性，绑定到class的模式下状态属性是{@link FProxyClassState}的属性，不需要声明
+     *
+     * <pre>
+     * public volatile FMethodInterceptor mMethodInterceptor = null;
+     * </pre>
+     *
+     * @param classField 属性的class
+     * @param fieldName  属性名称
+     * @return 状态属性
+     */
+    public FieldId declareField(Class<?> classField, String fieldName)
+    {
+        if (mFieldClassState != null)
+        {
+            return mHelper.getField(FProxyClassState.class, classField, fieldName);
+        }
+        mHelper.declareField(Modifier.PUBLIC | Modifier.VOLATILE, classField, fieldName, null);
+        return mHelper.getField(mHelper.getProxyClass(), classField, fieldName);
+    }
+
+    /**
+     * 生成状态属性的set方法
+     */
+    public void declareSetter(FieldId field, Class<?> classField, String methodName)
+    {
+        if (mFieldClassState == null)
+        {
+            mHelper.declareFieldSetter(field, classField, methodName);
+            return;
+        }
+
+        final Code code = mHelper.declareMethod(Modifier.PUBLIC, Void.class, methodName, classField);
+        final Local<FProxyClassState> localClassState = mHelper.newLocal(code, FProxyClassState.class);
+        code.sget(mFieldClassState, localClassState);
+        code.iput(field, localClassState, mHelper.getParameter(code, 0, classField));
+        code.returnVoid();
+    }
+
+    /**
+     * 生成状态属性的get方法
+     */
+    public void declareGetter(FieldId field, Class<?> classField, String methodName)
+    {
+        if (mFieldClassState == null)
+        {
+            mHelper.declareFieldGetter(field, classField, methodName);
+            return;
+        }
+
+        final Code code = mHelper.declareMethod(Modifier.PUBLIC, classField, methodName);
+        final Local local = mHelper.newLocal(code, classField);
+        final Local<FProxyClassState> localClassState = mHelper.newLocal(code, FProxyClassState.class);
+        code.sget(mFieldClassState, localClassState);
+        code.iget(field, local, localClassState);
+        code.returnValue(local);
+    }
+
+    /**
+     * 读取状态属性
+     *
+     * <pre>
+     * target = mMethodInterceptor;               // 普通的代理class
+     * target = sClassState.mMethodInterceptor;   // 绑定到class的代理class
+     * </pre>
+     *
+     * @param code
+     * @param field           状态属性
+     * @param localClassState 绑定到class的模式下保存{@link FProxyClassState}的变量，否则为null
+     * @param target          保存属性值的变量
+     */
+    public void load(Code code, FieldId field, Local<FProxyClassState> localClassState, Local target)
+    {
+        if (mFieldClassState == null)
+        {
+            code.iget(field, target, mHelper.getThis(code));
+        } else
+        {
+            code.sget(mFieldClassState, localClassState);
+            code.iget(field, target, localClassState);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.sd.lib.proxy;
+
+import com.android.dx.BinaryOp;
+import com.android.dx.Code;
+import com.android.dx.Comparison;
+import com.android.dx.FieldId;
+import com.android.dx.Label;
+import com.android.dx.Local;
+
+/**
+ * 生成采样模式的代码，要拦截的调用按方法的采样间隔跳过，只有采样到的调用才通知拦截对象
+ * <p>
+ * 采样状态是一个int数组，下标methodIndex * 2保存采样间隔，methodIndex * 2 + 1保存距离上次采样的调用次数
+ */
+final class SamplingGenerator
+{
+    private final DexMakerHelper mHelper;
+    private final ProxyStateFields mStateFields;
+    private FieldId mFieldSampleState;
+
+    public SamplingGenerator(DexMakerHelper helper, ProxyStateFields stateFields)
+    {
+        mHelper = helper;
+        mStateFields = stateFields;
+    }
+
+    /**
+     * 声明采样状态的属性
+     *
+     * <pre>
+     * public volatile int[] mSampleState = null;
+     * </pre>
+     */
+    public void declareFields()
+    {
+        mFieldSampleState = mStateFields.declareField(int[].class, FSampledProxyInterface.FIELD_NAME_SAMPLESTATE);
+    }
+
+    /**
+     * 生成{@link FSampledProxyInterface}的方法
+     */
+    public void declareInterfaceMethods()
+    {
+        mStateFields.declareSetter(mFieldSampleState, int[].class, FSampledProxyInterface.METHOD_NAME_SETSAMPLESTATE);
+        mStateFields.declareGetter(mFieldSampleState, int[].class, FSampledProxyInterface.METHOD_NAME_GETSAMPLESTATE);
+    }
+
+    /**
+     * 创建采样用到的变量，要在方法的第一条指令之前调用
+     */
+    public Locals newLocals(Code code)
+    {
+        final Locals locals = new Locals();
+        locals.sampleState = mHelper.newLocal(code, int[].class);
+        locals.sampleRate = mHelper.newLocal(code, int.class);
+        locals.sampleCount = mHelper.newLocal(code, int.class);
+        locals.intOne = mHelper.newLocal(code, int.class);
+        return locals;
+    }
+
+    /**
+     * 生成检查是否采样到的代码，没采样到的话跳到调用父类方法的代码
+     *
+     * <pre>
+     * int[] state = mSampleState;
+     * if (state != null && state[methodIndex * 2] > 1)
+     * {
+     *     int count = state[methodIndex * 2 + 1] + 1;
+     *     if (count < state[methodIndex * 2])
+     *     {
+     *         state[methodIndex * 2 + 1] = count;
+     *         return super.method(args);
+     *     }
+     *     state[methodIndex * 2 + 1] = 0;
+     * }
+     * </pre>
+     *
+     * @param code
+     * @param methodIndex      方法下标
+     * @param locals           采样用到的变量
+     * @param methodLocals     方法共用的变量
+     * @param labelInvokeSuper 调用父类方法的代码
+     * @param labelIntercept   通知拦截对象的代码
+     */
+    public void emitCheck(Code code, int methodIndex, Locals locals, ProxyClassGenerator.MethodLocals methodLocals,
+                          Label labelInvokeSuper, Label labelIntercept)
+    {
+        final Label labelSampled = new Label();
+
+        mStateFields.load(code, mFieldSampleState, methodLocals.classState, locals.sampleState);
+        code.loadConstant(methodLocals.objectTmp, null);
+        code.compare(Comparison.EQ, labelIntercept, locals.sampleState, (Local) methodLocals.objectTmp);
+
+        code.loadConstant(methodLocals.intTmp, methodIndex * 2);
+        code.aget(locals.sampleRate, locals.sampleState, methodLocals.intTmp);
+        code.loadConstant(locals.intOne, 1);
+        code.compare(Comparison.LE, labelIntercept, locals.sampleRate, locals.intOne);
+
+        code.loadConstant(methodLocals.intTmp, methodIndex * 2 + 1);
+        code.aget(locals.sampleCount, locals.sampleState, methodLocals.intTmp);
+        code.op(BinaryOp.ADD, locals.sampleCount, locals.sampleCount, locals.intOne);
+        code.compare(Comparison.GE, labelSampled, locals.sampleCount, locals.sampleRate);
+        code.aput(locals.sampleState, methodLocals.intTmp, locals.sampleCount);
+        code.jump(labelInvokeSuper);
+
+        code.mark(labelSampled);
+        code.loadConstant(methodLocals.intZero, 0);
+        code.aput(locals.sampleState, methodLocals.intTmp, methodLocals.intZero);
+    }
+
+    /**
+     * 采样用到的变量
+     */
+    static final class Locals
+    {
+        public Local<int[]> sampleState;
+        public Local<Integer> sampleRate;
+        public Local<Integer> sampleCount;
+        public Local<Integer> intOne;
+    }
+}
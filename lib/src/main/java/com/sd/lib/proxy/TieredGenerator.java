@@ -0,0 +1,195 @@
+package com.sd.lib.proxy;
+
+import com.android.dx.Code;
+import com.android.dx.Comparison;
+import com.android.dx.FieldId;
+import com.android.dx.Label;
+import com.android.dx.Local;
+import com.android.dx.MethodId;
+
+import java.lang.reflect.Modifier;
+
+/**
+ * 生成分层模式的代码
+ * <p>
+ * 还没特化的代理class把每次调用的拦截对象记录到{@link FTieredProfile}；
+ * 特化的代理class对拦截对象class固定的方法直接调用拦截对象，不经过{@link FProxyHelper#notifyInterceptor}
+ */
+final class TieredGenerator
+{
+    private final DexMakerHelper mHelper;
+    /**
+     * 每个方法特化的拦截对象class，为null的话统计调用次数
+     */
+    private final Class<?>[] mSpecializedTypes;
+    private final FieldId mFieldTieredProfile;
+    private final MethodId mMethodRecord;
+    private final MethodId mMethodNewInterceptInfo;
+
+    /**
+     * @param helper
+     * @param specializedTypes 每个方法特化的拦截对象class，为null的话生成统计调用次数的代理class
+     */
+    public TieredGenerator(DexMakerHelper helper, Class<?>[] specializedTypes)
+    {
+        mHelper = helper;
+        mSpecializedTypes = specializedTypes;
+        mFieldTieredProfile = helper.getField(helper.getProxyClass(),
+                FTieredProfile.class, FProxyInterface.FIELD_NAME_TIEREDPROFILE);
+        mMethodRecord = helper.getMethod(FTieredProfile.class,
+                Void.class, FTieredProfile.METHOD_NAME_RECORD, int.class, FMethodInterceptor.class);
+        mMethodNewInterceptInfo = helper.getMethod(FProxyHelper.class,
+                FInterceptInfo.class, FProxyHelper.METHOD_NAME_NEWINTERCEPTINFO,
+                FMethodInfo.class, int.class, Object.class);
+    }
+
+    /**
+     * 是否统计调用次数
+     *
+     * @return
+     */
+    public boolean isCounting()
+    {
+        return mSpecializedTypes == null;
+    }
+
+    /**
+     * 返回方法特化的拦截对象class，没有特化的话返回null
+     *
+     * @param methodIndex 方法下标
+     * @return
+     */
+    public Class<?> getSpecializedType(int methodIndex)
+    {
+        return mSpecializedTypes == null ? null : mSpecializedTypes[methodIndex];
+    }
+
+    /**
+     * 通知拦截对象之前是否要把拦截对象读到变量中
+     *
+     * @param methodIndex 方法下标
+     * @return
+     */
+    public boolean isLoadInterceptor(int methodIndex)
+    {
+        return isCounting() || getSpecializedType(methodIndex) != null;
+    }
+
+    /**
+     * 统计调用次数的话声明保存统计信息的静态属性
+     */
+    public void declareFields()
+    {
+        if (isCounting())
+        {
+            // private static FTieredProfile sTieredProfile = null;
+            mHelper.declareField(Modifier.PRIVATE | Modifier.STATIC,
+                    FTieredProfile.class, FProxyInterface.FIELD_NAME_TIEREDPROFILE, null);
+        }
+    }
+
+    /**
+     * 创建分层模式用到的变量，要在方法的第一条指令之前调用
+     */
+    public Locals newLocals(Code code, int methodIndex)
+    {
+        final Locals locals = new Locals();
+        if (isCounting())
+        {
+            locals.tieredProfile = mHelper.newLocal(code, FTieredProfile.class);
+        }
+
+        final Class<?> specializedType = getSpecializedType(methodIndex);
+        if (specializedType != null)
+        {
+            locals.specialized = mHelper.newLocal(code, specializedType);
+            locals.interceptInfo = mHelper.newLocal(code, FInterceptInfo.class);
+            locals.isInstance = mHelper.newLocal(code, int.class);
+        }
+        return locals;
+    }
+
+    /**
+     * 统计调用次数的话生成记录拦截对象的代码
+     *
+     * <pre>
+     * FTieredProfile profile = sTieredProfile;
+     * if (profile != null) profile.record(methodIndex, interceptor);
+     * </pre>
+     */
+    public void emitRecord(Code code, int methodIndex, Locals locals, ProxyClassGenerator.MethodLocals methodLocals)
+    {
+        if (!isCounting())
+        {
+            return;
+        }
+
+        final Label labelRecorded = new Label();
+        code.sget(mFieldTieredProfile, locals.tieredProfile);
+        code.loadConstant(methodLocals.objectTmp, null);
+        code.compare(Comparison.EQ, labelRecorded, locals.tieredProfile, (Local) methodLocals.objectTmp);
+        code.loadConstant(methodLocals.intTmp, methodIndex);
+        code.invokeVirtual(mMethodRecord, null, locals.tieredProfile, methodLocals.intTmp, methodLocals.interceptor);
+        code.mark(labelRecorded);
+    }
+
+    /**
+     * 方法特化的话生成直接调用拦截对象的代码，拦截对象不是特化的class的话继续执行后面通用的通知代码
+     *
+     * <pre>
+     * if (interceptor instanceof SpecializedInterceptor)
+     * {
+     *     FInterceptInfo info = FProxyHelper.newInterceptInfo(methodInfo, methodIndex, this);
+     *     result = ((SpecializedInterceptor) interceptor).intercept(info, args);
+     * } else
+     * {
+     *     result = FProxyHelper.notifyInterceptor(methodInfo, methodIndex, args, this);
+     * }
+     * </pre>
+     *
+     * @param code
+     * @param methodIndex  方法下标，调用之前已经加载到methodLocals.intTmp
+     * @param isReturnVoid 方法是否没有返回值
+     * @param locals       分层模式用到的变量
+     * @param methodLocals 方法共用的变量
+     * @return 通用的通知代码之后要标记的位置，方法没有特化的话返回null
+     */
+    public Label emitSpecializedIntercept(Code code, int methodIndex, boolean isReturnVoid,
+                                          Locals locals, ProxyClassGenerator.MethodLocals methodLocals)
+    {
+        final Class<?> specializedType = getSpecializedType(methodIndex);
+        if (specializedType == null)
+        {
+            return null;
+        }
+
+        final Label labelIntercepted = new Label();
+        final Label labelGeneric = new Label();
+        code.instanceOfType(locals.isInstance, methodLocals.interceptor, mHelper.getType(specializedType));
+        code.loadConstant(methodLocals.intZero, 0);
+        code.compare(Comparison.EQ, labelGeneric, locals.isInstance, methodLocals.intZero);
+
+        code.cast(locals.specialized, methodLocals.interceptor);
+        code.invokeStatic(mMethodNewInterceptInfo, locals.interceptInfo,
+                methodLocals.methodInfo, methodLocals.intTmp, mHelper.getThis(code));
+        final MethodId methodIntercept = mHelper.getMethod(specializedType,
+                Object.class, "intercept", FInterceptInfo.class, Object[].class);
+        code.invokeVirtual(methodIntercept, isReturnVoid ? null : methodLocals.interceptResult,
+                locals.specialized, locals.interceptInfo, methodLocals.argsValue);
+        code.jump(labelIntercepted);
+
+        code.mark(labelGeneric);
+        return labelIntercepted;
+    }
+
+    /**
+     * 分层模式用到的变量，没用到的为null
+     */
+    static final class Locals
+    {
+        public Local<FTieredProfile> tieredProfile;
+        public Local specialized;
+        public Local<FInterceptInfo> interceptInfo;
+        public Local<Integer> isInstance;
+    }
+}
@@ -0,0 +1,671 @@
+package com.sd.lib.proxy;
+
+import android.content.ContextWrapper;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 检查README中“每次调用的内存分配”列出的预算，可以在JVM上运行的调用路径超过预算的话测试失败
+ * <p>
+ * 预算按对象数量声明，每个对象按{@link AllocationMeter#getObjectBytes()}计算字节数；
+ * 生成的代理class只能在ART上加载，这里用{@link DispatchProxy}按生成的代码调用{@link FProxyHelper}检查
+ */
+public class AllocationBudgetTest
+{
+    private static final Object RESULT = new Object();
+    /**
+     * 不在Integer.valueOf缓存范围内的参数
+     */
+    private static final int INT_ARG = 100000;
+
+    private int mObjectBytes;
+    private FMethodInterceptor mInterceptor;
+    /**
+     * 保存拦截信息和参数，避免JIT的逃逸分析把这些对象优化掉
+     */
+    private FMethodInterceptor mEscapingInterceptor;
+    private volatile Object mEscapedInfo;
+    private volatile Object[] mEscapedArgs;
+    private FMethodInfo mMethodNoArgs;
+    private FMethodInfo mMethodIntArg;
+    private FInterceptInfo mInfoNoArgs;
+    private FInterceptInfo mInfoIntArg;
+    private Object[] mArgsInt;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Assume.assumeTrue("thread allocation counter is not supported", AllocationMeter.isSupported());
+        mObjectBytes = AllocationMeter.getObjectBytes();
+
+        mInterceptor = new FMethodInterceptor()
+        {
+            @Override
+            public Object intercept(FInterceptInfo info, Object[] args)
+            {
+                return RESULT;
+            }
+        };
+        mEscapingInterceptor = new FMethodInterceptor()
+        {
+            @Override
+            public Object intercept(FInterceptInfo info, Object[] args)
+            {
+                mEscapedInfo = info;
+                mEscapedArgs = args;
+                return RESULT;
+            }
+        };
+        mMethodNoArgs = FMethodInfo.get(Service.class.getMethod("call"));
+        mMethodIntArg = FMethodInfo.get(Service.class.getMethod("callInt", int.class));
+        mInfoNoArgs = new FInterceptInfo(this, mMethodNoArgs);
+        mInfoIntArg = new FInterceptInfo(this, mMethodIntArg);
+        mArgsInt = new Object[]{INT_ARG};
+    }
+
+    @Test
+    public void testInterfaceProxy()
+    {
+        final FProxyFactory factory = new FProxyFactory(new ContextWrapper(null));
+        final Service service = factory.newProxy(Service.class, mInterceptor);
+        final Object arg = new Object();
+
+        // FInterceptInfo
+        assertBudget("interface proxy, no args", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                service.call();
+            }
+        });
+        // FInterceptInfo、Object[]、Integer
+        assertBudget("interface proxy, int arg", 3, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                service.callInt(INT_ARG);
+            }
+        });
+        // FInterceptInfo、Object[]
+        assertBudget("interface proxy, object arg", 2, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                service.callObject(arg);
+            }
+        });
+    }
+
+    @Test
+    public void testNotifyInterceptor()
+    {
+        final DispatchProxy proxy = new DispatchProxy(false);
+        final FMethodInfo[] methodInfos = DispatchProxy.sMethodInfos;
+        final Object[] argsObject = new Object[]{RESULT};
+
+        // 没有拦截对象的话按方法下标调用父类方法
+        assertBudget("FProxyHelper.notifyInterceptor, null interceptor, no args", 0, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                FProxyHelper.notifyInterceptor(methodInfos[0], 0, null, proxy);
+            }
+        });
+        assertBudget("FProxyHelper.notifyInterceptor, null interceptor, primitive arg", 0, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                FProxyHelper.notifyInterceptor(methodInfos[1], 1, mArgsInt, proxy);
+            }
+        });
+        assertBudget("FProxyHelper.notifyInterceptor, null interceptor, object arg", 0, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                FProxyHelper.notifyInterceptor(methodInfos[2], 2, argsObject, proxy);
+            }
+        });
+
+        proxy.setMethodInterceptor$FProxy$(mEscapingInterceptor);
+        // FInterceptInfo
+        assertBudget("FProxyHelper.notifyInterceptor, no args", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                FProxyHelper.notifyInterceptor(methodInfos[0], 0, null, proxy);
+            }
+        });
+        assertBudget("FProxyHelper.notifyInterceptor, primitive arg", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                FProxyHelper.notifyInterceptor(methodInfos[1], 1, mArgsInt, proxy);
+            }
+        });
+        assertBudget("FProxyHelper.notifyInterceptor, object arg", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                FProxyHelper.notifyInterceptor(methodInfos[2], 2, argsObject, proxy);
+            }
+        });
+        assertBudget("FProxyHelper.newInterceptInfo", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mEscapedInfo = FProxyHelper.newInterceptInfo(methodInfos[0], 0, proxy);
+            }
+        });
+    }
+
+    @Test
+    public void testGeneratedProxy()
+    {
+        final DispatchProxy proxy = new DispatchProxy(false);
+        final DispatchProxy proxyReuseArgs = new DispatchProxy(true);
+        final Object arg = new Object();
+
+        assertGeneratedProxy("generated proxy, null interceptor", proxy, arg, 0, 0, 0);
+
+        proxy.setMethodInterceptor$FProxy$(mEscapingInterceptor);
+        // 无参数：FInterceptInfo；基本类型参数：FInterceptInfo、Object[]、Integer；对象参数：FInterceptInfo、Object[]
+        assertGeneratedProxy("generated proxy", proxy, arg, 1, 3, 2);
+
+        proxyReuseArgs.setMethodInterceptor$FProxy$(mEscapingInterceptor);
+        // 无参数：FInterceptInfo；基本类型参数：FInterceptInfo、Integer；对象参数：FInterceptInfo
+        assertGeneratedProxy("generated proxy, reuse args", proxyReuseArgs, arg, 1, 2, 1);
+    }
+
+    private void assertGeneratedProxy(String path, final DispatchProxy proxy, final Object arg,
+                                      int noArgsCount, int intArgCount, int objectArgCount)
+    {
+        assertBudget(path + ", no args", noArgsCount, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                proxy.call();
+            }
+        });
+        assertBudget(path + ", int arg", intArgCount, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                proxy.callInt(INT_ARG);
+            }
+        });
+        assertBudget(path + ", object arg", objectArgCount, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                proxy.callObject(arg);
+            }
+        });
+    }
+
+    @Test
+    public void testMethodKey() throws Exception
+    {
+        final FMethodInfo methodObjectArg = FMethodInfo.get(Service.class.getMethod("callObject", Object.class));
+        final Object[] argsObject = new Object[]{"key"};
+        final Object[] argsMulti = new Object[]{"key", INT_ARG};
+
+        assertBudget("MethodKey.obtain, no args", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MethodKey.obtain(this, mMethodNoArgs, null);
+            }
+        });
+        assertBudget("MethodKey.obtain, primitive arg", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MethodKey.obtain(this, mMethodIntArg, mArgsInt);
+            }
+        });
+        assertBudget("MethodKey.obtain, object arg", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MethodKey.obtain(this, methodObjectArg, argsObject);
+            }
+        });
+        assertBudget("MethodKey.obtain, multiple args", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MethodKey.obtain(this, mMethodIntArg, argsMulti);
+            }
+        });
+    }
+
+    @Test
+    public void testCachingInterceptorHit()
+    {
+        final FCachingInterceptor interceptor = new FCachingInterceptor(16, mInterceptor);
+
+        // key
+        assertBudget("FCachingInterceptor hit, no args", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                interceptor.intercept(mInfoNoArgs, null);
+            }
+        });
+        assertBudget("FCachingInterceptor hit, int arg", 1, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                interceptor.intercept(mInfoIntArg, mArgsInt);
+            }
+        });
+        assertTrue(interceptor.getMissCount() == 2);
+    }
+
+    @Test
+    public void testSingleFlightInterceptor()
+    {
+        final FSingleFlightInterceptor interceptor = new FSingleFlightInterceptor(mInterceptor);
+
+        // key、Flight、CountDownLatch、CountDownLatch.Sync、ConcurrentHashMap节点
+        assertBudget("FSingleFlightInterceptor, no args", 5, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                interceptor.intercept(mInfoNoArgs, null);
+            }
+        });
+        assertBudget("FSingleFlightInterceptor, int arg", 5, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                interceptor.intercept(mInfoIntArg, mArgsInt);
+            }
+        });
+        assertTrue(interceptor.getShareCount() == 0 && interceptor.getExecuteCount() > 0);
+    }
+
+    @Test
+    public void testBatchingInterceptorCollapse() throws Exception
+    {
+        final FBatchingInterceptor interceptor = new FBatchingInterceptor(Integer.MAX_VALUE, Long.MAX_VALUE / 2, new FBatchingInterceptor.Callback()
+        {
+            @Override
+            public void onFlush(List<FBatchingInterceptor.Call> calls)
+            {
+            }
+        });
+        interceptor.setCollapse(true);
+        final FInterceptInfo info = new FInterceptInfo(this, FMethodInfo.get(Service.class.getMethod("post", Object.class)));
+        final Object[] args = new Object[]{"post"};
+        interceptor.intercept(info, args);
+
+        assertBudget("FBatchingInterceptor, collapse into pending call", 0, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                interceptor.intercept(info, args);
+            }
+        });
+        assertTrue(interceptor.getPendingCount() == 1);
+    }
+
+    @Test
+    public void testBulkheadInterceptor()
+    {
+        final FBulkheadInterceptor shared = new FBulkheadInterceptor(4, FBulkheadInterceptor.Scope.SHARED, FBulkheadInterceptor.Policy.REJECT, 0, mInterceptor);
+        final FBulkheadInterceptor perMethod = new FBulkheadInterceptor(4, FBulkheadInterceptor.Scope.PER_METHOD, FBulkheadInterceptor.Policy.REJECT, 0, mInterceptor);
+        final FBulkheadInterceptor perProxy = new FBulkheadInterceptor(4, FBulkheadInterceptor.Scope.PER_PROXY, FBulkheadInterceptor.Policy.REJECT, 0, mInterceptor);
+
+        assertBudget("FBulkheadInterceptor, shared permits", 0, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                shared.intercept(mInfoIntArg, mArgsInt);
+            }
+        });
+        assertBudget("FBulkheadInterceptor, per method permits", 0, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                perMethod.intercept(mInfoIntArg, mArgsInt);
+            }
+        });
+        assertBudget("FBulkheadInterceptor, per proxy permits", 0, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                perProxy.intercept(mInfoIntArg, mArgsInt);
+            }
+        });
+    }
+
+    @Test
+    public void testTracingInterceptor()
+    {
+        final FTracingInterceptor interceptor = new FTracingInterceptor(1024, mInterceptor);
+
+        assertBudget("FTracingInterceptor", 0, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                interceptor.intercept(mInfoIntArg, mArgsInt);
+            }
+        });
+    }
+
+    @Test
+    public void testJournalInterceptor() throws IOException
+    {
+        final File file = File.createTempFile("journal", ".bin");
+        file.deleteOnExit();
+        final FJournalInterceptor interceptor = new FJournalInterceptor(file, 64, 128, mInterceptor);
+        final Object[] args = new Object[]{INT_ARG, "journal", 1.5d, null, new Object()};
+
+        assertBudget("FJournalInterceptor", 0, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                interceptor.intercept(mInfoIntArg, args);
+            }
+        });
+    }
+
+    @Test
+    public void testProxyPoolHit()
+    {
+        final FProxyFactory factory = new FProxyFactory(new ContextWrapper(null));
+        final FProxyPool<PooledTarget> pool = new FProxyPool<PooledTarget>(factory, PooledTarget.class, 4)
+        {
+            @Override
+            PooledTarget createProxy(FMethodInterceptor methodInterceptor)
+            {
+                final PooledProxy proxy = new PooledProxy();
+                proxy.setMethodInterceptor$FProxy$(methodInterceptor);
+                return proxy;
+            }
+        };
+        pool.release(pool.acquire(mInterceptor));
+
+        assertBudget("FProxyPool acquire and release", 0, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                pool.release(pool.acquire(mInterceptor));
+            }
+        });
+        assertTrue(pool.getMissCount() == 1);
+    }
+
+    @Test
+    public void testArgsFrames()
+    {
+        assertBudget("FProxyHelper.obtainArgs, nested", 0, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final Object[] outer = FProxyHelper.obtainArgs(2);
+                final Object[] inner = FProxyHelper.obtainArgs(2);
+                FProxyHelper.releaseArgs(inner);
+                FProxyHelper.releaseArgs(outer);
+            }
+        });
+        // 超过16个参数的话不复用，每次创建一个Object[17]，数组元素按引用最大8字节计算
+        assertBudget("FProxyHelper.obtainArgs, too many args", 1, 17 * 8, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                FProxyHelper.releaseArgs(FProxyHelper.obtainArgs(17));
+            }
+        });
+    }
+
+    private void assertBudget(String path, int objectCount, Runnable action)
+    {
+        assertBudget(path, objectCount, 0, action);
+    }
+
+    /**
+     * @param extraBytes 对象之外允许的字节数，比如数组元素
+     */
+    private void assertBudget(String path, int objectCount, int extraBytes, Runnable action)
+    {
+        final double bytes = AllocationMeter.measure(action);
+        // 允许计数器本身的少量分配
+        final double budget = objectCount * mObjectBytes + extraBytes + 0.5;
+        assertTrue(path + " allocated " + bytes + " bytes per call, budget is " + objectCount + " objects (" + budget + " bytes)",
+                bytes <= budget);
+    }
+
+    public interface Service
+    {
+        Object call();
+
+        Object callInt(int value);
+
+        Object callObject(Object value);
+
+        void post(Object value);
+    }
+
+    public static class PooledTarget
+    {
+    }
+
+    public static class DispatchTarget
+    {
+        public Object call()
+        {
+            return RESULT;
+        }
+
+        public Object callInt(int value)
+        {
+            return RESULT;
+        }
+
+        public Object callObject(Object value)
+        {
+            return RESULT;
+        }
+    }
+
+    /**
+     * 模拟紧凑模式生成的代理class，方法体和生成的代码一样调用{@link FProxyHelper}
+     */
+    public static class DispatchProxy extends DispatchTarget implements FProxyInterface, FProxySuperInvoker
+    {
+        private static final FMethodInfo[] sMethodInfos;
+
+        static
+        {
+            try
+            {
+                sMethodInfos = new FMethodInfo[]{
+                        FMethodInfo.get(DispatchTarget.class.getMethod("call")),
+                        FMethodInfo.get(DispatchTarget.class.getMethod("callInt", int.class)),
+                        FMethodInfo.get(DispatchTarget.class.getMethod("callObject", Object.class)),
+                };
+            } catch (NoSuchMethodException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private final boolean mIsReuseArgs;
+        private volatile FMethodInterceptor mMethodInterceptor;
+        private volatile long[] mInterceptFlags;
+
+        /**
+         * @param isReuseArgs 是否和{@link ProxySpec#FLAG_REUSE_ARGS}一样复用参数数组
+         */
+        public DispatchProxy(boolean isReuseArgs)
+        {
+            mIsReuseArgs = isReuseArgs;
+        }
+
+        @Override
+        public Object call()
+        {
+            if (mMethodInterceptor == null)
+            {
+                return super.call();
+            }
+            return FProxyHelper.notifyInterceptor(sMethodInfos[0], 0, null, this);
+        }
+
+        @Override
+        public Object callInt(int value)
+        {
+            if (mMethodInterceptor == null)
+            {
+                return super.callInt(value);
+            }
+            final Object[] args = newArgs(1);
+            args[0] = value;
+            return notifyInterceptor(1, args);
+        }
+
+        @Override
+        public Object callObject(Object value)
+        {
+            if (mMethodInterceptor == null)
+            {
+                return super.callObject(value);
+            }
+            final Object[] args = newArgs(1);
+            args[0] = value;
+            return notifyInterceptor(2, args);
+        }
+
+        private Object[] newArgs(int length)
+        {
+            return mIsReuseArgs ? FProxyHelper.obtainArgs(length) : new Object[length];
+        }
+
+        private Object notifyInterceptor(int methodIndex, Object[] args)
+        {
+            try
+            {
+                return FProxyHelper.notifyInterceptor(sMethodInfos[methodIndex], methodIndex, args, this);
+            } finally
+            {
+                if (mIsReuseArgs)
+                {
+                    FProxyHelper.releaseArgs(args);
+                }
+            }
+        }
+
+        @Override
+        public Object invokeSuper$FProxy$(int methodIndex, Object[] args)
+        {
+            switch (methodIndex)
+            {
+                case 0:
+                    return super.call();
+                case 1:
+                    return super.callInt((Integer) args[0]);
+                case 2:
+                    return super.callObject(args[0]);
+                default:
+                    throw new FProxyException("method index out of range: " + methodIndex);
+            }
+        }
+
+        @Override
+        public void setMethodInterceptor$FProxy$(FMethodInterceptor interceptor)
+        {
+            mMethodInterceptor = interceptor;
+        }
+
+        @Override
+        public FMethodInterceptor getMethodInterceptor$FProxy$()
+        {
+            return mMethodInterceptor;
+        }
+
+        @Override
+        public void setInterceptFlags$FProxy$(long[] flags)
+        {
+            mInterceptFlags = flags;
+        }
+
+        @Override
+        public long[] getInterceptFlags$FProxy$()
+        {
+            return mInterceptFlags;
+        }
+    }
+
+    /**
+     * 模拟生成的代理class，对象池只通过{@link FProxyInterface}访问代理对象
+     */
+    public static class PooledProxy extends PooledTarget implements FProxyInterface
+    {
+        private volatile FMethodInterceptor mMethodInterceptor;
+        private volatile long[] mInterceptFlags;
+
+        @Override
+        public void setMethodInterceptor$FProxy$(FMethodInterceptor interceptor)
+        {
+            mMethodInterceptor = interceptor;
+        }
+
+        @Override
+        public FMethodInterceptor getMethodInterceptor$FProxy$()
+        {
+            return mMethodInterceptor;
+        }
+
+        @Override
+        public void setInterceptFlags$FProxy$(long[] flags)
+        {
+            mInterceptFlags = flags;
+        }
+
+        @Override
+        public long[] getInterceptFlags$FProxy$()
+        {
+            return mInterceptFlags;
+        }
+    }
+}
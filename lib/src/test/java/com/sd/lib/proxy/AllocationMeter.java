@@ -0,0 +1,82 @@
+package com.sd.lib.proxy;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * 用当前线程的分配计数器测量每次调用分配的字节数
+ * <p>
+ * 先预热让类加载和JIT编译完成，再连续调用多次取平均值，计数器本身的分配平均到每次调用可以忽略
+ */
+final class AllocationMeter
+{
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 100000;
+
+    private AllocationMeter()
+    {
+    }
+
+    /**
+     * 当前JVM是否支持线程分配计数器
+     *
+     * @return
+     */
+    public static boolean isSupported()
+    {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof ThreadMXBean))
+        {
+            return false;
+        }
+
+        final ThreadMXBean threadBean = (ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported())
+        {
+            return false;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        return true;
+    }
+
+    /**
+     * 返回一个小对象最多占用的字节数：64位JVM开启压缩指针的话是32，否则是56
+     *
+     * @return
+     */
+    public static int getObjectBytes()
+    {
+        final HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        if (bean != null && "true".equals(bean.getVMOption("UseCompressedOops").getValue()))
+        {
+            return 32;
+        }
+        return 56;
+    }
+
+    /**
+     * 返回每次调用平均分配的字节数
+     *
+     * @param action 要测量的调用
+     * @return
+     */
+    public static double measure(Runnable action)
+    {
+        for (int i = 0; i < WARMUP; i++)
+        {
+            action.run();
+        }
+
+        final ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final long start = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            action.run();
+        }
+        final long end = bean.getThreadAllocatedBytes(threadId);
+        return (double) (end - start) / ITERATIONS;
+    }
+}
@@ -0,0 +1,164 @@
+package com.sd.lib.proxy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 全局只保存方法信息和代理class状态的弱引用，代理class不再使用之后，代理class和ClassLoader可以被回收
+ */
+public class ClassUnloadTest
+{
+    @Test
+    public void testClassUnload() throws Exception
+    {
+        final WeakReference<ClassLoader> ref = loadProxyClass();
+        for (int i = 0; i < 50 && ref.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull("proxy class loader is still reachable", ref.get());
+    }
+
+    /**
+     * 在单独的ClassLoader中加载代理class，和代理工厂生成代理class之后一样使用
+     */
+    private static WeakReference<ClassLoader> loadProxyClass() throws Exception
+    {
+        final ClassLoader loader = new IsolatedLoader(GeneratedProxy.class.getName());
+        final Class<?> classProxy = loader.loadClass(GeneratedProxy.class.getName());
+        assertNotSame(GeneratedProxy.class, classProxy);
+
+        final FMethodInfo methodInfo = FMethodInfo.get(classProxy.getMethod("call"));
+        final Field field = classProxy.getDeclaredField(FProxyInterface.FIELD_NAME_METHODINFOS);
+        field.setAccessible(true);
+        field.set(null, new FMethodInfo[]{methodInfo});
+
+        final ProxyStateAccess access = ProxyStateAccess.attach(classProxy);
+        assertSame(access, ProxyStateAccess.get(classProxy));
+        assertSame(methodInfo, FMethodInfo.get(classProxy.getMethod("call")));
+        assertSame(methodInfo, FMethodInfo.get(methodInfo.getId()));
+        assertSame(classProxy, access.getSuperMethod(methodInfo, -1).getDeclaringClass());
+        return new WeakReference<>(loader);
+    }
+
+    /**
+     * 自己加载指定的class，其他class交给父ClassLoader
+     */
+    private static final class IsolatedLoader extends ClassLoader
+    {
+        private final String mClassName;
+
+        public IsolatedLoader(String className)
+        {
+            super(ClassUnloadTest.class.getClassLoader());
+            mClassName = className;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+        {
+            if (!mClassName.equals(name))
+            {
+                return super.loadClass(name, resolve);
+            }
+
+            synchronized (this)
+            {
+                Class<?> clazz = findLoadedClass(name);
+                if (clazz == null)
+                {
+                    final byte[] bytes = readClass(name);
+                    clazz = defineClass(name, bytes, 0, bytes.length);
+                }
+                return clazz;
+            }
+        }
+
+        private byte[] readClass(String name) throws ClassNotFoundException
+        {
+            final InputStream input = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+            if (input == null)
+            {
+                throw new ClassNotFoundException(name);
+            }
+            try
+            {
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                int count;
+                while ((count = input.read(buffer)) != -1)
+                {
+                    output.write(buffer, 0, count);
+                }
+                return output.toByteArray();
+            } catch (IOException e)
+            {
+                throw new ClassNotFoundException(name, e);
+            } finally
+            {
+                try
+                {
+                    input.close();
+                } catch (IOException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * 模拟生成的代理class
+     */
+    public static class GeneratedProxy implements FProxyInterface
+    {
+        private static FMethodInfo[] sMethodInfos;
+        private static Object sStateAccess;
+
+        public volatile FMethodInterceptor mMethodInterceptor;
+        public volatile long[] mInterceptFlags;
+
+        public Object call()
+        {
+            return null;
+        }
+
+        public Object call$Super$()
+        {
+            return null;
+        }
+
+        @Override
+        public void setMethodInterceptor$FProxy$(FMethodInterceptor interceptor)
+        {
+            mMethodInterceptor = interceptor;
+        }
+
+        @Override
+        public FMethodInterceptor getMethodInterceptor$FProxy$()
+        {
+            return mMethodInterceptor;
+        }
+
+        @Override
+        public void setInterceptFlags$FProxy$(long[] flags)
+        {
+            mInterceptFlags = flags;
+        }
+
+        @Override
+        public long[] getInterceptFlags$FProxy$()
+        {
+            return mInterceptFlags;
+        }
+    }
+}
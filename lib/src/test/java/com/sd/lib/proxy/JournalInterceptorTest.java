@@ -0,0 +1,77 @@
+package com.sd.lib.proxy;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 记录文件在其他进程中解析的时候，方法名称从.names文件读取
+ */
+public class JournalInterceptorTest
+{
+    @Test
+    public void testReadMethodNames() throws Exception
+    {
+        final File file = File.createTempFile("journal", ".bin");
+        final File namesFile = new File(file.getPath() + ".names");
+        file.deleteOnExit();
+        namesFile.deleteOnExit();
+
+        final FMethodInterceptor interceptor = new FMethodInterceptor()
+        {
+            @Override
+            public Object intercept(FInterceptInfo info, Object[] args)
+            {
+                return null;
+            }
+        };
+        final FJournalInterceptor journal = new FJournalInterceptor(file, 16, 64, interceptor);
+        final FMethodInfo methodSend = FMethodInfo.get(Service.class.getMethod("send", String.class, int[].class));
+        final FMethodInfo methodClose = FMethodInfo.get(Service.class.getMethod("close"));
+        journal.intercept(new FInterceptInfo(this, methodSend), new Object[]{"hello", new int[0]});
+        journal.intercept(new FInterceptInfo(this, methodClose), null);
+        journal.intercept(new FInterceptInfo(this, methodSend), new Object[]{"world", null});
+        journal.force();
+
+        final List<FJournalInterceptor.Event> listEvent = FJournalInterceptor.read(file);
+        assertEquals(3, listEvent.size());
+        final String nameSend = Service.class.getName() + "#send(java.lang.String,int[])";
+        assertEquals(nameSend, listEvent.get(0).getMethodName());
+        assertEquals(Service.class.getName() + "#close()", listEvent.get(1).getMethodName());
+        assertEquals(nameSend, listEvent.get(2).getMethodName());
+        assertEquals("world", listEvent.get(2).getArgs()[0]);
+        // 每个方法只写一次
+        assertEquals(2, countLines(namesFile));
+        assertTrue(listEvent.get(0).toString().contains(nameSend));
+    }
+
+    private static int countLines(File file) throws Exception
+    {
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try
+        {
+            int count = 0;
+            while (reader.readLine() != null)
+            {
+                count++;
+            }
+            return count;
+        } finally
+        {
+            reader.close();
+        }
+    }
+
+    public interface Service
+    {
+        void send(String message, int[] data);
+
+        void close();
+    }
+}
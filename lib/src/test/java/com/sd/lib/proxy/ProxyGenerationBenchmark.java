@@ -0,0 +1,170 @@
+package com.sd.lib.proxy;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * 生成代理class的速度，分别统计10、100、1000个方法的目标class每秒可以生成多少个代理class
+ * <p>
+ * 只统计反射信息、dexmaker声明和{@link com.android.dx.DexMaker#generate()}，加载dex只能在ART上执行，不统计
+ */
+public class ProxyGenerationBenchmark
+{
+    private static final int[] METHOD_COUNTS = {10, 100, 1000};
+    private static final int WARMUP_COUNT = 3;
+    private static final int MIN_COUNT = 3;
+    private static final long DURATION_NANOS = 1000L * 1000L * 1000L;
+
+    @Test
+    public void testGenerate() throws Exception
+    {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeTrue("java compiler is not available", compiler != null);
+
+        final File dir = createTempDir();
+        try
+        {
+            final String[] arrSource = new String[METHOD_COUNTS.length];
+            for (int i = 0; i < METHOD_COUNTS.length; i++)
+            {
+                arrSource[i] = writeTarget(dir, METHOD_COUNTS[i]).getPath();
+            }
+            if (compiler.run(null, null, null, arrSource) != 0)
+            {
+                throw new RuntimeException("compile benchmark targets failed");
+            }
+
+            final URLClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()},
+                    ProxyGenerationBenchmark.class.getClassLoader());
+            final DexMakerHelper.Interns interns = new DexMakerHelper.Interns();
+            for (int count : METHOD_COUNTS)
+            {
+                final Class<?> clazz = loader.loadClass(getTargetName(count));
+                measure(clazz, count, interns);
+            }
+        } finally
+        {
+            delete(dir);
+        }
+    }
+
+    private static void measure(Class<?> clazz, int methodCount, DexMakerHelper.Interns interns)
+    {
+        for (int i = 0; i < WARMUP_COUNT; i++)
+        {
+            generate(clazz, interns);
+        }
+
+        int count = 0;
+        int dexBytes = 0;
+        final long startTime = System.nanoTime();
+        long duration = 0;
+        while (count < MIN_COUNT || duration < DURATION_NANOS)
+        {
+            dexBytes = generate(clazz, interns);
+            count++;
+            duration = System.nanoTime() - startTime;
+        }
+
+        final double classesPerSecond = count * 1000000000.0 / duration;
+        System.out.println(String.format("generate %d methods: %.1f classes/sec (%d classes, dex %d bytes)",
+                methodCount, classesPerSecond, count, dexBytes));
+    }
+
+    /**
+     * 和代理工厂一样生成一次代理class
+     *
+     * @return dex的字节数
+     */
+    private static int generate(Class<?> clazz, DexMakerHelper.Interns interns)
+    {
+        final ProxyClassInfo info = new ProxyClassInfo(new ProxySpec(clazz, null, 0));
+        final DexMakerHelper helper = new DexMakerHelper(clazz, interns);
+        new ProxyClassGenerator(helper, info, null).generate();
+        return helper.getDexMaker().generate().length;
+    }
+
+    private static String getTargetName(int methodCount)
+    {
+        return "bench.Target" + methodCount;
+    }
+
+    /**
+     * 写入有指定数量方法的目标class源码，方法签名轮流使用无参数、基本类型参数和对象参数
+     */
+    private static File writeTarget(File dir, int methodCount) throws IOException
+    {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("package bench;\n\n");
+        builder.append("public class Target").append(methodCount).append("\n{\n");
+        for (int i = 0; i < methodCount; i++)
+        {
+            switch (i % 3)
+            {
+                case 0:
+                    builder.append("    public void method").append(i).append("()\n    {\n    }\n");
+                    break;
+                case 1:
+                    builder.append("    public int method").append(i).append("(int value, long time)\n")
+                            .append("    {\n        return value;\n    }\n");
+                    break;
+                default:
+                    builder.append("    public String method").append(i).append("(String value, Object extra)\n")
+                            .append("    {\n        return value;\n    }\n");
+                    break;
+            }
+        }
+        builder.append("}\n");
+
+        final File packageDir = new File(dir, "bench");
+        if (!packageDir.exists() && !packageDir.mkdirs())
+        {
+            throw new IOException("mkdirs failed: " + packageDir);
+        }
+
+        final File file = new File(packageDir, "Target" + methodCount + ".java");
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try
+        {
+            writer.write(builder.toString());
+        } finally
+        {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static File createTempDir() throws IOException
+    {
+        final File file = File.createTempFile("proxy_benchmark", "");
+        if (!file.delete() || !file.mkdirs())
+        {
+            throw new IOException("create temp dir failed: " + file);
+        }
+        return file;
+    }
+
+    private static void delete(File file)
+    {
+        final File[] files = file.listFiles();
+        if (files != null)
+        {
+            for (File item : files)
+            {
+                delete(item);
+            }
+        }
+        file.delete();
+    }
+}
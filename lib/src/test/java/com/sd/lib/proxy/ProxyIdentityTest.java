@@ -0,0 +1,161 @@
+package com.sd.lib.proxy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 同一个拦截对象给多个代理对象使用的时候，按代理对象区分调用
+ */
+public class ProxyIdentityTest
+{
+    private FMethodInfo mMethodInfo;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mMethodInfo = FMethodInfo.get(Service.class.getMethod("callInt", int.class));
+    }
+
+    @Test
+    public void testCachingInterceptor()
+    {
+        final AtomicInteger counter = new AtomicInteger();
+        final FCachingInterceptor interceptor = new FCachingInterceptor(16, new FMethodInterceptor()
+        {
+            @Override
+            public Object intercept(FInterceptInfo info, Object[] args)
+            {
+                counter.incrementAndGet();
+                return info.getProxy();
+            }
+        });
+
+        final Object proxyA = new Object();
+        final Object proxyB = new Object();
+        final Object[] args = new Object[]{1};
+
+        assertSame(proxyA, interceptor.intercept(new FInterceptInfo(proxyA, mMethodInfo), args));
+        assertSame(proxyB, interceptor.intercept(new FInterceptInfo(proxyB, mMethodInfo), args));
+        assertSame(proxyA, interceptor.intercept(new FInterceptInfo(proxyA, mMethodInfo), args));
+        assertEquals(2, counter.get());
+        assertEquals(1, interceptor.getHitCount());
+    }
+
+    @Test
+    public void testCachingInterceptorMaxSize()
+    {
+        final FCachingInterceptor interceptor = new FCachingInterceptor(37, new FMethodInterceptor()
+        {
+            @Override
+            public Object intercept(FInterceptInfo info, Object[] args)
+            {
+                return args[0];
+            }
+        });
+
+        final FInterceptInfo info = new FInterceptInfo(this, mMethodInfo);
+        for (int i = 0; i < 10000; i++)
+        {
+            interceptor.intercept(info, new Object[]{i});
+        }
+        assertEquals(37, interceptor.size());
+    }
+
+    @Test
+    public void testSingleFlightInterceptor() throws Exception
+    {
+        // 两个代理对象的调用都进入之后才返回，被合并的话第二个调用会等待第一个调用，第一个调用等不到第二个调用
+        final CountDownLatch entered = new CountDownLatch(2);
+        final FSingleFlightInterceptor interceptor = new FSingleFlightInterceptor(new FMethodInterceptor()
+        {
+            @Override
+            public Object intercept(FInterceptInfo info, Object[] args)
+            {
+                entered.countDown();
+                try
+                {
+                    entered.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e)
+                {
+                    throw new RuntimeException(e);
+                }
+                return info.getProxy();
+            }
+        });
+
+        final Object proxyA = new Object();
+        final Object proxyB = new Object();
+        final Object[] results = new Object[2];
+        final Thread threadA = newCallThread(interceptor, proxyA, results, 0);
+        final Thread threadB = newCallThread(interceptor, proxyB, results, 1);
+        threadA.start();
+        threadB.start();
+        threadA.join();
+        threadB.join();
+
+        assertEquals(0, entered.getCount());
+        assertSame(proxyA, results[0]);
+        assertSame(proxyB, results[1]);
+        assertEquals(2, interceptor.getExecuteCount());
+        assertEquals(0, interceptor.getShareCount());
+    }
+
+    @Test
+    public void testBulkheadInterceptorPerProxy()
+    {
+        final FInterceptInfo[] infoB = new FInterceptInfo[1];
+        final FBulkheadInterceptor[] bulkhead = new FBulkheadInterceptor[1];
+        final AtomicInteger rejected = new AtomicInteger();
+        bulkhead[0] = new FBulkheadInterceptor(1, FBulkheadInterceptor.Scope.PER_PROXY, FBulkheadInterceptor.Policy.REJECT, 0,
+                new FMethodInterceptor()
+                {
+                    @Override
+                    public Object intercept(FInterceptInfo info, Object[] args)
+                    {
+                        if (info.getProxy() != infoB[0].getProxy())
+                        {
+                            // 代理对象A的许可被占用的时候，代理对象B仍然可以执行，代理对象A不能再执行
+                            bulkhead[0].intercept(infoB[0], args);
+                            try
+                            {
+                                bulkhead[0].intercept(info, args);
+                            } catch (FProxyException e)
+                            {
+                                rejected.incrementAndGet();
+                            }
+                        }
+                        return info.getProxy();
+                    }
+                });
+
+        final Object proxyA = new Object();
+        infoB[0] = new FInterceptInfo(new Object(), mMethodInfo);
+        assertSame(proxyA, bulkhead[0].intercept(new FInterceptInfo(proxyA, mMethodInfo), new Object[]{1}));
+        assertEquals(1, rejected.get());
+        assertEquals(0, bulkhead[0].getInFlightCount());
+    }
+
+    private Thread newCallThread(final FSingleFlightInterceptor interceptor, final Object proxy, final Object[] results, final int index)
+    {
+        return new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                results[index] = interceptor.intercept(new FInterceptInfo(proxy, mMethodInfo), new Object[]{1});
+            }
+        });
+    }
+
+    public interface Service
+    {
+        Object callInt(int value);
+    }
+}
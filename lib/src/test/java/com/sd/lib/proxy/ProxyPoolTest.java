@@ -0,0 +1,140 @@
+package com.sd.lib.proxy;
+
+import android.content.ContextWrapper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 对象池只接受自己创建的代理对象，归还的时候恢复代理对象的状态
+ */
+public class ProxyPoolTest
+{
+    private static final int SAMPLE_RATE = 10;
+
+    private FMethodInterceptor mInterceptor;
+    private FProxyPool<Target> mPool;
+
+    @Before
+    public void setUp()
+    {
+        mInterceptor = new FMethodInterceptor()
+        {
+            @Override
+            public Object intercept(FInterceptInfo info, Object[] args)
+            {
+                return null;
+            }
+        };
+        mPool = new FProxyPool<Target>(new FProxyFactory(new ContextWrapper(null)), Target.class, 4)
+        {
+            @Override
+            Target createProxy(FMethodInterceptor methodInterceptor)
+            {
+                final SampledProxy proxy = new SampledProxy();
+                proxy.setMethodInterceptor$FProxy$(methodInterceptor);
+                proxy.setSampleState$FProxy$(FProxyControl.newSampleState(2, SAMPLE_RATE));
+                return proxy;
+            }
+        };
+    }
+
+    @Test
+    public void testRejectForeignProxy()
+    {
+        mPool.release(mPool.acquire(mInterceptor));
+
+        // 同一个class，但不是这个池创建的代理class
+        try
+        {
+            mPool.release(new ForeignProxy());
+            fail("foreign proxy is accepted");
+        } catch (FProxyException e)
+        {
+            // 拒绝
+        }
+        assertEquals(1, mPool.getIdleCount());
+    }
+
+    @Test
+    public void testResetState()
+    {
+        final SampledProxy proxy = (SampledProxy) mPool.acquire(mInterceptor);
+        proxy.setInterceptFlags$FProxy$(new long[]{1});
+        final int[] state = proxy.getSampleState$FProxy$();
+        state[0] = 1;
+        state[3] = 5;
+
+        assertTrue(mPool.release(proxy));
+        assertNull(proxy.getMethodInterceptor$FProxy$());
+        assertNull(proxy.getInterceptFlags$FProxy$());
+        assertEquals(SAMPLE_RATE, proxy.getSampleState$FProxy$()[0]);
+        assertEquals(SAMPLE_RATE, proxy.getSampleState$FProxy$()[2]);
+
+        // 采样间隔没有被修改过的话保留原来的状态
+        final int[] resetState = proxy.getSampleState$FProxy$();
+        assertSame(proxy, mPool.acquire(mInterceptor));
+        assertTrue(mPool.release(proxy));
+        assertSame(resetState, proxy.getSampleState$FProxy$());
+    }
+
+    public static class Target
+    {
+    }
+
+    /**
+     * 模拟生成的采样代理class
+     */
+    public static class SampledProxy extends Target implements FProxyInterface, FSampledProxyInterface
+    {
+        private volatile FMethodInterceptor mMethodInterceptor;
+        private volatile long[] mInterceptFlags;
+        private volatile int[] mSampleState;
+
+        @Override
+        public void setMethodInterceptor$FProxy$(FMethodInterceptor interceptor)
+        {
+            mMethodInterceptor = interceptor;
+        }
+
+        @Override
+        public FMethodInterceptor getMethodInterceptor$FProxy$()
+        {
+            return mMethodInterceptor;
+        }
+
+        @Override
+        public void setInterceptFlags$FProxy$(long[] flags)
+        {
+            mInterceptFlags = flags;
+        }
+
+        @Override
+        public long[] getInterceptFlags$FProxy$()
+        {
+            return mInterceptFlags;
+        }
+
+        @Override
+        public void setSampleState$FProxy$(int[] state)
+        {
+            mSampleState = state;
+        }
+
+        @Override
+        public int[] getSampleState$FProxy$()
+        {
+            return mSampleState;
+        }
+    }
+
+    public static class ForeignProxy extends SampledProxy
+    {
+    }
+}